@@ -0,0 +1,19 @@
+package co.bstorm.aleksa.recipes.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Created by aleksa on 8/13/16.
+ *
+ * Marks a pojo for which a reflection-free Gson TypeAdapter should be generated at compile time
+ *
+ * Only fields annotated with @SerializedName are bound, and they are accessed through their
+ * getters and setters (so the fields can stay private)
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateTypeAdapter {
+}
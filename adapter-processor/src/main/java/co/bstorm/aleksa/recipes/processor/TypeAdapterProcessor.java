@@ -0,0 +1,438 @@
+package co.bstorm.aleksa.recipes.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Created by aleksa on 8/13/16.
+ *
+ * Generates a Gson TypeAdapter for every class annotated with {@link GenerateTypeAdapter}, plus a
+ * GeneratedTypeAdapterFactory per package that hands them out
+ *
+ * The generated adapters read numbers with JsonReader.nextInt()/nextDouble(), which parse quoted
+ * values ("id":"2307") directly from the token, so there's no boxing and no reflection involved
+ *
+ * Supported field types are primitives, String, other annotated pojos and collections of them
+ * Anything else falls back to whatever adapter Gson has for that type
+ */
+@SupportedAnnotationTypes("co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter")
+public class TypeAdapterProcessor extends AbstractProcessor {
+
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+
+    static final String ADAPTER_SUFFIX = "TypeAdapter";
+    static final String FACTORY_NAME = "GeneratedTypeAdapterFactory";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        Messager messager = processingEnv.getMessager();
+
+        // Annotated classes grouped by package, since we generate one factory per package
+        Map<String, List<TypeElement>> byPackage = new LinkedHashMap<>();
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateTypeAdapter.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                messager.printMessage(Diagnostic.Kind.ERROR,
+                        "@GenerateTypeAdapter can only be applied to classes", element);
+                continue;
+            }
+
+            TypeElement type = (TypeElement) element;
+            String packageName = getPackageName(type);
+
+            if (!byPackage.containsKey(packageName))
+                byPackage.put(packageName, new ArrayList<TypeElement>());
+            byPackage.get(packageName).add(type);
+        }
+
+        for (Map.Entry<String, List<TypeElement>> entry : byPackage.entrySet()) {
+            try {
+                for (TypeElement type : entry.getValue()) {
+                    writeAdapter(type, collectFields(type));
+                }
+                writeFactory(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Could not generate adapters: " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Collects all fields that carry @SerializedName, together with their accessors
+     */
+    private List<BoundField> collectFields(TypeElement type) {
+
+        List<BoundField> fields = new ArrayList<>();
+
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.FIELD
+                    || member.getModifiers().contains(Modifier.STATIC)
+                    || member.getModifiers().contains(Modifier.TRANSIENT))
+                continue;
+
+            String jsonName = getSerializedName(member);
+            if (jsonName == null)
+                continue;
+
+            VariableElement field = (VariableElement) member;
+            String fieldName = field.getSimpleName().toString();
+            String capitalized = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+
+            BoundField bound = new BoundField();
+            bound.jsonName = jsonName;
+            bound.type = field.asType();
+            bound.getter = (bound.type.getKind() == TypeKind.BOOLEAN ? "is" : "get") + capitalized;
+            bound.setter = "set" + capitalized;
+
+            if (!hasMethod(type, bound.getter, 0) || !hasMethod(type, bound.setter, 1)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Field " + fieldName + " needs a " + bound.getter + "() and " + bound.setter + "() pair", field);
+                continue;
+            }
+
+            fields.add(bound);
+        }
+
+        return fields;
+    }
+
+    private void writeAdapter(TypeElement type, List<BoundField> fields) throws IOException {
+
+        String packageName = getPackageName(type);
+        String typeName = type.getSimpleName().toString();
+        String adapterName = typeName + ADAPTER_SUFFIX;
+
+        // Adapters of nested types, keyed by the type they handle
+        Map<String, String> nestedAdapters = new LinkedHashMap<>();
+        for (BoundField field : fields) {
+            TypeMirror nested = field.nestedType();
+            if (nested != null && !nestedAdapters.containsKey(nested.toString()))
+                nestedAdapters.put(nested.toString(), "adapter" + nestedAdapters.size());
+        }
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + adapterName, type);
+        PrintWriter w = new PrintWriter(file.openWriter());
+
+        w.println("// Generated by TypeAdapterProcessor, do not edit");
+        w.println("package " + packageName + ";");
+        w.println();
+        w.println("import com.google.gson.Gson;");
+        w.println("import com.google.gson.JsonSyntaxException;");
+        w.println("import com.google.gson.TypeAdapter;");
+        w.println("import com.google.gson.stream.JsonReader;");
+        w.println("import com.google.gson.stream.JsonToken;");
+        w.println("import com.google.gson.stream.JsonWriter;");
+        w.println();
+        w.println("import java.io.IOException;");
+        w.println();
+        w.println("public final class " + adapterName + " extends TypeAdapter<" + typeName + "> {");
+        w.println();
+        w.println("    private final Gson gson;");
+        for (Map.Entry<String, String> nested : nestedAdapters.entrySet()) {
+            w.println("    private TypeAdapter<" + nested.getKey() + "> " + nested.getValue() + ";");
+        }
+        w.println();
+        w.println("    public " + adapterName + "(Gson gson) {");
+        w.println("        this.gson = gson;");
+        w.println("    }");
+
+        // Nested adapters are created lazily, so that types referencing each other don't recurse
+        for (Map.Entry<String, String> nested : nestedAdapters.entrySet()) {
+            w.println();
+            w.println("    private TypeAdapter<" + nested.getKey() + "> " + nested.getValue() + "() {");
+            w.println("        if (" + nested.getValue() + " == null)");
+            w.println("            " + nested.getValue() + " = " + newAdapterExpression(nested.getKey()) + ";");
+            w.println("        return " + nested.getValue() + ";");
+            w.println("    }");
+        }
+
+        // read()
+        w.println();
+        w.println("    @Override");
+        w.println("    public " + typeName + " read(JsonReader in) throws IOException {");
+        w.println("        if (in.peek() == JsonToken.NULL) {");
+        w.println("            in.nextNull();");
+        w.println("            return null;");
+        w.println("        }");
+        w.println();
+        w.println("        " + typeName + " value = new " + typeName + "();");
+        w.println();
+        w.println("        try {");
+        w.println("            in.beginObject();");
+        w.println("            while (in.hasNext()) {");
+        w.println("                String name = in.nextName();");
+        w.println("                // Nulls keep the default value, just like the reflective adapter does");
+        w.println("                if (in.peek() == JsonToken.NULL) {");
+        w.println("                    in.nextNull();");
+        w.println("                    continue;");
+        w.println("                }");
+        w.println("                switch (name) {");
+        for (BoundField field : fields) {
+            w.println("                    case \"" + field.jsonName + "\": {");
+            writeRead(w, field, nestedAdapters, "                        ");
+            w.println("                        break;");
+            w.println("                    }");
+        }
+        w.println("                    default:");
+        w.println("                        in.skipValue();");
+        w.println("                }");
+        w.println("            }");
+        w.println("            in.endObject();");
+        w.println("        } catch (NumberFormatException e) {");
+        w.println("            throw new JsonSyntaxException(e);");
+        w.println("        }");
+        w.println();
+        w.println("        return value;");
+        w.println("    }");
+
+        // write()
+        w.println();
+        w.println("    @Override");
+        w.println("    public void write(JsonWriter out, " + typeName + " value) throws IOException {");
+        w.println("        if (value == null) {");
+        w.println("            out.nullValue();");
+        w.println("            return;");
+        w.println("        }");
+        w.println();
+        w.println("        out.beginObject();");
+        for (BoundField field : fields) {
+            writeWrite(w, field, nestedAdapters, "        ");
+        }
+        w.println("        out.endObject();");
+        w.println("    }");
+        w.println("}");
+
+        w.close();
+    }
+
+    private void writeRead(PrintWriter w, BoundField field, Map<String, String> nestedAdapters, String indent) {
+
+        switch (field.type.getKind()) {
+            case INT:
+                w.println(indent + "value." + field.setter + "(in.nextInt());");
+                return;
+            case LONG:
+                w.println(indent + "value." + field.setter + "(in.nextLong());");
+                return;
+            case FLOAT:
+                w.println(indent + "value." + field.setter + "((float) in.nextDouble());");
+                return;
+            case DOUBLE:
+                w.println(indent + "value." + field.setter + "(in.nextDouble());");
+                return;
+            case BOOLEAN:
+                w.println(indent + "value." + field.setter + "(in.peek() == JsonToken.STRING"
+                        + " ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean());");
+                return;
+        }
+
+        if (field.isString()) {
+            w.println(indent + "value." + field.setter + "(in.peek() == JsonToken.BOOLEAN"
+                    + " ? Boolean.toString(in.nextBoolean()) : in.nextString());");
+            return;
+        }
+
+        String adapter = nestedAdapters.get(field.nestedType().toString()) + "()";
+
+        if (field.isCollection()) {
+            String elementType = field.nestedType().toString();
+            w.println(indent + field.type + " list = new " + field.collectionImplementation() + "<" + elementType + ">();");
+            w.println(indent + "in.beginArray();");
+            w.println(indent + "while (in.hasNext()) {");
+            w.println(indent + "    list.add(" + adapter + ".read(in));");
+            w.println(indent + "}");
+            w.println(indent + "in.endArray();");
+            w.println(indent + "value." + field.setter + "(list);");
+        }
+        else {
+            w.println(indent + "value." + field.setter + "(" + adapter + ".read(in));");
+        }
+    }
+
+    private void writeWrite(PrintWriter w, BoundField field, Map<String, String> nestedAdapters, String indent) {
+
+        String name = "out.name(\"" + field.jsonName + "\")";
+
+        switch (field.type.getKind()) {
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case BOOLEAN:
+                w.println(indent + name + ".value(value." + field.getter + "());");
+                return;
+        }
+
+        if (field.isString()) {
+            w.println(indent + name + ".value(value." + field.getter + "());");
+            return;
+        }
+
+        String adapter = nestedAdapters.get(field.nestedType().toString()) + "()";
+
+        if (field.isCollection()) {
+            w.println(indent + "if (value." + field.getter + "() == null) {");
+            w.println(indent + "    " + name + ".nullValue();");
+            w.println(indent + "} else {");
+            w.println(indent + "    " + name + ".beginArray();");
+            w.println(indent + "    for (" + field.nestedType() + " element : value." + field.getter + "()) {");
+            w.println(indent + "        " + adapter + ".write(out, element);");
+            w.println(indent + "    }");
+            w.println(indent + "    out.endArray();");
+            w.println(indent + "}");
+        }
+        else {
+            w.println(indent + name + ";");
+            w.println(indent + adapter + ".write(out, value." + field.getter + "());");
+        }
+    }
+
+    private void writeFactory(String packageName, List<TypeElement> types) throws IOException {
+
+        Element[] origins = types.toArray(new Element[types.size()]);
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + FACTORY_NAME, origins);
+        PrintWriter w = new PrintWriter(file.openWriter());
+
+        w.println("// Generated by TypeAdapterProcessor, do not edit");
+        w.println("package " + packageName + ";");
+        w.println();
+        w.println("import com.google.gson.Gson;");
+        w.println("import com.google.gson.TypeAdapter;");
+        w.println("import com.google.gson.TypeAdapterFactory;");
+        w.println("import com.google.gson.reflect.TypeToken;");
+        w.println();
+        w.println("public final class " + FACTORY_NAME + " implements TypeAdapterFactory {");
+        w.println();
+        w.println("    @Override");
+        w.println("    @SuppressWarnings(\"unchecked\")");
+        w.println("    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {");
+        w.println("        Class<? super T> rawType = type.getRawType();");
+        for (TypeElement type : types) {
+            String typeName = type.getSimpleName().toString();
+            w.println("        if (rawType == " + typeName + ".class)");
+            w.println("            return (TypeAdapter<T>) new " + typeName + ADAPTER_SUFFIX + "(gson);");
+        }
+        w.println("        return null;");
+        w.println("    }");
+        w.println("}");
+
+        w.close();
+    }
+
+    /**
+     * Returns an expression creating an adapter for the given type, preferring generated adapters
+     */
+    private String newAdapterExpression(String typeName) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(typeName);
+        if (element != null && element.getAnnotation(GenerateTypeAdapter.class) != null)
+            return "new " + typeName + ADAPTER_SUFFIX + "(gson)";
+        return "gson.getAdapter(" + typeName + ".class)";
+    }
+
+    private boolean hasMethod(TypeElement type, String name, int parameterCount) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.METHOD
+                    && member.getSimpleName().contentEquals(name)
+                    && ((ExecutableElement) member).getParameters().size() == parameterCount)
+                return true;
+        }
+        return false;
+    }
+
+    private String getPackageName(TypeElement type) {
+        Element enclosing = type.getEnclosingElement();
+        while (!(enclosing instanceof PackageElement)) {
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return ((PackageElement) enclosing).getQualifiedName().toString();
+    }
+
+    private String getSerializedName(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().toString().equals(SERIALIZED_NAME))
+                continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value"))
+                    return (String) entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A single JSON member bound to a pojo field
+     */
+    private class BoundField {
+
+        String jsonName;
+        TypeMirror type;
+        String getter;
+        String setter;
+
+        boolean isString() {
+            return type.toString().equals("java.lang.String");
+        }
+
+        boolean isCollection() {
+            TypeMirror collection = processingEnv.getTypeUtils().erasure(
+                    processingEnv.getElementUtils().getTypeElement("java.util.Collection").asType());
+            return type.getKind() == TypeKind.DECLARED
+                    && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type), collection);
+        }
+
+        /**
+         * @return The type that needs its own adapter (element type for collections), or null for simple types
+         */
+        TypeMirror nestedType() {
+            if (type.getKind().isPrimitive() || isString())
+                return null;
+            if (isCollection())
+                return ((DeclaredType) type).getTypeArguments().get(0);
+            return type;
+        }
+
+        /**
+         * @return The class we instantiate when reading the collection
+         */
+        String collectionImplementation() {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (element.getKind() == ElementKind.INTERFACE)
+                return "java.util.ArrayList";
+            return element.getQualifiedName().toString();
+        }
+    }
+}
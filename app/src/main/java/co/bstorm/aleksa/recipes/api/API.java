@@ -1,22 +1,39 @@
 package co.bstorm.aleksa.recipes.api;
 
+import android.content.Context;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import co.bstorm.aleksa.recipes.api.NetworkScheduler.Priority;
 import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
 import co.bstorm.aleksa.recipes.constants.Constants;
-import co.bstorm.aleksa.recipes.libs.gson.MyDeserializer;
+import co.bstorm.aleksa.recipes.libs.gson.EnvelopeTypeAdapterFactory;
 import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.GeneratedTypeAdapterFactory;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
 import co.bstorm.aleksa.recipes.pojo.TagCategory;
+import io.realm.Realm;
+import okhttp3.Cache;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
 import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.HttpException;
 import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 import rx.Observable;
+import rx.exceptions.Exceptions;
+import rx.functions.Func1;
 
 /**
  * Created by aleksa on 7/29/16.
@@ -25,42 +42,310 @@ import rx.Observable;
  */
 public class API {
 
-    private static Type recipeListType = new TypeToken<ArrayList<Recipe>>(){}.getType();
-    private static Type componentListType = new TypeToken<ArrayList<Component>>(){}.getType();
-    private static Type tagListType = new TypeToken<ArrayList<TagCategory>>(){}.getType();
+    // Built on first use (see warmUp), so loading this class on the main thread stays cheap
+    private static Gson gson = null;
+
+    // Used for the on-disk HTTP cache, set in init()
+    private static File cacheDirectory = null;
+    // Used to check what's synced before skipping a cached response, set in init()
+    private static Context appContext = null;
+
+    // Shared by every request, so they share its connection pool and dispatcher
+    private static OkHttpClient client = null;
+
+    private static RecipesApiInterface recipesInterface = null;
+
+    // Makes concurrent identical requests (rotation, repeated scroll events) share one call
+    private static RequestCoalescer coalescer = new RequestCoalescer(Constants.APIConstants.COALESCE_WINDOW_MILLIS);
+
+    // Lets the requests the user is waiting on go out before the bulk downloads
+    private static NetworkScheduler networkScheduler = new NetworkScheduler(Constants.APIConstants.MAX_CONCURRENT_REQUESTS);
+
+    /**
+     * Sets up the on-disk HTTP cache, should be called before any request is made
+     */
+    public static void init(Context context){
+        cacheDirectory = new File(context.getCacheDir(), Constants.CacheConstants.HTTP_CACHE_DIR);
+        appContext = context.getApplicationContext();
+    }
+
+    /**
+     * Builds Gson and the Retrofit interface ahead of the first request, should be called off the main thread
+     */
+    public static void warmUp(){
+        getRecipesInterface();
+    }
+
+    /**
+     * Builds Gson the first time it's needed
+     *
+     * It unwraps the response envelopes while streaming, for both single objects and lists
+     * The pojos themselves are read by the compile-time generated adapters
+     * (the envelope factory is registered last so it gets asked first, and delegates to the generated ones)
+     */
+    public static synchronized Gson getGson(){
+        if (gson != null)
+            return gson;
+
+        gson = new GsonBuilder()
+                .registerTypeAdapterFactory(new GeneratedTypeAdapterFactory())
+                .registerTypeAdapterFactory(new EnvelopeTypeAdapterFactory()
+                        .withEnvelope(Recipe.class, "recipes")
+                        .withEnvelope(Component.class, "ingredients")
+                        .withEnvelope(TagCategory.class, "tag_categories"))
+                .create();
+        return gson;
+    }
+
+    public static RequestCoalescer getCoalescer(){
+        return coalescer;
+    }
+
+    public static NetworkScheduler getNetworkScheduler(){
+        return networkScheduler;
+    }
+
+    /**
+     * Builds the OkHttp client the first time it's needed
+     */
+    private static synchronized OkHttpClient getClient(){
+        if (client != null)
+            return client;
+
+        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
+
+        // Without a cache directory (in unit tests for example) we simply don't cache anything
+        if (cacheDirectory != null) {
+            Map<String, Integer> ttlSeconds = new HashMap<>();
+            ttlSeconds.put(Constants.APIConstants.COMPONENTS_PATH, Constants.CacheConstants.COMPONENTS_TTL_SECONDS);
+            ttlSeconds.put(Constants.APIConstants.TAGS_PATH, Constants.CacheConstants.TAGS_TTL_SECONDS);
+
+            clientBuilder
+                    .cache(new Cache(cacheDirectory, Constants.CacheConstants.HTTP_CACHE_SIZE))
+                    .addInterceptor(HttpCaching.notModifiedInterceptor(ttlSeconds, realmStore()))
+                    .addNetworkInterceptor(HttpCaching.freshnessInterceptor(ttlSeconds));
+        }
 
-    private static Gson gson = new GsonBuilder()
-            .registerTypeAdapter(Recipe.class, new MyDeserializer<Recipe>())
-            .registerTypeAdapter(recipeListType, new MyDeserializer<ArrayList<Recipe>>())
-            .registerTypeAdapter(Component.class, new MyDeserializer<Component>())
-            .registerTypeAdapter(componentListType, new MyDeserializer<ArrayList<Component>>())
-            .registerTypeAdapter(tagListType, new MyDeserializer<ArrayList<TagCategory>>())
-            .registerTypeAdapter(TagCategory.class, new MyDeserializer<TagCategory>())
-            .create();
+        client = clientBuilder.build();
+        return client;
+    }
+
+    /**
+     * A cached response is held by Realm if its entity was synced after the response came in (so the
+     * write went through), and its rows are still there
+     */
+    private static HttpCaching.Store realmStore(){
+        return new HttpCaching.Store() {
+            @Override
+            public boolean holds(String path, long receivedAtMillis) {
+                boolean components = Constants.APIConstants.COMPONENTS_PATH.equals(path);
+                String entity = components ? SyncState.COMPONENTS : SyncState.TAGS;
+                if (SyncState.getLastSync(appContext, entity) < receivedAtMillis)
+                    return false;
+
+                Realm realm = RealmSessions.get().acquire();
+                try {
+                    return realm.where(components ? Component.class : TagCategory.class).count() > 0;
+                } finally {
+                    RealmSessions.get().release();
+                }
+            }
+        };
+    }
 
-    private static Retrofit retrofit =
-            new Retrofit.Builder()
-                    .baseUrl(Constants.APIConstants.BASE_URL)
-                    .addConverterFactory(GsonConverterFactory.create(gson))
-                    .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
-                    .build();
+    /**
+     * Builds the Retrofit interface the first time it's needed
+     */
+    private static synchronized RecipesApiInterface getRecipesInterface(){
+        if (recipesInterface != null)
+            return recipesInterface;
 
+        Retrofit retrofit =
+                new Retrofit.Builder()
+                        .baseUrl(Constants.APIConstants.BASE_URL)
+                        .client(getClient())
+                        .addConverterFactory(GsonConverterFactory.create(getGson()))
+                        .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                        .build();
 
-    private static RecipesApiInterface recipesInterface = retrofit.create(RecipesApiInterface.class);
+        recipesInterface = retrofit.create(RecipesApiInterface.class);
+        return recipesInterface;
+    }
+
+    /**
+     * Turns a 304 (the data we already have is up to date) into an empty observable,
+     * so there's nothing to parse or write
+     */
+    private static <T> Observable<T> skipNotModified(Observable<T> observable){
+        return observable.onErrorResumeNext(new Func1<Throwable, Observable<? extends T>>() {
+            @Override
+            public Observable<? extends T> call(Throwable throwable) {
+                if (throwable instanceof HttpException
+                        && ((HttpException) throwable).code() == HttpURLConnection.HTTP_NOT_MODIFIED)
+                    return Observable.empty();
+                return Observable.error(throwable);
+            }
+        });
+    }
 
-    public static Observable<ArrayList<Recipe>> getAllRecipes(){
-        return recipesInterface.listAllRecipes();
+    /**
+     * Sends a batch of likes, behind anything the user is waiting on
+     */
+    public static Observable<ResponseBody> postLikes(List<PendingLike> likes){
+        return networkScheduler.schedule(Priority.BACKGROUND, getRecipesInterface().postLikes(likes));
     }
 
+    /**
+     * Creates a downloader for the whole catalog snapshot
+     * It doesn't use the HTTP cache (the snapshot is way too big for it), it resumes on its own instead,
+     * but it shares the connection pool and dispatcher of the other requests
+     *
+     * @param validatorFile Where the validator of the partly downloaded snapshot is kept
+     */
+    public static SnapshotDownloader getSnapshotDownloader(File validatorFile){
+        return new SnapshotDownloader(getClient().newBuilder().cache(null).build(),
+                Constants.APIConstants.BASE_URL + Constants.APIConstants.SNAPSHOT_PATH,
+                validatorFile,
+                Constants.RetryConstants.MAX_RETRIES,
+                Constants.RetryConstants.BASE_DELAY_MILLIS);
+    }
+
+    /**
+     * Fetches a page the user is waiting on
+     * Pages only have recipe summaries, details are fetched when a recipe is opened
+     */
     public static Observable<ArrayList<Recipe>> getOffsetRecipes(int offset){
-        return recipesInterface.listOffsetRecipes(offset);
+        return getOffsetRecipes(offset, Priority.INTERACTIVE);
+    }
+
+    public static Observable<ArrayList<Recipe>> getOffsetRecipes(int offset, Priority priority){
+        return parse(streamOffsetRecipes(offset, priority), FetchData.RECIPES_TYPE);
+    }
+
+    /**
+     * Same as getOffsetRecipes, but as a raw body
+     */
+    public static Observable<ResponseBody> streamOffsetRecipes(int offset, Priority priority){
+        return coalesceBody(priority + " recipes/get-recipes?offset=" + offset,
+                networkScheduler.schedule(priority,
+                        getRecipesInterface().streamOffsetRecipes(offset, Constants.APIConstants.SUMMARY_FIELDS)));
+    }
+
+    /**
+     * Fetches the page after the given keyset position, the user is waiting on this one too
+     */
+    public static Observable<ArrayList<Recipe>> getRecipesAfter(PageCursor cursor){
+        return parse(coalesceBody(Priority.INTERACTIVE + " recipes/get-recipes?after_key=" + cursor.getSortKey()
+                        + "&after_id=" + cursor.getId(),
+                networkScheduler.schedule(Priority.INTERACTIVE,
+                        getRecipesInterface().streamRecipesAfter(cursor.getSortKey(), cursor.getId(),
+                                Constants.APIConstants.SUMMARY_FIELDS))),
+                FetchData.RECIPES_TYPE);
+    }
+
+    public static Observable<ArrayList<Recipe>> getChangedRecipes(String updatedSince, int offset){
+        return parse(coalesceBody(Priority.BACKGROUND + " recipes/get-recipes?updated_since=" + updatedSince
+                        + "&offset=" + offset,
+                networkScheduler.schedule(Priority.BACKGROUND,
+                        getRecipesInterface().streamChangedRecipes(updatedSince, offset,
+                                Constants.APIConstants.SUMMARY_FIELDS))),
+                FetchData.RECIPES_TYPE);
+    }
+
+    /**
+     * Fetches the full recipes (with steps and ingredients) for the given ids as a raw body, when someone
+     * opens them or the prefetcher gets to them
+     * An opened recipe doesn't ask again for what the prefetcher has in flight (see DetailPrefetcher.isInFlight)
+     */
+    public static Observable<ResponseBody> streamRecipeDetails(List<Integer> ids, Priority priority){
+        String joined = joinIds(ids);
+        return coalesceBody(priority + " recipes/get-recipes?ids=" + joined,
+                networkScheduler.schedule(priority, getRecipesInterface().streamRecipeDetails(joined)));
+    }
+
+    /**
+     * Coalesces a request for a raw body
+     * A body can only be read once, so what's shared are its bytes, and everyone gets a body of their own
+     * (and parses their own pojos from it, they're changed before they're written)
+     * Only for bodies Retrofit reads in whole anyway (not @Streaming ones)
+     *
+     * The key starts with the priority, so a request the user waits on doesn't join one queued behind
+     * the bulk downloads
+     */
+    private static Observable<ResponseBody> coalesceBody(String key, Observable<ResponseBody> request){
+        return coalescer.coalesce(key, request.map(new Func1<ResponseBody, BufferedBody>() {
+                    @Override
+                    public BufferedBody call(ResponseBody body) {
+                        try {
+                            return new BufferedBody(body.contentType(), body.bytes());
+                        } catch (IOException e) {
+                            throw Exceptions.propagate(e);
+                        }
+                    }
+                }))
+                .map(new Func1<BufferedBody, ResponseBody>() {
+                    @Override
+                    public ResponseBody call(BufferedBody body) {
+                        return ResponseBody.create(body.contentType, body.bytes);
+                    }
+                });
+    }
+
+
+    /**
+     * Parses each body on its own, like Retrofit's converter would
+     */
+    private static <T> Observable<T> parse(Observable<ResponseBody> bodies, final Type type){
+        return bodies.map(new Func1<ResponseBody, T>() {
+            @Override
+            public T call(ResponseBody body) {
+                try {
+                    return getGson().fromJson(body.charStream(), type);
+                } finally {
+                    body.close();
+                }
+            }
+        });
+    }
+
+    private static String joinIds(List<Integer> ids){
+        StringBuilder joined = new StringBuilder();
+        for (int id : ids) {
+            if (joined.length() > 0)
+                joined.append(',');
+            joined.append(id);
+        }
+        return joined.toString();
     }
 
     public static Observable<ArrayList<Component>> getAllComponents(){
-        return recipesInterface.listAllComponents();
+        return parse(coalesceBody(Priority.BACKGROUND + " " + Constants.APIConstants.COMPONENTS_PATH,
+                streamAllComponents()), FetchData.COMPONENTS_TYPE);
     }
 
     public static Observable<ArrayList<TagCategory>> getAllTags(){
-        return recipesInterface.listAllTags();
+        return parse(coalesceBody(Priority.BACKGROUND + " " + Constants.APIConstants.TAGS_PATH,
+                streamAllTags()), FetchData.TAGS_TYPE);
+    }
+
+    public static Observable<ResponseBody> streamAllComponents(){
+        return skipNotModified(networkScheduler.schedule(Priority.BACKGROUND,
+                getRecipesInterface().streamAllComponents()));
+    }
+
+    public static Observable<ResponseBody> streamAllTags(){
+        return skipNotModified(networkScheduler.schedule(Priority.BACKGROUND,
+                getRecipesInterface().streamAllTags()));
+    }
+
+    private static class BufferedBody {
+
+        final MediaType contentType;
+        final byte[] bytes;
+
+        BufferedBody(MediaType contentType, byte[] bytes) {
+            this.contentType = contentType;
+            this.bytes = bytes;
+        }
     }
 }
@@ -0,0 +1,167 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Created by aleksa on 8/15/16.
+ *
+ * Fills the catalog by fetching several offset pages at once, while still committing them in offset order
+ *
+ * Pages are requested in a sliding window of at most maxConcurrentPages requests, and the window
+ * only moves forward once its first page has been committed. As soon as a short (or empty) page
+ * is committed, the remaining requests are cancelled since there's nothing after it
+ */
+public class CatalogPrefetcher {
+
+    /**
+     * Fetches a single page of recipes, blocking until it's done
+     */
+    public interface PageSource {
+        List<Recipe> fetchPage(int offset) throws Exception;
+    }
+
+    /**
+     * Commits a single page, always called in offset order from a single thread
+     */
+    public interface PageSink {
+        void commit(int offset, List<Recipe> page);
+    }
+
+    private final PageSource source;
+    private final PageSink sink;
+    private final int maxConcurrentPages;
+    private final int maxPages;
+
+    /**
+     * Creates a prefetcher with the default tuning from {@link Constants.PrefetchConstants}
+     */
+    public CatalogPrefetcher(PageSource source, PageSink sink) {
+        this(source, sink, Constants.PrefetchConstants.MAX_CONCURRENT_PAGES, Constants.PrefetchConstants.MAX_PAGES);
+    }
+
+    /**
+     * @param source Used to fetch the pages
+     * @param sink Used to commit the pages, in order
+     * @param maxConcurrentPages Maximum number of page requests in flight at once
+     * @param maxPages Maximum number of pages to fetch in total
+     */
+    public CatalogPrefetcher(PageSource source, PageSink sink, int maxConcurrentPages, int maxPages) {
+        if (maxConcurrentPages < 1 || maxPages < 1)
+            throw new IllegalArgumentException("Concurrency and page count must be positive");
+
+        this.source = source;
+        this.sink = sink;
+        this.maxConcurrentPages = maxConcurrentPages;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * A page source that uses our API
+     */
+    public static PageSource apiPageSource() {
+        return new PageSource() {
+            @Override
+            public List<Recipe> fetchPage(int offset) {
+                return API.getOffsetRecipes(offset, NetworkScheduler.Priority.PREFETCH).toBlocking().single();
+            }
+        };
+    }
+
+    /**
+     * Creates an observable that runs the prefetch on subscription and emits the offset of every committed page
+     * Unsubscribing cancels all the pending requests
+     *
+     * @param startOffset The offset of the first page to fetch
+     */
+    public Observable<Integer> prefetch(final int startOffset) {
+        return Observable.create(new Observable.OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> subscriber) {
+                final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentPages);
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        executor.shutdownNow();
+                    }
+                }));
+                try {
+                    run(startOffset, executor, subscriber);
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onCompleted();
+                } catch (Exception e) {
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onError(FetchData.unwrapBlockingError(e instanceof ExecutionException ? e.getCause() : e));
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        });
+    }
+
+    private void run(int startOffset, ExecutorService executor, Subscriber<? super Integer> subscriber)
+            throws Exception {
+
+        // Requests in flight, in offset order
+        ArrayDeque<Future<List<Recipe>>> window = new ArrayDeque<>();
+
+        int pagesRequested = 0;
+        int nextOffset = startOffset;
+
+        while (pagesRequested < maxPages && window.size() < maxConcurrentPages) {
+            window.add(executor.submit(fetchTask(nextOffset)));
+            pagesRequested++;
+            nextOffset += Constants.PrefetchConstants.PAGE_SIZE;
+        }
+
+        int commitOffset = startOffset;
+
+        while (!window.isEmpty() && !subscriber.isUnsubscribed()) {
+
+            List<Recipe> page = window.poll().get();
+
+            if (page != null && !page.isEmpty()) {
+                sink.commit(commitOffset, page);
+                subscriber.onNext(commitOffset);
+            }
+
+            // A short page means we've reached the end, the requests after it can only come back empty
+            if (page == null || page.size() < Constants.PrefetchConstants.PAGE_SIZE) {
+                for (Future<List<Recipe>> pending : window) {
+                    pending.cancel(true);
+                }
+                return;
+            }
+
+            commitOffset += Constants.PrefetchConstants.PAGE_SIZE;
+
+            // Move the window forward
+            if (pagesRequested < maxPages) {
+                window.add(executor.submit(fetchTask(nextOffset)));
+                pagesRequested++;
+                nextOffset += Constants.PrefetchConstants.PAGE_SIZE;
+            }
+        }
+    }
+
+    private Callable<List<Recipe>> fetchTask(final int offset) {
+        return new Callable<List<Recipe>>() {
+            @Override
+            public List<Recipe> call() throws Exception {
+                return source.fetchPage(offset);
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import io.realm.RealmObject;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.Subject;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Refreshes the whole catalog (components, tags and recipes) in one go, used by the background sync
+ *
+ * Everything is fetched at background priority, one entity after the other, and each one is
+ * recorded in {@link SyncState} as soon as it's written. There are no retries here, whoever runs
+ * this reschedules it instead (the job scheduler backs off on its own)
+ */
+public class CatalogSync {
+
+    private static final String TAG = "CatalogSync";
+
+    // What resyncProgress holds while no resync is running
+    public static final int NOT_RESYNCING = -1;
+
+    // Recipes ingested so far by the running resync, serialized since the resync runs on the sync's thread
+    private static final Subject<Integer, Integer> resyncProgress =
+            BehaviorSubject.create(NOT_RESYNCING).toSerialized();
+
+    /**
+     * @param context A context used to get Realm instance and record the sync times
+     * @return Observable that syncs everything when subscribed, emitting each entity once it's synced
+     */
+    public static Observable<String> syncAll(Context context) {
+        return Observable.concat(
+                refresh(context, SyncState.COMPONENTS, API.getAllComponents()),
+                refresh(context, SyncState.TAGS, API.getAllTags()),
+                refreshRecipes(context));
+    }
+
+    /**
+     * @return Observable that emits the number of recipes ingested so far while a resync runs (the
+     * current one on subscription), and NOT_RESYNCING once it's done or when there's none
+     */
+    public static Observable<Integer> observeResyncProgress() {
+        return resyncProgress;
+    }
+
+    private static <T extends RealmObject> Observable<String> refresh(final Context context, final String entity,
+                                                                       Observable<ArrayList<T>> fetch) {
+        return fetch
+                .doOnNext(new Action1<ArrayList<T>>() {
+                    @Override
+                    public void call(ArrayList<T> items) {
+                        FetchData.writeChanged(items);
+                    }
+                })
+                // A not modified response completes empty, which still counts as synced
+                .toList()
+                .map(new Func1<List<ArrayList<T>>, String>() {
+                    @Override
+                    public String call(List<ArrayList<T>> responses) {
+                        SyncState.record(context, entity);
+                        return entity;
+                    }
+                });
+    }
+
+    /**
+     * Syncs the changes since the watermark, or resyncs the whole catalog from the snapshot if we have none yet
+     * A resync that was interrupted is resumed first, whether there's a watermark or not
+     */
+    private static Observable<String> refreshRecipes(final Context context) {
+        return Observable.create(new Observable.OnSubscribe<String>() {
+            @Override
+            public void call(Subscriber<? super String> subscriber) {
+                try {
+                    // The file is only deleted once the whole snapshot is written
+                    boolean interrupted = new File(context.getCacheDir(), Constants.SnapshotConstants.SNAPSHOT_FILE).exists();
+                    if (interrupted || DeltaSync.syncNow(context) < 0) {
+                        resync(context, subscriber);
+                        // The snapshot can be older than changes delta sync brought in before, they come back over it
+                        DeltaSync.syncNow(context);
+                    }
+
+                    SyncState.record(context, SyncState.RECIPES);
+                    subscriber.onNext(SyncState.RECIPES);
+                    subscriber.onCompleted();
+                } catch (Exception e) {
+                    subscriber.onError(FetchData.unwrapBlockingError(e));
+                }
+            }
+        });
+    }
+
+    private static void resync(final Context context, Subscriber<?> subscriber) throws IOException {
+        // Only set once the whole snapshot is in, an interrupted resync has to run again
+        final AtomicReference<String> newest = new AtomicReference<>();
+        final SnapshotIngest ingest = new SnapshotIngest(
+                API.getSnapshotDownloader(new File(context.getCacheDir(), Constants.SnapshotConstants.VALIDATOR_FILE)),
+                new File(context.getCacheDir(), Constants.SnapshotConstants.SNAPSHOT_FILE),
+                new File(context.getCacheDir(), Constants.SnapshotConstants.VALIDATOR_FILE),
+                new SnapshotIngest.BatchSink() {
+                    @Override
+                    public void write(List<Recipe> batch) {
+                        FetchData.getParallelTransform().apply(batch, new RecipeTransform());
+
+                        FetchData.writeChanged(batch);
+                        newest.set(DeltaSync.newestUpdate(batch, newest.get()));
+                    }
+                },
+                new StreamingIngest.ProgressListener() {
+                    @Override
+                    public void onProgress(int ingested) {
+                        resyncProgress.onNext(ingested);
+                    }
+                },
+                Constants.SnapshotConstants.BATCH_SIZE,
+                Constants.SnapshotConstants.MAX_LEAD_BYTES,
+                Constants.SnapshotConstants.MAP_WINDOW_BYTES);
+
+        // Stopping the job stops the download, what's downloaded so far is resumed next time
+        subscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                ingest.cancel();
+            }
+        }));
+
+        int ingested;
+        resyncProgress.onNext(0);
+        try {
+            ingested = ingest.run();
+        } finally {
+            resyncProgress.onNext(NOT_RESYNCING);
+        }
+        // Set rather than moved forward, what's stored now is the snapshot
+        DeltaSync.resetWatermark(context, newest.get());
+        Log.d(TAG, "Resynced " + ingested + " recipes from the snapshot");
+    }
+}
@@ -0,0 +1,91 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.util.RealmQueries;
+import io.realm.Realm;
+import io.realm.RealmQuery;
+
+/**
+ * Created by aleksa on 9/3/16.
+ *
+ * Links ingredients straight to their component as they're written, so showing an ingredient
+ * doesn't need a query for its component
+ *
+ * The components of a whole batch are looked up with one query. Recipes and components are fetched
+ * separately, so an ingredient can come before its component, it's left unlinked then, and linked
+ * once the component is written
+ */
+public class ComponentLinks {
+
+    /**
+     * Links the ingredients of the recipes to their stored components, has to be called inside a transaction
+     * Every unmanaged ingredient gets its link set (null if we don't have the component yet), since
+     * the write overwrites the stored one
+     *
+     * @param realm The Realm the recipes are about to be written to
+     * @param recipes Recipes not yet in Realm, with their Ingredient primary keys initialized
+     */
+    public static void link(Realm realm, List<Recipe> recipes) {
+        List<Ingredient> ingredients = new ArrayList<>();
+        Set<Integer> componentIds = new LinkedHashSet<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getIngredients() == null)
+                continue;
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                // Kept from the stored recipe, already linked (or waiting for the back-fill)
+                if (ingredient.isManaged())
+                    continue;
+                ingredients.add(ingredient);
+                componentIds.add(ingredient.getComponentId());
+            }
+        }
+
+        if (ingredients.isEmpty())
+            return;
+
+        Map<Integer, Component> components = new HashMap<>();
+        for (Component component : RealmQueries.whereIn(realm.where(Component.class), DbColumns.Component.ID, componentIds).findAll()) {
+            components.put(component.getId(), component);
+        }
+
+        for (Ingredient ingredient : ingredients) {
+            ingredient.setComponent(components.get(ingredient.getComponentId()));
+        }
+    }
+
+    /**
+     * Links the stored ingredients that were waiting for the components, has to be called inside a transaction
+     *
+     * @param realm The Realm the components were written to
+     * @param components The written components, managed
+     * @return Number of ingredients linked
+     */
+    public static int backFill(Realm realm, List<Component> components) {
+        if (components.isEmpty())
+            return 0;
+
+        Map<Integer, Component> byId = new HashMap<>();
+        for (Component component : components) {
+            byId.put(component.getId(), component);
+        }
+
+        RealmQuery<Ingredient> waiting = realm.where(Ingredient.class).isNull(DbColumns.Ingredient.COMPONENT);
+        List<Ingredient> unlinked = new ArrayList<>(
+                RealmQueries.whereIn(waiting, DbColumns.Ingredient.COMPONENT_ID, byId.keySet()).findAll());
+
+        for (Ingredient ingredient : unlinked) {
+            ingredient.setComponent(byId.get(ingredient.getComponentId()));
+        }
+        return unlinked.size();
+    }
+}
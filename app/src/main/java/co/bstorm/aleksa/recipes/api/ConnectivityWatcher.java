@@ -0,0 +1,81 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Created by aleksa on 8/20/16.
+ *
+ * Watches connectivity changes for everyone who's waiting to retry a network call
+ *
+ * There's only one receiver registered no matter how many calls are waiting, and only while
+ * at least one of them is. Each subscriber gets the current state first, then the changes
+ */
+public class ConnectivityWatcher implements RetryScheduler.ConnectivitySource {
+
+    private static ConnectivityWatcher instance;
+
+    private final ConnectivityManager connectivityManager;
+    private final Observable<Boolean> changes;
+
+    private ConnectivityWatcher(final Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        changes = Observable.create(new Observable.OnSubscribe<Boolean>() {
+            @Override
+            public void call(final Subscriber<? super Boolean> subscriber) {
+                final BroadcastReceiver receiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        subscriber.onNext(isConnected());
+                    }
+                };
+                context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        context.unregisterReceiver(receiver);
+                    }
+                }));
+            }
+        })
+                // One receiver for all the subscribers, unregistered when the last one leaves
+                .share();
+    }
+
+    /**
+     * @param context Any context, we only keep the application context
+     */
+    public static synchronized ConnectivityWatcher getInstance(Context context) {
+        if (instance == null)
+            instance = new ConnectivityWatcher(context.getApplicationContext());
+        return instance;
+    }
+
+    @Override
+    public Observable<Boolean> observeConnected() {
+        // Deferred so the current state is read at subscription, not when the observable is made
+        return Observable.defer(new Func0<Observable<Boolean>>() {
+            @Override
+            public Observable<Boolean> call() {
+                return changes.startWith(isConnected());
+            }
+        });
+    }
+
+    private boolean isConnected() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+}
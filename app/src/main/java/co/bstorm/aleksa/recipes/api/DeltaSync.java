@@ -0,0 +1,230 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import io.realm.Realm;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+/**
+ * Created by aleksa on 8/17/16.
+ *
+ * Keeps the local recipes up to date by fetching only what changed since the last sync
+ *
+ * We persist a watermark (the newest updated_at we have seen) and ask the server only for recipes
+ * updated or deleted after it. The changes are applied through the writer thread (see RealmWriter),
+ * and recipes whose content we already have are not written at all, so they trigger no change notifications
+ */
+public class DeltaSync {
+
+    private static final String TAG = "DeltaSync";
+
+    /**
+     * @return The newest updated_at we have stored, or null if we never ingested any recipes
+     */
+    public static synchronized String getWatermark(Context context) {
+        return getPreferences(context).getString(Constants.WATERMARK_SHARED_PREF_KEY, null);
+    }
+
+    /**
+     * Moves the watermark forward to the newest updated_at among the given recipes
+     *
+     * Only a finished delta sync, or a complete fill of the catalog, can move it. A page fetched on
+     * its own can have newer recipes than ones changed before it that we haven't seen yet, moving
+     * past those would mean they never come through delta sync
+     */
+    public static synchronized void advanceWatermark(Context context, List<Recipe> recipes) {
+        advanceWatermark(context, newestUpdate(recipes, null));
+    }
+
+    /**
+     * Moves the watermark forward to the given updated_at, if it's newer
+     */
+    public static synchronized void advanceWatermark(Context context, String updatedAt) {
+        String watermark = getWatermark(context);
+        String newest = newer(watermark, updatedAt);
+
+        if (newest != null && !newest.equals(watermark))
+            getPreferences(context).edit().putString(Constants.WATERMARK_SHARED_PREF_KEY, newest).apply();
+    }
+
+    /**
+     * Sets the watermark to the given updated_at, even if it's older, used after a resync since what's
+     * stored is then the snapshot (newer changes we had were overwritten by it)
+     */
+    public static synchronized void resetWatermark(Context context, String updatedAt) {
+        if (updatedAt != null)
+            getPreferences(context).edit().putString(Constants.WATERMARK_SHARED_PREF_KEY, updatedAt).apply();
+    }
+
+    /**
+     * Timestamps come as "yyyy-MM-dd HH:mm:ss", so comparing them as strings is enough
+     *
+     * @param recipes Recipes to look through
+     * @param newest The newest updated_at so far, null if there's none
+     * @return The newest updated_at among the recipes and the one so far
+     */
+    public static String newestUpdate(List<Recipe> recipes, String newest) {
+        for (Recipe recipe : recipes) {
+            newest = newer(newest, recipe.getUpdatedAt());
+        }
+        return newest;
+    }
+
+    private static String newer(String first, String second) {
+        if (first == null)
+            return second;
+        if (second == null)
+            return first;
+        return second.compareTo(first) > 0 ? second : first;
+    }
+
+    /**
+     * A page source for the recipes changed since the given watermark
+     */
+    public static CatalogPrefetcher.PageSource changesSource(final String watermark) {
+        return new CatalogPrefetcher.PageSource() {
+            @Override
+            public List<Recipe> fetchPage(int offset) {
+                return API.getChangedRecipes(watermark, offset).toBlocking().single();
+            }
+        };
+    }
+
+    /**
+     * Fetches all the changed recipes, page after page, until we get a short page
+     */
+    public static List<Recipe> fetchChanges(CatalogPrefetcher.PageSource source) throws Exception {
+        List<Recipe> changes = new ArrayList<>();
+
+        int offset = 0;
+        while (true) {
+            List<Recipe> page = source.fetchPage(offset);
+            if (page == null)
+                break;
+
+            changes.addAll(page);
+
+            if (page.size() < Constants.PrefetchConstants.PAGE_SIZE)
+                break;
+            offset += page.size();
+        }
+
+        return changes;
+    }
+
+    /**
+     * Applies the changes to Realm through the writer thread, upserts and tombstones in a single transaction,
+     * so the list never shows half a sync. If nothing actually changed it's cancelled rather than committed
+     *
+     * @return Number of recipes upserted or deleted
+     */
+    static int applyChanges(final List<Recipe> changes) {
+        if (changes.isEmpty())
+            return 0;
+        return RealmWriter.get().write(changes.size(), new WriteQueue.Write<Realm>() {
+            @Override
+            public int write(Realm realm) {
+                return applyChanges(realm, changes);
+            }
+        });
+    }
+
+    /**
+     * Applies the changes to Realm, has to be called inside a transaction
+     *
+     * @return Number of recipes upserted or deleted
+     */
+    static int applyChanges(Realm realm, List<Recipe> changes) {
+
+        // Only the tombstones of recipes we have delete anything
+        int deleted = 0;
+        for (Recipe change : changes) {
+            if (change.isDeleted()
+                    && realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, change.getId()).findFirst() != null)
+                deleted++;
+        }
+
+        // Deletes what the tombstones point to, and skips the ones whose content we already have
+        // (changes come as summaries, details are kept if still valid)
+        List<Recipe> upserts = FetchData.prepareChangedRecipes(realm, changes);
+
+        realm.copyToRealmOrUpdate(upserts);
+        TagIndex.update(realm, upserts);
+        return upserts.size() + deleted;
+    }
+
+    /**
+     * Syncs the recipes changed since the watermark, blocking until it's done
+     *
+     * @param context A context used to get Realm instance and the watermark
+     * @return Number of recipes upserted or deleted, or -1 if there's no watermark to sync from
+     */
+    static int syncNow(Context context) throws Exception {
+        String watermark = getWatermark(context);
+        if (watermark == null)
+            return -1;
+
+        List<Recipe> changes = fetchChanges(changesSource(watermark));
+
+        int applied = applyChanges(changes);
+
+        advanceWatermark(context, changes);
+        SyncState.record(context, SyncState.RECIPES);
+
+        return applied;
+    }
+
+    /**
+     * Syncs the recipes changed since the watermark, if there is one
+     *
+     * @param context A context used to get Realm instance and the watermark
+     * @return Subscription that can be used to cancel the sync
+     */
+    public static Subscription sync(final Context context) {
+        return Observable.create(new Observable.OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> subscriber) {
+                try {
+                    int applied = syncNow(context);
+                    if (applied >= 0)
+                        subscriber.onNext(applied);
+                    subscriber.onCompleted();
+                } catch (Exception e) {
+                    subscriber.onError(FetchData.unwrapBlockingError(e));
+                }
+            }
+        })
+                .retryWhen(FetchData.getRetryWhenFunc(context))
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Subscriber<Integer>() {
+                    @Override
+                    public void onCompleted() {
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Encountered error during delta sync", e);
+                    }
+
+                    @Override
+                    public void onNext(Integer applied) {
+                        Log.d(TAG, "Delta sync applied " + applied + " changes");
+                    }
+                });
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(Constants.SYNC_SHARED_PREF, Context.MODE_PRIVATE);
+    }
+}
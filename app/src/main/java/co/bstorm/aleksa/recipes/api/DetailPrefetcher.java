@@ -0,0 +1,270 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.ResponseBody;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Func1;
+
+/**
+ * Created by aleksa on 8/23/16.
+ *
+ * Loads the details of the recipes around the visible part of the list, so opening one is instant
+ *
+ * The list reports the ids it shows (plus some lookahead) whenever it scrolls, and the ids we
+ * haven't asked for yet go out as a single batched request. A batch whose recipes all scrolled
+ * away is cancelled. Once the responses add up to the byte budget we stop prefetching for the
+ * rest of the session, opening a recipe still loads its details as usual
+ */
+public class DetailPrefetcher {
+
+    private static final String TAG = "DetailPrefetcher";
+
+    /**
+     * Fetches the full recipes for the given ids, as a raw body so we can tell how big it was
+     */
+    public interface BatchSource {
+        Observable<ResponseBody> fetch(List<Integer> ids);
+    }
+
+    /**
+     * Stores the fetched recipes, called on the scheduler thread
+     */
+    public interface BatchSink {
+        void write(List<Recipe> recipes);
+    }
+
+    private final BatchSource source;
+    private final BatchSink sink;
+    private final Scheduler scheduler;
+    private final int maxBatchSize;
+    private final long byteBudget;
+
+    // Ids in flight or already fetched in this session
+    private final Set<Integer> requested = new HashSet<>();
+    private final List<Batch> inFlight = new ArrayList<>();
+    // The ids of the last viewport, so repeated scroll events with the same rows cost nothing
+    private List<Integer> lastViewport = new ArrayList<>();
+
+    private long bytesUsed = 0;
+    private int batchCount = 0;
+    private int cancelledCount = 0;
+    private int prefetchedCount = 0;
+    private int openCount = 0;
+    private int hitCount = 0;
+
+    /**
+     * @param source Used to fetch the batches
+     * @param sink Used to store the fetched recipes
+     * @param scheduler Used to fetch and store the batches
+     * @param maxBatchSize Maximum number of ids in a single request
+     * @param byteBudget Number of response bytes after which we stop prefetching
+     */
+    public DetailPrefetcher(BatchSource source, BatchSink sink, Scheduler scheduler, int maxBatchSize, long byteBudget) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+
+        this.source = source;
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.maxBatchSize = maxBatchSize;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Called whenever the visible rows change
+     *
+     * @param ids Ids of the visible and lookahead recipes that don't have their details yet
+     */
+    public synchronized void onViewport(List<Integer> ids) {
+        if (ids.equals(lastViewport))
+            return;
+        lastViewport = new ArrayList<>(ids);
+
+        // Cancel the batches nobody is looking at anymore
+        Iterator<Batch> iterator = inFlight.iterator();
+        while (iterator.hasNext()) {
+            Batch batch = iterator.next();
+            if (!containsAny(ids, batch.ids)) {
+                iterator.remove();
+                requested.removeAll(batch.ids);
+                batch.subscription.unsubscribe();
+                cancelledCount++;
+            }
+        }
+
+        if (bytesUsed >= byteBudget)
+            return;
+
+        List<Integer> missing = new ArrayList<>();
+        for (int id : ids) {
+            if (!requested.contains(id))
+                missing.add(id);
+        }
+
+        for (int start = 0; start < missing.size(); start += maxBatchSize) {
+            startBatch(new ArrayList<>(missing.subList(start, Math.min(missing.size(), start + maxBatchSize))));
+        }
+    }
+
+    /**
+     * Cancels everything in flight, for when the list goes away
+     */
+    public synchronized void cancelAll() {
+        for (Batch batch : inFlight) {
+            requested.removeAll(batch.ids);
+            batch.subscription.unsubscribe();
+            cancelledCount++;
+        }
+        inFlight.clear();
+        lastViewport = new ArrayList<>();
+    }
+
+    /**
+     * @return Whether the details of the recipe are being fetched in a batch right now, in which case
+     * asking for them again would only fetch them twice
+     */
+    public synchronized boolean isInFlight(int id) {
+        for (Batch batch : inFlight) {
+            if (batch.ids.contains(id))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a recipe being opened
+     *
+     * @param local Whether its details were already stored
+     */
+    public synchronized void recordOpen(boolean local) {
+        openCount++;
+        if (local)
+            hitCount++;
+    }
+
+    /**
+     * @return Share of the opened recipes whose details were already stored
+     */
+    public synchronized float getHitRate() {
+        return openCount == 0 ? 0 : (float) hitCount / openCount;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    public synchronized long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public synchronized int getBatchCount() {
+        return batchCount;
+    }
+
+    public synchronized int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    public synchronized int getPrefetchedCount() {
+        return prefetchedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DetailPrefetcher{hitRate=" + getHitRate()
+                + ", opens=" + openCount
+                + ", batches=" + batchCount
+                + ", cancelled=" + cancelledCount
+                + ", prefetched=" + prefetchedCount
+                + ", bytes=" + bytesUsed + "/" + byteBudget
+                + "}";
+    }
+
+    private void startBatch(final List<Integer> ids) {
+        final Batch batch = new Batch(ids);
+        requested.addAll(ids);
+        inFlight.add(batch);
+        batchCount++;
+
+        batch.subscription = source.fetch(ids)
+                .flatMap(new Func1<ResponseBody, Observable<List<Recipe>>>() {
+                    @Override
+                    public Observable<List<Recipe>> call(ResponseBody body) {
+                        // Read whole, batches are small and we need the size for the budget
+                        byte[] bytes;
+                        try {
+                            bytes = body.bytes();
+                        } catch (Exception e) {
+                            return Observable.error(e);
+                        }
+                        addBytes(bytes.length);
+
+                        return StreamingIngest.parseRecipes(ResponseBody.create(body.contentType(), bytes))
+                                .toList();
+                    }
+                })
+                .subscribeOn(scheduler)
+                .subscribe(new Subscriber<List<Recipe>>() {
+                    @Override
+                    public void onCompleted() {
+                        finished(batch, true);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Failed to prefetch details", e);
+                        finished(batch, false);
+                    }
+
+                    @Override
+                    public void onNext(List<Recipe> recipes) {
+                        sink.write(recipes);
+                        addPrefetched(recipes.size());
+                    }
+                });
+    }
+
+    private synchronized void addBytes(long bytes) {
+        bytesUsed += bytes;
+    }
+
+    private synchronized void addPrefetched(int count) {
+        prefetchedCount += count;
+    }
+
+    private synchronized void finished(Batch batch, boolean success) {
+        inFlight.remove(batch);
+        // Failed ones can be asked for again next time they're visible
+        if (!success)
+            requested.removeAll(batch.ids);
+    }
+
+    private static boolean containsAny(List<Integer> ids, List<Integer> batchIds) {
+        for (int id : batchIds) {
+            if (ids.contains(id))
+                return true;
+        }
+        return false;
+    }
+
+    private static class Batch {
+
+        final List<Integer> ids;
+        Subscription subscription;
+
+        Batch(List<Integer> ids) {
+            this.ids = ids;
+        }
+    }
+}
@@ -5,16 +5,32 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
 import java.net.ConnectException;
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
+import co.bstorm.aleksa.recipes.BuildConfig;
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.ContentHashed;
 import co.bstorm.aleksa.recipes.pojo.Ingredient;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.Step;
+import co.bstorm.aleksa.recipes.pojo.TagCategory;
 import io.realm.Realm;
-import io.realm.RealmConfiguration;
+import io.realm.RealmList;
 import io.realm.RealmObject;
+import okhttp3.ResponseBody;
 import rx.Observable;
 import rx.Observer;
 import rx.Subscriber;
@@ -36,55 +52,251 @@ public class FetchData {
 
     private static final String TAG = "FetchData";
 
-    private static final int MAX_RETRIES = 12;
+    // Types of the raw responses, for parsing them in the pipeline
+    public static final Type RECIPES_TYPE = new TypeToken<ArrayList<Recipe>>(){}.getType();
+    public static final Type COMPONENTS_TYPE = new TypeToken<ArrayList<Component>>(){}.getType();
+    public static final Type TAGS_TYPE = new TypeToken<ArrayList<TagCategory>>(){}.getType();
 
     // Used to avoid duplicating network error toasts
     private static Toast toast = null;
 
+    // Shared by all the fetches, created on first use
+    private static RetryScheduler retryScheduler = null;
+
+    // Shared by everything showing the recipe list, created on first use
+    private static DetailPrefetcher detailPrefetcher = null;
+
+    // Holds the likes until they're sent, created on first use
+    private static LikeOutbox likeOutbox = null;
+
+    // Fetches, parses and writes everything that's not a long job of its own, created on first use
+    private static SyncPipeline syncPipeline = null;
+
+    // Splits big batches between threads in the pipeline's transform stage, created on first use
+    private static ParallelTransform parallelTransform = null;
+
     /**
-     * Fetches data using a given observable and returns its subscription
+     * Runs a prepared fetch and returns its subscription
      *
-     * @param observable An observable that fetches and emits fetched data
-     * @param context A context used to observe network changes and get Realm instance
+     * @param prepared An observable from one of the prepareObservable methods
+     * @param context A context used to display errors
      * @return Subscription that can be used to cancel retry attempts
      */
-    public static <T extends RealmObject> Subscription
-    fetchDataFromObservable(Observable<ArrayList<T>> observable, final Context context) {
+    public static Subscription fetchDataFromObservable(Observable<Integer> prepared, final Context context) {
+        return prepared.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onCompleted() {
+                Log.d(TAG, "Successfully finished fetch and insert");
+                // Walking all the stats takes their locks, it's only worth it while tuning
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, API.getNetworkScheduler().toString());
+                    Log.d(TAG, getSyncPipeline().toString());
+                    Log.d(TAG, RealmWriter.get().toString());
+                }
+            }
 
-        final Observer<ArrayList<T>> observer = getObserverInterface(observable, context);
+            @Override
+            public void onError(Throwable e) {
+                showFetchError(context, e);
+            }
 
-        return prepareObservable(observable, context)
-                .subscribeOn(Schedulers.io())
-                .subscribe(new Subscriber<ArrayList<T>>() {
+            @Override
+            public void onNext(Integer written) {
+            }
+        });
+    }
+
+    /**
+     * Fetches the steps and ingredients of a recipe that was stored only as a summary
+     *
+     * @param recipeId ID of the recipe someone just opened
+     * @param context A context used to observe network changes and get Realm instance
+     * @return Subscription that can be used to cancel the fetch
+     */
+    public static Subscription loadRecipeDetails(int recipeId, Context context) {
+        return fetchDataFromObservable(
+                prepareObservable(
+                        API.streamRecipeDetails(Collections.singletonList(recipeId), NetworkScheduler.Priority.INTERACTIVE),
+                        RECIPES_TYPE, context),
+                context);
+    }
+
+    /**
+     * @return The prefetcher of the details of visible recipes, one per session
+     */
+    public static synchronized DetailPrefetcher getDetailPrefetcher() {
+        if (detailPrefetcher != null)
+            return detailPrefetcher;
+
+        detailPrefetcher = new DetailPrefetcher(
+                new DetailPrefetcher.BatchSource() {
                     @Override
-                    public void onCompleted() {
-                        observer.onCompleted();
+                    public Observable<ResponseBody> fetch(List<Integer> ids) {
+                        return API.streamRecipeDetails(ids, NetworkScheduler.Priority.PREFETCH);
                     }
-
+                },
+                new DetailPrefetcher.BatchSink() {
                     @Override
-                    public void onError(Throwable e) {
-                        observer.onError(e);
+                    public void write(List<Recipe> recipes) {
+                        writeChanged(recipes);
                     }
+                },
+                Schedulers.io(),
+                Constants.PrefetchConstants.DETAIL_MAX_BATCH,
+                Constants.PrefetchConstants.DETAIL_BYTE_BUDGET);
+        return detailPrefetcher;
+    }
+
+    /**
+     * @return The outbox of likes, which flushes itself a while after a like and when connectivity comes back
+     */
+    public static synchronized LikeOutbox getLikeOutbox(Context context) {
+        if (likeOutbox != null)
+            return likeOutbox;
 
+        likeOutbox = new LikeOutbox(
+                new RealmLikeStore(),
+                new LikeOutbox.Sender() {
                     @Override
-                    public void onNext(ArrayList<T> items) {
-                        observer.onNext(items);
+                    public Observable<?> send(List<PendingLike> likes) {
+                        return API.postLikes(likes);
                     }
-                });
+                },
+                Schedulers.io(),
+                getRetryScheduler(context),
+                Constants.OutboxConstants.FLUSH_DELAY_MILLIS,
+                Constants.OutboxConstants.MAX_BATCH_SIZE);
+        likeOutbox.flushWhenConnected(ConnectivityWatcher.getInstance(context).observeConnected());
+        return likeOutbox;
+    }
+
+    /**
+     * @return The pipeline shared by the fetches, with the parse and transform stages sized by the number of cores
+     */
+    public static synchronized SyncPipeline getSyncPipeline() {
+        if (syncPipeline != null)
+            return syncPipeline;
+
+        int cpuThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        syncPipeline = new SyncPipeline(
+                Constants.PipelineConstants.FETCH_THREADS,
+                cpuThreads,
+                cpuThreads,
+                Constants.PipelineConstants.WRITE_THREADS,
+                Constants.PipelineConstants.HAND_OFF_CAPACITY);
+        return syncPipeline;
+    }
+
+    /**
+     * Prepares a fetch of a raw response, which is then parsed, transformed and written by the pipeline
+     * Retries the whole thing, the same way for every fetch
+     *
+     * @param body Observable fetching the raw response
+     * @param type Type of the response, one of the *_TYPE constants
+     * @param context A context used to observe network changes and get Realm instance
+     * @return Observable that emits the number of items written (on the pipeline's write thread)
+     */
+    public static <T extends RealmObject> Observable<Integer> prepareObservable(Observable<ResponseBody> body,
+                                                                                final Type type, Context context) {
+        return getSyncPipeline()
+                .process(body,
+                        new SyncPipeline.Parser<ResponseBody, T>() {
+                            @Override
+                            public List<T> parse(ResponseBody response) {
+                                try {
+                                    return API.getGson().fromJson(response.charStream(), type);
+                                } finally {
+                                    response.close();
+                                }
+                            }
+                        },
+                        FetchData.<T>itemTransformer(),
+                        FetchData.<T>realmWriter(context))
+                .retryWhen(getRetryWhenFunc(context));
     }
 
     /**
-     * Prepares an observable by specifying retry strategy and threading
+     * Same as above, for fetches that come parsed already (like the pager's pages, which it needs to look into)
+     */
+    public static <T extends RealmObject> Observable<Integer> prepareObservable(Observable<ArrayList<T>> observable,
+                                                                                Context context) {
+        return getSyncPipeline()
+                .process(observable,
+                        new SyncPipeline.Parser<ArrayList<T>, T>() {
+                            @Override
+                            public List<T> parse(ArrayList<T> items) {
+                                return items;
+                            }
+                        },
+                        FetchData.<T>itemTransformer(),
+                        FetchData.<T>realmWriter(context))
+                .retryWhen(getRetryWhenFunc(context));
+    }
+
+    /**
+     * Computes the content hashes and the derived fields off the write thread, a big batch on several threads
+     * at once, so writeChanged only has to compare the hashes
+     */
+    private static <T extends RealmObject> SyncPipeline.Transformer<T> itemTransformer() {
+        return new SyncPipeline.Transformer<T>() {
+            @Override
+            public void transform(List<T> items) {
+                getParallelTransform().apply(items, new RecipeTransform());
+            }
+        };
+    }
+
+    /**
+     * @return The parallel transform used by the pipeline's transform stage, with a helper per extra core
+     */
+    static synchronized ParallelTransform getParallelTransform() {
+        if (parallelTransform != null)
+            return parallelTransform;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService helpers = Executors.newFixedThreadPool(Math.max(1, cores - 1), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "transform-helper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        parallelTransform = new ParallelTransform(helpers, cores, Constants.PipelineConstants.TRANSFORM_CHUNK_SIZE);
+        return parallelTransform;
+    }
+
+    private static <T extends RealmObject> SyncPipeline.Writer<T> realmWriter(final Context context) {
+        return new SyncPipeline.Writer<T>() {
+            @Override
+            public int write(List<T> items) {
+                return writeItems(context, items);
+            }
+        };
+    }
+
+    /**
+     * Writes the fetched items that changed
+     * The delta sync watermark stays where it is, a single page doesn't tell us we've seen every change before it
      *
-     * @param observable The observable to prepare
-     * @param context A context used with the observable
-     * @return Prepared observable
+     * @return Number of items written
+     */
+    private static <T extends RealmObject> int writeItems(Context context, List<T> items) {
+        int written = writeChanged(items);
+
+        Log.e(TAG, "Successfully fetched " + items.size() + " items, inserted/updated " + written);
+        return written;
+    }
+
+    /**
+     * Logs a failed fetch and displays an error toast for it
      */
-    public static <T extends RealmObject> Observable<ArrayList<T>> prepareObservable(Observable<ArrayList<T>> observable, Context context){
-        return observable
-                .retryWhen(getRetryWhenFunc(context))
-                .observeOn(Schedulers.io())
-                .subscribeOn(Schedulers.io());
+    public static void showFetchError(Context context, Throwable e) {
+        Log.e(TAG, "Encountered error during fetch/insert",e);
+        if (e instanceof ConnectException)
+            makeErrorToast(context, context.getString(R.string.no_connection));
+        else
+            makeErrorToast(context, context.getString(R.string.error_fetching));
     }
 
     /**
@@ -102,61 +314,320 @@ public class FetchData {
      *
      * @return the Observer with the right methods to insert data
      */
-    public static <T extends RealmObject> Observer<ArrayList<T>> getObserverInterface(
-            final Observable<ArrayList<T>> observable, final Context context){
+    public static <T extends RealmObject> Observer<ArrayList<T>> getObserverInterface(final Context context){
         return new Observer<ArrayList<T>>() {
             @Override
             public void onCompleted() {
                 Log.d(TAG, "Successfully finished fetch and insert");
+                if (BuildConfig.DEBUG)
+                    Log.d(TAG, API.getNetworkScheduler().toString());
             }
 
             @Override
             public void onError(Throwable e) {
-                Log.e(TAG, "Encountered error during fetch/insert",e);
-                if (e instanceof ConnectException)
-                    makeErrorToast(context, context.getString(R.string.no_connection));
-                else
-                    makeErrorToast(context, context.getString(R.string.error_fetching));
+                showFetchError(context, e);
             }
 
             @Override
             public void onNext(ArrayList<T> items) {
-                Realm realm = Realm.getInstance(new RealmConfiguration.Builder(context).build());
-                realm.beginTransaction();
-
-                // If we're getting recipes, we need to initialize Ingredient primary key
-                if (items != null && items.size() > 0 && (items.get(0).getClass().equals(Recipe.class))) {
-                    for (Recipe recipe :
-                            (ArrayList<Recipe>)items) {
-                        recipe.setTitleLower(recipe.getTitle().toLowerCase());
-                        for (Ingredient ingredient :
-                                recipe.getIngredients()) {
-                            ingredient.setRecipeId(recipe.getId());
-                            ingredient.setUniqueId();
-                        }
-                    }
-                }
-                realm.copyToRealmOrUpdate(items);
-                realm.commitTransaction();
-                realm.close();
-                Log.e(TAG, "Successfully fetched and inserted/updated " + items.size() + " items");
+                writeItems(context, items);
             }
         };
     }
 
+    /**
+     * Fills the catalog by fetching offset pages concurrently, committing them to Realm in offset order
+     *
+     * @param context A context used to get Realm instance and display errors
+     * @return Subscription that can be used to cancel the prefetch
+     */
+    public static Subscription prefetchCatalog(final Context context) {
+
+        final Observer<ArrayList<Recipe>> observer = getObserverInterface(context);
+        // Only a complete fill sets the watermark, so it's kept until the last page is written
+        final AtomicReference<String> newest = new AtomicReference<>();
+
+        CatalogPrefetcher prefetcher = new CatalogPrefetcher(CatalogPrefetcher.apiPageSource(),
+                new CatalogPrefetcher.PageSink() {
+                    @Override
+                    public void commit(int offset, List<Recipe> page) {
+                        observer.onNext(new ArrayList<>(page));
+                        newest.set(DeltaSync.newestUpdate(page, newest.get()));
+                    }
+                });
+
+        return prefetcher.prefetch(0)
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Subscriber<Integer>() {
+                    @Override
+                    public void onCompleted() {
+                        DeltaSync.advanceWatermark(context, newest.get());
+                        SyncState.record(context, SyncState.RECIPES);
+                        observer.onCompleted();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        observer.onError(e);
+                    }
+
+                    @Override
+                    public void onNext(Integer offset) {
+                        Log.d(TAG, "Prefetched page at offset " + offset);
+                    }
+                });
+    }
+
+    /**
+     * Writes the items whose content changed, through the writer thread, in chunks
+     * A chunk where nothing changed is cancelled rather than committed, so no change listeners are woken up
+     *
+     * @param items Freshly parsed items, not yet in Realm
+     * @return Number of items written
+     */
+    static <T extends RealmObject> int writeChanged(List<T> items) {
+        return RealmWriter.get().writeChunked(items, new WriteQueue.ChunkWrite<Realm, T>() {
+            @Override
+            public int write(Realm realm, List<T> chunk) {
+                return writeChanged(realm, chunk);
+            }
+        });
+    }
+
+    /**
+     * Writes the items whose content changed, has to be called inside a transaction
+     *
+     * @param realm The Realm to write to, in a transaction
+     * @param items Freshly parsed items, not yet in Realm
+     * @return Number of items written
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RealmObject> int writeChanged(Realm realm, List<T> items) {
+
+        if (items.isEmpty())
+            return 0;
+
+        // Recipes also need their details sorted out (and Ingredient primary keys initialized)
+        List<T> changed;
+        if (items.get(0).getClass().equals(Recipe.class))
+            changed = (List<T>) prepareChangedRecipes(realm, (List<Recipe>) items);
+        else {
+            // Unless the pipeline's transform stage got to them first
+            for (T item : items) {
+                if (item instanceof Component)
+                    ((Component) item).encodeQuantityType();
+            }
+            changed = filterUnchanged(realm, items);
+        }
+
+        if (changed.isEmpty())
+            return 0;
+
+        List<T> written = realm.copyToRealmOrUpdate(changed);
+        // Ingredients that came before their component can link to it now
+        if (written.get(0) instanceof Component)
+            ComponentLinks.backFill(realm, (List<Component>) written);
+        // Recipes are filtered by their tags through the index, so it changes with them
+        if (written.get(0) instanceof Recipe)
+            TagIndex.update(realm, (List<Recipe>) changed);
+        return changed.size();
+    }
+
+    /**
+     * Computes the content hash of the fetched items and leaves out the ones whose hash matches the stored one
+     *
+     * @param realm The Realm to compare against
+     * @param items Freshly parsed items, not yet in Realm
+     * @return The items that are new or changed
+     */
+    static <T extends RealmObject> List<T> filterUnchanged(Realm realm, List<T> items) {
+
+        List<T> changed = new ArrayList<>(items.size());
+
+        for (T item : items) {
+            if (!(item instanceof ContentHashed)) {
+                changed.add(item);
+                continue;
+            }
+
+            ContentHashed hashed = (ContentHashed) item;
+            // Unless the pipeline's transform stage got to it first
+            if (hashed.getContentHash() == 0)
+                hashed.setContentHash(hashed.computeContentHash());
+
+            // All the hashed classes use "id" as their primary key
+            RealmObject existing = realm.where(item.getClass())
+                    .equalTo(DbColumns.Recipe.ID, hashed.getId())
+                    .findFirst();
+
+            if (existing == null || ((ContentHashed) existing).getContentHash() != hashed.getContentHash())
+                changed.add(item);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Leaves out the recipes we already have, like filterUnchanged, but with the two tiers in mind
+     *
+     * A recipe is written if its summary changed, or if it came with details we don't have yet.
+     * Summaries of recipes whose details we have (and which didn't change since) keep those details,
+     * otherwise the write would drop them. The stored steps that aren't kept are deleted, and so are the
+     * stored copies of tombstones (recipes the server marked as deleted) with their tag index rows, so it
+     * has to be called inside a transaction
+     *
+     * @param realm The Realm to compare against
+     * @param recipes Freshly parsed recipes, not yet in Realm
+     * @return The recipes to write, prepared and linked to their components
+     */
+    static List<Recipe> prepareChangedRecipes(Realm realm, List<Recipe> recipes) {
+
+        // Any fetch can bring tombstones in (a page, a snapshot), not just the delta sync
+        List<Integer> deletedIds = new ArrayList<>();
+        recipes = dropTombstones(recipes, deletedIds);
+        for (int id : deletedIds) {
+            Recipe existing = realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, id).findFirst();
+            if (existing != null) {
+                // Ingredients stay, since shopping list items can still point to them
+                existing.getSteps().deleteAllFromRealm();
+                existing.deleteFromRealm();
+            }
+        }
+        TagIndex.remove(realm, deletedIds);
+
+        List<Recipe> changed = new ArrayList<>(recipes.size());
+        // Summaries that keep the stored details, and the stored recipes they keep them from
+        List<Recipe> keeping = new ArrayList<>();
+        List<Recipe> keptFrom = new ArrayList<>();
+
+        for (Recipe recipe : recipes) {
+            if (recipe.getContentHash() == 0)
+                recipe.setContentHash(recipe.computeContentHash());
+
+            Recipe existing = realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, recipe.getId()).findFirst();
+
+            boolean summaryChanged = existing == null || existing.getContentHash() != recipe.getContentHash();
+            boolean detailsNew = recipe.hasFetchedDetails() && (existing == null || !existing.isDetailLoaded());
+            if (!summaryChanged && !detailsNew)
+                continue;
+
+            // The server doesn't know about our likes until the outbox is sent
+            if (existing != null)
+                recipe.setLiked(existing.isLiked());
+            // A redone write prepares the same recipes again, so nothing here may pile up
+            recipe.setLikesWithPending(RealmLikeStore.pendingLikeDelta(realm, recipe.getId()));
+
+            boolean keepsDetails = false;
+            if (recipe.hasFetchedDetails()) {
+                recipe.setDetailLoaded(true);
+            }
+            else if (existing != null && existing.isDetailLoaded() && sameUpdate(existing, recipe)) {
+                keeping.add(recipe);
+                keptFrom.add(existing);
+                keepsDetails = true;
+            }
+
+            // The write replaces the stored steps, which would be left linked to nothing
+            // (ingredients stay, since shopping list items can still point to them)
+            if (existing != null && !keepsDetails)
+                existing.getSteps().deleteAllFromRealm();
+
+            changed.add(recipe);
+        }
+
+        prepareRecipes(changed);
+
+        // After preparing, since the kept ingredients are already in Realm and initialized
+        for (int i = 0; i < keeping.size(); i++) {
+            Recipe recipe = keeping.get(i);
+            Recipe existing = keptFrom.get(i);
+
+            // Copied into new lists, since the write clears the stored ones before filling them
+            RealmList<Step> steps = new RealmList<>();
+            steps.addAll(existing.getSteps());
+            RealmList<Ingredient> ingredients = new RealmList<>();
+            ingredients.addAll(existing.getIngredients());
+
+            recipe.setSteps(steps);
+            recipe.setIngredients(ingredients);
+            recipe.setDetailsKept(true);
+            recipe.setDetailLoaded(true);
+            RecipeTransform.derive(recipe);
+        }
+
+        // The fresh ingredients point straight to their components
+        ComponentLinks.link(realm, changed);
+
+        return changed;
+    }
+
+    /**
+     * Leaves out the tombstones, we never keep those
+     *
+     * @param recipes Freshly parsed recipes
+     * @param deletedIds Filled with the ids of the tombstones, their stored copies have to go
+     * @return The recipes that aren't deleted
+     */
+    public static List<Recipe> dropTombstones(List<Recipe> recipes, List<Integer> deletedIds) {
+        List<Recipe> live = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            if (recipe.isDeleted())
+                deletedIds.add(recipe.getId());
+            else
+                live.add(recipe);
+        }
+        return live;
+    }
+
+    private static boolean sameUpdate(Recipe existing, Recipe recipe) {
+        if (existing.getUpdatedAt() == null)
+            return recipe.getUpdatedAt() == null;
+        return existing.getUpdatedAt().equals(recipe.getUpdatedAt());
+    }
+
+    /**
+     * Initializes the fields of recipes that don't come from the server (lowercase title and Ingredient primary keys)
+     * Recipes that went through the pipeline's transform stage are already prepared, and are left alone
+     *
+     * @param recipes Freshly parsed recipes, not yet in Realm
+     */
+    static void prepareRecipes(List<Recipe> recipes) {
+        for (Recipe recipe :
+                recipes) {
+            if (!RecipeTransform.isPrepared(recipe))
+                RecipeTransform.prepare(recipe);
+        }
+    }
+
+    /**
+     * Blocking Rx calls wrap checked exceptions (like ConnectException) in a plain RuntimeException,
+     * this gets the original back so the retry logic can recognize it
+     */
+    static Throwable unwrapBlockingError(Throwable throwable) {
+        if (throwable.getClass().equals(RuntimeException.class) && throwable.getCause() != null)
+            return throwable.getCause();
+        return throwable;
+    }
+
     /** A function that's used to properly retry fetching data
-     * Uses an observable that notifies us of network changes to decide when to trigger retry
+     * Backs off exponentially while online, and waits for connectivity to come back while offline
      *
      * @param context the Context that is used to display Toast (the no-network error)
      */
-    private static Func1<Observable<? extends Throwable>, Observable<?>> getRetryWhenFunc(final Context context){
+    static Func1<Observable<? extends Throwable>, Observable<?>> getRetryWhenFunc(final Context context){
+
+        final Func1<Observable<? extends Throwable>, Observable<?>> retryFunc =
+                getRetryScheduler(context).retryWhenFunc();
 
         return new Func1<Observable<? extends Throwable>, Observable<?>>() {
             @Override
             public Observable<?> call(final Observable<? extends Throwable> observable) {
 
+                // Shared, since both the toast and the retries listen to the errors
+                Observable<? extends Throwable> errors = observable.share();
+
                 // Use this to display the no-network message (because onError won't trigger when there's retry)
-                observable
+                errors
                         .filter(new Func1<Throwable, Boolean>() {
                             @Override
                             public Boolean call(Throwable throwable) {
@@ -172,44 +643,17 @@ public class FetchData {
                             }
                         });
 
-                return observable
-                        .flatMap(new Func1<Throwable, Observable<?>>() {
-                            int retries = 0;
-                            @Override
-                            public Observable<?> call(Throwable throwable) {
-
-                                // If there is no network, start retrying
-                                if (throwable.getClass().equals(ConnectException.class)) {
-                                    if (retries < MAX_RETRIES) {
-                                        retries++;
-                                        return Observable.timer(5000, TimeUnit.MILLISECONDS);
-                                    }
-                                }
-                                // else, just return the error
-                                return Observable.error(throwable);
-                            }
-                        });
-                // TODO this other approach could be much better but this is not working for some reason
-                // transform to an observable that emits stuff on network connection changes
-//                            .flatMap(new Func1<Throwable, Observable<?>>() {
-//                                @Override
-//                                public Observable<?> call(Throwable throwable) {
-//                                    if (throwable.getClass().equals(ConnectException.class)) {
-//                                        Observable<Connectivity> obs =  ReactiveNetwork.observeNetworkConnectivity(context)
-//                                                // emit only when there is actual connection
-//                                                .filter(Connectivity.hasState(NetworkInfo.State.CONNECTED));
-//                                        obs.subscribe(new Action1<Connectivity>() {
-//                                            @Override
-//                                            public void call(Connectivity connectivity) {
-//                                                Log.e(TAG, "CONNECTION RESTORED");
-//                                            }
-//                                        });
-//                                        return obs;
-//                                    }
-//                                    return Observable.error(throwable);
-//                                }
-//                            });
+                return retryFunc.call(errors);
             }
         };
     }
+
+    /**
+     * @return The retry scheduler shared by all the fetches, so they share one connectivity watcher
+     */
+    private static synchronized RetryScheduler getRetryScheduler(Context context) {
+        if (retryScheduler == null)
+            retryScheduler = new RetryScheduler(ConnectivityWatcher.getInstance(context));
+        return retryScheduler;
+    }
 }
@@ -0,0 +1,112 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Created by aleksa on 8/16/16.
+ *
+ * Interceptors that let us cache large reference lists (components, tags) on disk
+ *
+ * The server doesn't send any freshness info, so we add our own max-age per endpoint. Within that
+ * window OkHttp answers from the cache without touching the network; after it, OkHttp revalidates
+ * using the ETag/Last-Modified it stored. Either way, an unchanged response is turned into a bare 304
+ * so the caller can skip parsing and writing it, but only if the store says it holds what that
+ * response had. Otherwise (the write failed, or the rows are gone) the cached body goes through
+ */
+public class HttpCaching {
+
+    /**
+     * Tells whether what an endpoint sent is already stored, so it doesn't need to be parsed and written again
+     */
+    public interface Store {
+
+        /**
+         * @param path The endpoint path, as it's keyed in the TTL map
+         * @param receivedAtMillis When the cached response was received
+         * @return Whether that response was written, and what it wrote is still there
+         */
+        boolean holds(String path, long receivedAtMillis);
+    }
+
+    /**
+     * Creates a network interceptor that marks responses of the given endpoints as fresh for their TTL
+     *
+     * @param ttlSeconds Freshness TTL in seconds, keyed by endpoint path (relative to the base URL)
+     */
+    public static Interceptor freshnessInterceptor(final Map<String, Integer> ttlSeconds) {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Response response = chain.proceed(chain.request());
+
+                Integer ttl = findTtl(ttlSeconds, chain.request());
+                if (ttl == null || !response.isSuccessful())
+                    return response;
+
+                return response.newBuilder()
+                        .removeHeader("Pragma")
+                        .header("Cache-Control", "max-age=" + ttl)
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * Creates an application interceptor that replaces unchanged responses of the given endpoints with an empty 304
+     * A response is unchanged if it came straight from the cache, or if the server answered our revalidation with 304.
+     * It's only replaced if the store holds it, otherwise the cached body is passed on to be written again
+     *
+     * @param ttlSeconds The same map given to {@link #freshnessInterceptor(Map)}
+     * @param store Tells whether the cached responses were written
+     */
+    public static Interceptor notModifiedInterceptor(final Map<String, Integer> ttlSeconds, final Store store) {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Response response = chain.proceed(chain.request());
+
+                String path = findPath(ttlSeconds, chain.request());
+                if (path == null || response.cacheResponse() == null)
+                    return response;
+
+                Response networkResponse = response.networkResponse();
+                if (networkResponse != null && networkResponse.code() != HttpURLConnection.HTTP_NOT_MODIFIED)
+                    return response;
+
+                if (!store.holds(path, response.cacheResponse().receivedResponseAtMillis()))
+                    return response;
+
+                // Nobody needs the cached body, it's already stored
+                response.body().close();
+
+                return response.newBuilder()
+                        .code(HttpURLConnection.HTTP_NOT_MODIFIED)
+                        .message("Not Modified")
+                        .body(ResponseBody.create(null, new byte[0]))
+                        .build();
+            }
+        };
+    }
+
+    private static Integer findTtl(Map<String, Integer> ttlSeconds, Request request) {
+        String path = findPath(ttlSeconds, request);
+        return path == null ? null : ttlSeconds.get(path);
+    }
+
+    // The key of the TTL map the request is for, null if it's none of them
+    private static String findPath(Map<String, Integer> ttlSeconds, Request request) {
+        String path = request.url().encodedPath();
+        for (String key : ttlSeconds.keySet()) {
+            if (path.endsWith(key))
+                return key;
+        }
+        return null;
+    }
+}
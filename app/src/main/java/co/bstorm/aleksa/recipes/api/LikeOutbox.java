@@ -0,0 +1,270 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Created by aleksa on 8/28/16.
+ *
+ * Keeps the likes the user makes until they're sent, and sends them in batches instead of one request per tap
+ *
+ * The like shows up locally right away (the store updates the recipe together with the outbox).
+ * Toggling the same recipe again before it's sent just updates the pending like, and toggling it
+ * back to what the server has drops it altogether. The outbox is flushed a while after the last
+ * toggle, and whenever connectivity comes back. The likes are sent oldest first, one batch at a time.
+ * A failed flush is retried with the retry scheduler's backoff
+ */
+public class LikeOutbox {
+
+    private static final String TAG = "LikeOutbox";
+
+    /**
+     * Persists the outbox, every method is atomic
+     */
+    public interface Store {
+
+        /**
+         * Flips the like of the recipe locally (and its count), and records it in the outbox
+         * coalesced with what's pending there (see {@link #coalesce})
+         */
+        void toggle(int recipeId);
+
+        /**
+         * @return The pending likes, oldest first
+         */
+        List<PendingLike> pending();
+
+        /**
+         * Updates the outbox once the likes are sent (see {@link #afterSent})
+         */
+        void sent(List<PendingLike> likes);
+    }
+
+    /**
+     * Sends a batch of likes
+     */
+    public interface Sender {
+        Observable<?> send(List<PendingLike> likes);
+    }
+
+    private final Store store;
+    private final Sender sender;
+    private final Scheduler scheduler;
+    private final RetryScheduler retryScheduler;
+    private final long flushDelayMillis;
+    private final int maxBatchSize;
+
+    private Subscription scheduledFlush = null;
+    private Subscription scheduledRetry = null;
+    // Flushes that failed in a row, for the backoff
+    private int failedFlushes = 0;
+    private boolean flushing = false;
+    private boolean flushAgain = false;
+
+    private int batchCount = 0;
+    private int sentCount = 0;
+    private int toggleCount = 0;
+
+    /**
+     * @param store Persists the outbox
+     * @param sender Sends the batches
+     * @param scheduler Used to wait for the flush delay
+     * @param retryScheduler Times the retries of a failed flush
+     * @param flushDelayMillis How long after the last toggle the outbox is flushed
+     * @param maxBatchSize Maximum number of likes sent in one request
+     */
+    public LikeOutbox(Store store, Sender sender, Scheduler scheduler, RetryScheduler retryScheduler,
+                      long flushDelayMillis, int maxBatchSize) {
+        this.store = store;
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.retryScheduler = retryScheduler;
+        this.flushDelayMillis = flushDelayMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * The pending like after a toggle
+     *
+     * @param pending What's pending for the recipe, or null if nothing is
+     * @param liked The state after the toggle
+     * @param sequence Sequence number of the toggle
+     * @return The new pending like, or null if the toggle got us back to what the server has
+     */
+    public static PendingLike coalesce(PendingLike pending, int recipeId, boolean liked, long sequence) {
+        boolean baseline = pending != null ? pending.isBaseline() : !liked;
+        if (liked == baseline)
+            return null;
+        return new PendingLike(recipeId, liked, baseline, sequence);
+    }
+
+    /**
+     * What's pending for a recipe once a like of it is sent (the server now has the sent state)
+     *
+     * @param sent The like that was sent
+     * @param pending What's pending for the recipe now, or null if nothing is
+     * @param liked The local state now
+     * @param sequence Sequence number to use if a new like has to be sent
+     * @return The like still to send, or null if the server is up to date
+     */
+    public static PendingLike afterSent(PendingLike sent, PendingLike pending, boolean liked, long sequence) {
+        // Not toggled since it was sent
+        if (pending != null && pending.getSequence() == sent.getSequence())
+            return null;
+        if (liked == sent.isLiked())
+            return null;
+
+        // Toggled back while it was being sent (which coalesced it away), so the way back has to be sent too
+        return new PendingLike(sent.getRecipeId(), liked, sent.isLiked(),
+                pending != null ? pending.getSequence() : sequence);
+    }
+
+    /**
+     * Likes the recipe if it's not liked, unlikes it otherwise
+     */
+    public void toggle(int recipeId) {
+        store.toggle(recipeId);
+        synchronized (this) {
+            toggleCount++;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Flushes the outbox once connectivity comes back
+     *
+     * @return Subscription that stops watching the connectivity
+     */
+    public Subscription flushWhenConnected(Observable<Boolean> connectivity) {
+        return connectivity
+                .distinctUntilChanged()
+                .filter(new Func1<Boolean, Boolean>() {
+                    @Override
+                    public Boolean call(Boolean connected) {
+                        return connected;
+                    }
+                })
+                .subscribe(new Action1<Boolean>() {
+                    @Override
+                    public void call(Boolean connected) {
+                        flush();
+                    }
+                });
+    }
+
+    /**
+     * Flushes the outbox flushDelay after now, unless another toggle comes in the meantime
+     */
+    public synchronized void scheduleFlush() {
+        if (scheduledFlush != null)
+            scheduledFlush.unsubscribe();
+
+        scheduledFlush = Observable.timer(flushDelayMillis, TimeUnit.MILLISECONDS, scheduler)
+                .subscribe(new Action1<Long>() {
+                    @Override
+                    public void call(Long tick) {
+                        flush();
+                    }
+                });
+    }
+
+    /**
+     * Flushes the outbox again once the backoff for the failed flushes passes (or connectivity comes back),
+     * unless it's out of retries. Then the likes wait for the next toggle or reconnect
+     */
+    private synchronized void scheduleRetry() {
+        if (scheduledRetry != null)
+            scheduledRetry.unsubscribe();
+
+        scheduledRetry = retryScheduler.waitForRetry(failedFlushes - 1)
+                .subscribe(new Action1<RetryScheduler.Resume>() {
+                    @Override
+                    public void call(RetryScheduler.Resume resume) {
+                        if (resume != RetryScheduler.Resume.GAVE_UP)
+                            flush();
+                    }
+                });
+    }
+
+    /**
+     * Sends everything that's pending, a batch at a time
+     * If it fails the likes stay in the outbox, and the flush is retried
+     */
+    public void flush() {
+        final List<PendingLike> pending;
+        final List<PendingLike> batch;
+        synchronized (this) {
+            if (flushing) {
+                // Whatever is toggled in the meantime goes out once this batch is done
+                flushAgain = true;
+                return;
+            }
+            pending = store.pending();
+            if (pending.isEmpty())
+                return;
+            flushing = true;
+            batch = new ArrayList<>(pending.subList(0, Math.min(maxBatchSize, pending.size())));
+        }
+
+        sender.send(batch).subscribe(new Subscriber<Object>() {
+            @Override
+            public void onCompleted() {
+                store.sent(batch);
+
+                boolean again;
+                synchronized (LikeOutbox.this) {
+                    flushing = false;
+                    failedFlushes = 0;
+                    batchCount++;
+                    sentCount += batch.size();
+                    again = flushAgain || pending.size() > batch.size();
+                    flushAgain = false;
+                }
+                if (again)
+                    flush();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                Log.e(TAG, "Failed to send " + batch.size() + " likes", e);
+                synchronized (LikeOutbox.this) {
+                    flushing = false;
+                    flushAgain = false;
+                    failedFlushes++;
+                }
+                scheduleRetry();
+            }
+
+            @Override
+            public void onNext(Object response) {
+            }
+        });
+    }
+
+    public synchronized int getBatchCount() {
+        return batchCount;
+    }
+
+    public synchronized int getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized int getToggleCount() {
+        return toggleCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LikeOutbox{toggles=" + toggleCount + ", sent=" + sentCount + ", batches=" + batchCount + "}";
+    }
+}
@@ -0,0 +1,59 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Created by aleksa on 8/27/16.
+ *
+ * Reads a snapshot file through memory-mapped windows, waiting for the download when it catches up with it
+ *
+ * Only the part that's already written is mapped, a window of at most windowSize bytes at a time
+ */
+public class MappedSnapshotStream extends InputStream {
+
+    private final SnapshotFile file;
+    private final int generation;
+    private final long windowSize;
+
+    private long position = 0;
+    private MappedByteBuffer window = null;
+
+    /**
+     * @param file The file to read
+     * @param generation The generation of the download we're reading, see {@link SnapshotFile#getGeneration()}
+     * @param windowSize Maximum number of bytes mapped at once
+     */
+    public MappedSnapshotStream(SnapshotFile file, int generation, long windowSize) {
+        this.file = file;
+        this.generation = generation;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        if (window == null || !window.hasRemaining()) {
+            window = file.mapNext(position, generation, windowSize);
+            if (window == null)
+                return -1;
+        }
+
+        int count = file.copy(window, generation, bytes, offset, length);
+        position += count;
+        return count;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+}
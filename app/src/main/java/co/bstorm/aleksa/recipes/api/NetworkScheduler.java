@@ -0,0 +1,293 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Created by aleksa on 8/21/16.
+ *
+ * Dispatches network requests by priority, with a bounded number of them running at once
+ *
+ * Requests wait in a queue per priority class and are started highest class first. A lower class
+ * is only started when nothing above it is waiting, never takes the last free slot (it's kept for
+ * interactive requests), and background requests are held back entirely while an interactive
+ * request is running. Long jobs made of many requests (catalog prefetch, delta sync) get paused
+ * this way between their requests
+ */
+public class NetworkScheduler {
+
+    public enum Priority {
+        // Something the user is waiting on right now (next page, opened detail)
+        INTERACTIVE,
+        // Something the user is about to see
+        PREFETCH,
+        // Everything else (reference lists, sync)
+        BACKGROUND
+    }
+
+    // Task states
+    private static final int NEW = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int DONE = 3;
+
+    private final Executor executor;
+    private final int maxConcurrent;
+
+    private final Map<Priority, ArrayDeque<Task<?>>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Stats> stats = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+
+    /**
+     * @param maxConcurrent Maximum number of requests running at once
+     */
+    public NetworkScheduler(int maxConcurrent) {
+        this(Executors.newCachedThreadPool(), maxConcurrent);
+    }
+
+    /**
+     * @param executor Used to run the requests, they block the thread they're subscribed on
+     * @param maxConcurrent Maximum number of requests running at once
+     */
+    public NetworkScheduler(Executor executor, int maxConcurrent) {
+        if (maxConcurrent < 1)
+            throw new IllegalArgumentException("Concurrency must be positive");
+
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<Task<?>>());
+            stats.put(priority, new Stats());
+            running.put(priority, 0);
+        }
+    }
+
+    /**
+     * Wraps the request so that, on subscription, it waits for its turn before going out
+     * Unsubscribing while it waits just takes it out of the queue
+     */
+    public <T> Observable<T> schedule(final Priority priority, final Observable<T> request) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(Subscriber<? super T> subscriber) {
+                final Task<T> task = new Task<>(priority, request, subscriber);
+
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        cancel(task);
+                    }
+                }));
+
+                enqueue(task);
+            }
+        });
+    }
+
+    /**
+     * @return Number of requests of the given class waiting to go out
+     */
+    public synchronized int getQueueDepth(Priority priority) {
+        return queues.get(priority).size();
+    }
+
+    /**
+     * @return Number of requests of the given class running right now
+     */
+    public synchronized int getRunningCount(Priority priority) {
+        return running.get(priority);
+    }
+
+    /**
+     * @return Number of requests of the given class that were started so far
+     */
+    public synchronized long getDispatchedCount(Priority priority) {
+        return stats.get(priority).dispatched;
+    }
+
+    /**
+     * @return Average time requests of the given class spent in the queue
+     */
+    public synchronized long getAverageWaitMillis(Priority priority) {
+        Stats classStats = stats.get(priority);
+        if (classStats.dispatched == 0)
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis(classStats.totalWaitNanos / classStats.dispatched);
+    }
+
+    /**
+     * @return Longest time a request of the given class spent in the queue
+     */
+    public synchronized long getMaxWaitMillis(Priority priority) {
+        return TimeUnit.NANOSECONDS.toMillis(stats.get(priority).maxWaitNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("NetworkScheduler{");
+        for (Priority priority : Priority.values()) {
+            builder.append(priority)
+                    .append(": queued=").append(getQueueDepth(priority))
+                    .append(", running=").append(getRunningCount(priority))
+                    .append(", dispatched=").append(getDispatchedCount(priority))
+                    .append(", avgWaitMs=").append(getAverageWaitMillis(priority))
+                    .append(", maxWaitMs=").append(getMaxWaitMillis(priority))
+                    .append("; ");
+        }
+        return builder.append('}').toString();
+    }
+
+    private synchronized void enqueue(Task<?> task) {
+        // Already unsubscribed
+        if (task.state != NEW)
+            return;
+        task.state = QUEUED;
+        task.enqueuedAt = System.nanoTime();
+        queues.get(task.priority).addLast(task);
+        dispatch();
+    }
+
+    private void cancel(Task<?> task) {
+        Subscription requestSubscription;
+        synchronized (this) {
+            if (task.state == NEW || task.state == QUEUED) {
+                queues.get(task.priority).remove(task);
+                task.state = DONE;
+                return;
+            }
+            requestSubscription = task.requestSubscriber;
+        }
+        // This cancels the call itself if it's running
+        if (requestSubscription != null)
+            requestSubscription.unsubscribe();
+        release(task);
+    }
+
+    private synchronized void release(Task<?> task) {
+        if (task.state != RUNNING)
+            return;
+        task.state = DONE;
+        running.put(task.priority, running.get(task.priority) - 1);
+        dispatch();
+    }
+
+    /**
+     * Starts as many queued tasks as the rules allow, must be called while holding the lock
+     */
+    private void dispatch() {
+        Task<?> task;
+        while ((task = next()) != null) {
+            queues.get(task.priority).removeFirst();
+            task.state = RUNNING;
+            running.put(task.priority, running.get(task.priority) + 1);
+
+            long waited = System.nanoTime() - task.enqueuedAt;
+            Stats classStats = stats.get(task.priority);
+            classStats.dispatched++;
+            classStats.totalWaitNanos += waited;
+            classStats.maxWaitNanos = Math.max(classStats.maxWaitNanos, waited);
+
+            final Task<?> started = task;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    start(started);
+                }
+            });
+        }
+    }
+
+    private <T> void start(final Task<T> task) {
+        Subscriber<T> requestSubscriber = new Subscriber<T>() {
+            @Override
+            public void onCompleted() {
+                // Released first, so whatever the subscriber starts next can have the slot
+                release(task);
+                task.subscriber.onCompleted();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                release(task);
+                task.subscriber.onError(e);
+            }
+
+            @Override
+            public void onNext(T t) {
+                task.subscriber.onNext(t);
+            }
+        };
+
+        synchronized (this) {
+            // Cancelled before it got a thread
+            if (task.state != RUNNING)
+                return;
+            task.requestSubscriber = requestSubscriber;
+        }
+
+        task.request.subscribe(requestSubscriber);
+    }
+
+    /**
+     * @return The task that should be started next, or null if none can be started right now
+     */
+    private Task<?> next() {
+        int total = 0;
+        for (int count : running.values()) {
+            total += count;
+        }
+        if (total >= maxConcurrent)
+            return null;
+
+        for (Priority priority : Priority.values()) {
+            Task<?> head = queues.get(priority).peekFirst();
+
+            if (priority != Priority.INTERACTIVE) {
+                // The last free slot is kept for interactive requests
+                if (maxConcurrent > 1 && total >= maxConcurrent - 1)
+                    return null;
+                // Background waits for the interactive requests to finish
+                if (priority == Priority.BACKGROUND && running.get(Priority.INTERACTIVE) > 0)
+                    return null;
+            }
+
+            if (head != null)
+                return head;
+        }
+        return null;
+    }
+
+    private static class Stats {
+        long dispatched = 0;
+        long totalWaitNanos = 0;
+        long maxWaitNanos = 0;
+    }
+
+    private static class Task<T> {
+
+        final Priority priority;
+        final Observable<T> request;
+        final Subscriber<? super T> subscriber;
+
+        int state = NEW;
+        long enqueuedAt;
+        Subscriber<T> requestSubscriber;
+
+        Task(Priority priority, Observable<T> request, Subscriber<? super T> subscriber) {
+            this.priority = priority;
+            this.request = request;
+            this.subscriber = subscriber;
+        }
+    }
+}
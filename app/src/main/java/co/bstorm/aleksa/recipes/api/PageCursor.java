@@ -0,0 +1,92 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+
+/**
+ * Created by aleksa on 8/24/16.
+ *
+ * The position of keyset pagination: the (updated_at, id) pair of the last recipe we got
+ *
+ * The server returns the recipes ordered by (updated_at, id) that come after the pair, so unlike
+ * offsets the position doesn't shift when recipes are added or changed. Anything new or changed
+ * gets a newer updated_at and simply shows up in a later page
+ */
+public class PageCursor {
+
+    // Sorts before any real timestamp, so it's the position before the first page
+    public static final PageCursor START = new PageCursor("", 0);
+
+    private final String sortKey;
+    private final int id;
+
+    public PageCursor(String sortKey, int id) {
+        this.sortKey = sortKey;
+        this.id = id;
+    }
+
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Whether the recipe comes after this position
+     */
+    public boolean isBefore(Recipe recipe) {
+        if (recipe.getUpdatedAt() == null)
+            return false;
+        int compared = recipe.getUpdatedAt().compareTo(sortKey);
+        return compared > 0 || (compared == 0 && recipe.getId() > id);
+    }
+
+    /**
+     * @return The position after the given page, or null if the page doesn't fit keyset pagination
+     * (some recipe has no updated_at, or isn't after this position, so the server ignored the cursor)
+     */
+    public PageCursor after(List<Recipe> page) {
+        PageCursor last = this;
+        for (Recipe recipe : page) {
+            if (!isBefore(recipe))
+                return null;
+            if (last.isBefore(recipe))
+                last = new PageCursor(recipe.getUpdatedAt(), recipe.getId());
+        }
+        return last;
+    }
+
+    /**
+     * @return The saved position, or START if there is none
+     */
+    public static PageCursor load(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        String sortKey = preferences.getString(Constants.CURSOR_KEY_SHARED_PREF_KEY, null);
+        if (sortKey == null)
+            return START;
+        return new PageCursor(sortKey, preferences.getInt(Constants.CURSOR_ID_SHARED_PREF_KEY, 0));
+    }
+
+    public static void save(Context context, PageCursor cursor) {
+        getPreferences(context).edit()
+                .putString(Constants.CURSOR_KEY_SHARED_PREF_KEY, cursor.sortKey)
+                .putInt(Constants.CURSOR_ID_SHARED_PREF_KEY, cursor.id)
+                .apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(Constants.SYNC_SHARED_PREF, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String toString() {
+        return "PageCursor{" + sortKey + ", " + id + "}";
+    }
+}
@@ -0,0 +1,115 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Created by aleksa on 8/30/16.
+ *
+ * Applies a transform to every item of a batch, splitting big batches into chunks that are worked
+ * on in parallel
+ *
+ * It's fork/join without ForkJoinPool (that one needs API 21): the calling thread forks helpers to
+ * the executor, then works on chunks itself, and every thread claims the next chunk that's left
+ * until there are none. So the caller never waits on a helper that hasn't started (no deadlock
+ * when the executor is busy), and a slow chunk doesn't hold up the others. Items are transformed
+ * in place, each by exactly one thread, so the batch keeps its order for the writer
+ */
+public class ParallelTransform {
+
+    /**
+     * The work done on a single item, it has to be safe to run on different items at once
+     */
+    public interface ItemTransform<T> {
+        void transform(T item);
+    }
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int chunkSize;
+
+    /**
+     * @param executor Runs the helpers, shouldn't be one the callers themselves run on
+     * @param parallelism Maximum number of threads working on a batch, the calling one included
+     * @param chunkSize Number of items a thread claims at once, batches up to this size aren't split at all
+     */
+    public ParallelTransform(Executor executor, int parallelism, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1)
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive");
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Transforms all the items, blocking until they're all done
+     * If the transform throws for any of them, the first exception is rethrown once the rest are done
+     */
+    public <T> void apply(final List<T> items, final ItemTransform<? super T> transform) {
+        final int chunks = (items.size() + chunkSize - 1) / chunkSize;
+        if (chunks <= 1 || parallelism == 1) {
+            for (T item : items) {
+                transform.transform(item);
+            }
+            return;
+        }
+
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(chunks);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                    try {
+                        int end = Math.min(items.size(), (chunk + 1) * chunkSize);
+                        for (int i = chunk * chunkSize; i < end; i++) {
+                            transform.transform(items.get(i));
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        // Helpers that start after everything is claimed just return
+        int helpers = Math.min(parallelism, chunks) - 1;
+        for (int i = 0; i < helpers; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+
+        // Only waits for chunks other threads are in the middle of
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+}
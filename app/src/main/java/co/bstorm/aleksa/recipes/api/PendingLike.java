@@ -0,0 +1,50 @@
+package co.bstorm.aleksa.recipes.api;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Created by aleksa on 8/28/16.
+ *
+ * A like (or unlike) waiting in the outbox, sent to the server as {"recipe_id": .., "liked": ..}
+ *
+ * We send the state rather than the toggle, so sending it twice (a retry after a lost response) does no harm
+ */
+public class PendingLike {
+
+    @SerializedName("recipe_id")
+    private final int recipeId;
+    @SerializedName("liked")
+    private final boolean liked;
+    // The state the server has, before any of the pending toggles
+    private final transient boolean baseline;
+    // Orders the pending likes by their last toggle
+    private final transient long sequence;
+
+    public PendingLike(int recipeId, boolean liked, boolean baseline, long sequence) {
+        this.recipeId = recipeId;
+        this.liked = liked;
+        this.baseline = baseline;
+        this.sequence = sequence;
+    }
+
+    public int getRecipeId() {
+        return recipeId;
+    }
+
+    public boolean isLiked() {
+        return liked;
+    }
+
+    public boolean isBaseline() {
+        return baseline;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return "PendingLike{" + recipeId + ", " + liked + ", #" + sequence + "}";
+    }
+}
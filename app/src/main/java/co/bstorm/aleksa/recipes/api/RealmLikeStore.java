@@ -0,0 +1,126 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.OutboxLike;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import io.realm.Realm;
+import io.realm.Sort;
+
+/**
+ * Created by aleksa on 8/28/16.
+ *
+ * Keeps the like outbox in Realm, next to the recipes, so a like and its local effect are written together
+ * (in the same write on the writer thread, see RealmWriter)
+ */
+public class RealmLikeStore implements LikeOutbox.Store {
+
+    @Override
+    public void toggle(final int recipeId) {
+        // Called on the UI thread, so it doesn't wait for the write
+        RealmWriter.get().post(new WriteQueue.Write<Realm>() {
+            @Override
+            public int write(Realm realm) {
+                Recipe recipe = realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, recipeId).findFirst();
+                if (recipe == null)
+                    return 0;
+
+                boolean liked = !recipe.isLiked();
+                recipe.setLiked(liked);
+                recipe.setLikes(Math.max(0, recipe.getLikes() + (liked ? 1 : -1)));
+
+                OutboxLike record = realm.where(OutboxLike.class)
+                        .equalTo(DbColumns.OutboxLike.RECIPE_ID, recipeId)
+                        .findFirst();
+
+                PendingLike pending = LikeOutbox.coalesce(record == null ? null : toPending(record),
+                        recipeId, liked, nextSequence(realm));
+                if (pending == null) {
+                    if (record != null)
+                        record.deleteFromRealm();
+                }
+                else {
+                    save(realm, pending);
+                }
+                return 1;
+            }
+        });
+    }
+
+    @Override
+    public List<PendingLike> pending() {
+        Realm realm = RealmSessions.get().acquire();
+        try {
+            List<PendingLike> pending = new ArrayList<>();
+            for (OutboxLike record : realm.where(OutboxLike.class).findAllSorted(DbColumns.OutboxLike.SEQUENCE, Sort.ASCENDING)) {
+                pending.add(toPending(record));
+            }
+            return pending;
+        } finally {
+            RealmSessions.get().release();
+        }
+    }
+
+    @Override
+    public void sent(final List<PendingLike> likes) {
+        RealmWriter.get().write(likes.size(), new WriteQueue.Write<Realm>() {
+            @Override
+            public int write(Realm realm) {
+                int written = 0;
+                for (PendingLike like : likes) {
+                    OutboxLike record = realm.where(OutboxLike.class)
+                            .equalTo(DbColumns.OutboxLike.RECIPE_ID, like.getRecipeId())
+                            .findFirst();
+                    Recipe recipe = realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, like.getRecipeId()).findFirst();
+
+                    PendingLike pending = null;
+                    if (recipe != null)
+                        pending = LikeOutbox.afterSent(like, record == null ? null : toPending(record),
+                                recipe.isLiked(), nextSequence(realm));
+
+                    if (pending == null) {
+                        if (record != null) {
+                            record.deleteFromRealm();
+                            written++;
+                        }
+                    }
+                    else {
+                        save(realm, pending);
+                        written++;
+                    }
+                }
+                return written;
+            }
+        });
+    }
+
+    /**
+     * How many likes the stored count is off from the server's, because of the like pending for the recipe
+     */
+    static int pendingLikeDelta(Realm realm, int recipeId) {
+        OutboxLike record = realm.where(OutboxLike.class).equalTo(DbColumns.OutboxLike.RECIPE_ID, recipeId).findFirst();
+        if (record == null)
+            return 0;
+        return record.isLiked() ? 1 : -1;
+    }
+
+    private static long nextSequence(Realm realm) {
+        Number last = realm.where(OutboxLike.class).max(DbColumns.OutboxLike.SEQUENCE);
+        return last == null ? 1 : last.longValue() + 1;
+    }
+
+    private static void save(Realm realm, PendingLike pending) {
+        OutboxLike record = new OutboxLike();
+        record.setRecipeId(pending.getRecipeId());
+        record.setLiked(pending.isLiked());
+        record.setBaseline(pending.isBaseline());
+        record.setSequence(pending.getSequence());
+        realm.copyToRealmOrUpdate(record);
+    }
+
+    private static PendingLike toPending(OutboxLike record) {
+        return new PendingLike(record.getRecipeId(), record.isLiked(), record.isBaseline(), record.getSequence());
+    }
+}
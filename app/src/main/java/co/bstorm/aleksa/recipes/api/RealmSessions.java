@@ -0,0 +1,55 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.os.Looper;
+import android.util.Log;
+
+import co.bstorm.aleksa.recipes.BuildConfig;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import io.realm.Realm;
+
+/**
+ * Created by aleksa on 9/2/16.
+ *
+ * The app's Realm sessions: the UI thread keeps one instance for as long as the app runs (its
+ * looper keeps it up to date), and workers acquire one around what they do
+ *
+ * The writer thread isn't in here, it keeps its own instance (see RealmWriter)
+ */
+public class RealmSessions {
+
+    private static final String TAG = "RealmSessions";
+
+    // Used on hot paths (list binds), so it's built up front instead of behind a lock
+    private static final SessionManager<Realm> sessions = new SessionManager<>(
+            new SessionManager.Database<Realm>() {
+                @Override
+                public Realm open() {
+                    return Realm.getDefaultInstance();
+                }
+
+                @Override
+                public void close(Realm realm) {
+                    realm.close();
+                }
+
+                @Override
+                public boolean keepsOpen() {
+                    return Looper.myLooper() == Looper.getMainLooper();
+                }
+            },
+            BuildConfig.DEBUG,
+            Constants.SessionConstants.MAX_HOLD_MILLIS,
+            new SessionManager.LeakReporter() {
+                @Override
+                public void report(String thread, int references, Throwable acquiredAt, boolean threadDied) {
+                    if (threadDied)
+                        Log.e(TAG, "Realm leaked by " + thread + ", it died with " + references + " sessions open", acquiredAt);
+                    else
+                        Log.w(TAG, "Realm held by " + thread + " for too long, " + references + " sessions open", acquiredAt);
+                }
+            });
+
+    public static SessionManager<Realm> get() {
+        return sessions;
+    }
+}
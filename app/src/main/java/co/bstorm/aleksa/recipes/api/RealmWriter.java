@@ -0,0 +1,60 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.util.Log;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import io.realm.Realm;
+
+/**
+ * Created by aleksa on 9/1/16.
+ *
+ * The app's single Realm writer, everything that writes to Realm goes through it
+ *
+ * The writer thread keeps its Realm open for as long as the app runs. It has no looper, so the
+ * Realm isn't refreshed by itself, but beginning a transaction always brings it to the latest
+ * version, and the writes only ever read inside their transaction
+ */
+public class RealmWriter {
+
+    private static final String TAG = "RealmWriter";
+
+    private static WriteQueue<Realm> writeQueue = null;
+
+    public static synchronized WriteQueue<Realm> get() {
+        if (writeQueue != null)
+            return writeQueue;
+
+        writeQueue = new WriteQueue<>(
+                new WriteQueue.Database<Realm>() {
+                    @Override
+                    public Realm open() {
+                        return Realm.getDefaultInstance();
+                    }
+
+                    @Override
+                    public void beginTransaction(Realm realm) {
+                        realm.beginTransaction();
+                    }
+
+                    @Override
+                    public void commitTransaction(Realm realm) {
+                        realm.commitTransaction();
+                    }
+
+                    @Override
+                    public void cancelTransaction(Realm realm) {
+                        realm.cancelTransaction();
+                    }
+                },
+                new WriteQueue.FailureReporter() {
+                    @Override
+                    public void report(String message, Throwable e) {
+                        Log.e(TAG, message, e);
+                    }
+                },
+                Constants.WriteConstants.GROUP_WINDOW_MILLIS,
+                Constants.WriteConstants.MAX_GROUP_SIZE,
+                Constants.WriteConstants.CHUNK_SIZE);
+        return writeQueue;
+    }
+}
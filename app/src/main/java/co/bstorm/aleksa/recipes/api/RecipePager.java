@@ -0,0 +1,124 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import io.realm.Realm;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Created by aleksa on 8/24/16.
+ *
+ * Loads the next page of recipes for the list, by keyset if we can and by offset if we can't
+ *
+ * The keyset position is saved once a page is written, so after a restart scrolling picks up
+ * where it left off. If the server doesn't honor the cursor (the page isn't after it) we switch
+ * to offsets for the rest of the session
+ */
+public class RecipePager {
+
+    private static final String TAG = "RecipePager";
+
+    private final Context context;
+
+    // Null once we fell back to offsets
+    private PageCursor cursor;
+    // Position after the page in flight, saved once that page is written
+    private PageCursor pendingCursor;
+
+    /**
+     * @param context A context used to load and save the position
+     */
+    public RecipePager(Context context) {
+        this.context = context.getApplicationContext();
+        cursor = Constants.APIConstants.KEYSET_PAGINATION ? PageCursor.load(this.context) : null;
+    }
+
+    /**
+     * @param fallbackOffset Offset to use if we're not using keyset pagination
+     * @return Observable that fetches the next page
+     */
+    public synchronized Observable<ArrayList<Recipe>> nextPage(int fallbackOffset) {
+        pendingCursor = null;
+        if (cursor == null)
+            return API.getOffsetRecipes(fallbackOffset);
+
+        return pageAfter(cursor);
+    }
+
+    private Observable<ArrayList<Recipe>> pageAfter(final PageCursor from) {
+        return API.getRecipesAfter(from)
+                .concatMap(new Func1<ArrayList<Recipe>, Observable<ArrayList<Recipe>>>() {
+                    @Override
+                    public Observable<ArrayList<Recipe>> call(ArrayList<Recipe> page) {
+                        PageCursor next = onPage(from, page);
+
+                        // Full pages we already have all of are skipped right away
+                        // (after a first run filled by offsets, the cursor starts behind what we have)
+                        if (next != null && page.size() == Constants.PrefetchConstants.PAGE_SIZE
+                                && allStored(page) && skipTo(from, next))
+                            return pageAfter(next);
+
+                        return Observable.just(page);
+                    }
+                });
+    }
+
+    /**
+     * Should be called once the page is written, so we only move past pages we actually have
+     */
+    public synchronized void onPageWritten() {
+        if (pendingCursor == null || cursor == null)
+            return;
+
+        cursor = pendingCursor;
+        pendingCursor = null;
+        PageCursor.save(context, cursor);
+    }
+
+    /**
+     * @return The position after the page, or null if we can't use it
+     */
+    private synchronized PageCursor onPage(PageCursor from, List<Recipe> page) {
+        // A newer page was asked for in the meantime
+        if (from != cursor)
+            return null;
+
+        pendingCursor = from.after(page);
+        if (pendingCursor == null) {
+            Log.w(TAG, "Server ignored " + from + ", falling back to offsets");
+            cursor = null;
+        }
+        return pendingCursor;
+    }
+
+    private synchronized boolean skipTo(PageCursor from, PageCursor next) {
+        if (from != cursor)
+            return false;
+
+        cursor = next;
+        pendingCursor = null;
+        PageCursor.save(context, cursor);
+        return true;
+    }
+
+    private static boolean allStored(List<Recipe> page) {
+        Realm realm = RealmSessions.get().acquire();
+        try {
+            for (Recipe recipe : page) {
+                if (realm.where(Recipe.class).equalTo(DbColumns.Recipe.ID, recipe.getId()).count() == 0)
+                    return false;
+            }
+            return true;
+        } finally {
+            RealmSessions.get().release();
+        }
+    }
+}
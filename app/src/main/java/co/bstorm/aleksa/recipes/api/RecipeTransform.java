@@ -0,0 +1,78 @@
+package co.bstorm.aleksa.recipes.api;
+
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.ContentHashed;
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.Step;
+import co.bstorm.aleksa.recipes.util.Diacritics;
+
+/**
+ * Created by aleksa on 8/30/16.
+ *
+ * The work done on every freshly parsed item before it's written: the content hash, the measure
+ * codes, and for recipes the fields that don't come from the server (including the derived columns,
+ * so reading them doesn't have to touch the linked objects)
+ *
+ * Each item is worked on by itself (no Realm, nothing shared), so batches can be split up
+ * between threads, see {@link ParallelTransform}
+ */
+public class RecipeTransform implements ParallelTransform.ItemTransform<Object> {
+
+    @Override
+    public void transform(Object item) {
+        if (item instanceof ContentHashed) {
+            ContentHashed hashed = (ContentHashed) item;
+            hashed.setContentHash(hashed.computeContentHash());
+        }
+        if (item instanceof Component)
+            ((Component) item).encodeQuantityType();
+        if (item instanceof Recipe)
+            prepare((Recipe) item);
+    }
+
+    /**
+     * Initializes the fields of the recipe that don't come from the server (lowercase and folded title,
+     * derived columns and Ingredient primary keys), and encodes the ingredient measures
+     */
+    public static void prepare(Recipe recipe) {
+        recipe.setTitleLower(recipe.getTitle().toLowerCase());
+        recipe.setTitleFolded(Diacritics.fold(recipe.getTitle()));
+        derive(recipe);
+        if (recipe.getIngredients() == null)
+            return;
+        for (Ingredient ingredient :
+                recipe.getIngredients()) {
+            ingredient.setRecipeId(recipe.getId());
+            ingredient.setUniqueId();
+            ingredient.encodeMeasure();
+        }
+    }
+
+    /**
+     * Computes the columns derived from the recipe's details: ingredient and step counts, and the step
+     * timers added up. A summary without details gets zeros, unless it keeps the stored details
+     * (then it's derived again once it has them)
+     */
+    public static void derive(Recipe recipe) {
+        recipe.setIngredientCount(recipe.getIngredients() == null ? 0 : recipe.getIngredients().size());
+
+        int stepCount = 0;
+        int timerMinutes = 0;
+        if (recipe.getSteps() != null) {
+            for (Step step : recipe.getSteps()) {
+                stepCount++;
+                timerMinutes += step.getTimer();
+            }
+        }
+        recipe.setStepCount(stepCount);
+        recipe.setTimerMinutes(timerMinutes);
+    }
+
+    /**
+     * @return Whether the recipe was already prepared (by the pipeline's transform stage)
+     */
+    public static boolean isPrepared(Recipe recipe) {
+        return recipe.getTitleLower() != null;
+    }
+}
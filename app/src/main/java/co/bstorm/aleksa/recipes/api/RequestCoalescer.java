@@ -0,0 +1,140 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Created by aleksa on 8/19/16.
+ *
+ * Makes identical requests share a single network call
+ *
+ * Requests are identified by a key (endpoint + parameters). Anyone subscribing while a request
+ * with the same key is in flight gets the same result, and so does anyone subscribing within
+ * reuseWindowMillis after it completed. Failed requests are forgotten right away, so a retry
+ * actually goes to the network again
+ *
+ * Everyone gets the very same values, so they should be something nobody changes (the bytes of a
+ * response, not the pojos parsed from it)
+ */
+public class RequestCoalescer {
+
+    private final long reuseWindowMillis;
+
+    // Shared requests, in flight or recently completed, by key
+    private final Map<String, SharedRequest> requests = new HashMap<>();
+
+    private int requestCount = 0;
+    private int coalescedCount = 0;
+
+    /**
+     * @param reuseWindowMillis How long a completed result can be handed out again
+     */
+    public RequestCoalescer(long reuseWindowMillis) {
+        this.reuseWindowMillis = reuseWindowMillis;
+    }
+
+    /**
+     * Wraps the source so that, on subscription, it joins an identical request if there is one
+     *
+     * @param key Identifies the request, should contain the endpoint and all the parameters
+     *            (and the priority, if the same request can be made with different ones)
+     * @param source The request to make if there's nothing to join
+     */
+    public <T> Observable<T> coalesce(final String key, final Observable<T> source) {
+        // Deferred, since joining has to be decided when (and every time) someone subscribes
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                return obtain(key, source);
+            }
+        });
+    }
+
+    /**
+     * @return Number of requests that actually went to the network
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return Number of requests that joined another request instead of making their own
+     */
+    public synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Observable<T> obtain(final String key, Observable<T> source) {
+
+        long now = now();
+        evictExpired(now);
+
+        SharedRequest existing = requests.get(key);
+        if (existing != null) {
+            coalescedCount++;
+            return (Observable<T>) existing.observable;
+        }
+
+        requestCount++;
+
+        final SharedRequest request = new SharedRequest();
+        request.observable = source
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        onCompleted(request);
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        onError(key, request);
+                    }
+                })
+                // Subscribes to the source only once, and replays the result to everyone else
+                .cache();
+
+        requests.put(key, request);
+
+        return (Observable<T>) request.observable;
+    }
+
+    private synchronized void onCompleted(SharedRequest request) {
+        request.completedAt = now();
+    }
+
+    private synchronized void onError(String key, SharedRequest request) {
+        // Only if it wasn't replaced in the meantime
+        if (requests.get(key) == request)
+            requests.remove(key);
+    }
+
+    private void evictExpired(long now) {
+        Iterator<SharedRequest> iterator = requests.values().iterator();
+        while (iterator.hasNext()) {
+            SharedRequest request = iterator.next();
+            if (request.completedAt != SharedRequest.IN_FLIGHT && now - request.completedAt > reuseWindowMillis)
+                iterator.remove();
+        }
+    }
+
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class SharedRequest {
+
+        static final long IN_FLIGHT = -1;
+
+        Observable<?> observable;
+        long completedAt = IN_FLIGHT;
+    }
+}
@@ -0,0 +1,178 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Created by aleksa on 8/20/16.
+ *
+ * Decides when a failed network call should be retried
+ *
+ * While the device is online, retries back off exponentially with full jitter (a random delay
+ * between 0 and base * 2^attempt, capped), so many failing calls don't all hit the server at once.
+ * While the device is offline nothing is retried at all, and as soon as connectivity comes back
+ * every waiting call is retried right away, with its backoff reset
+ *
+ * Only network (IO) errors are retried, anything else is passed through
+ */
+public class RetryScheduler {
+
+    /**
+     * Tells us whether the device is connected
+     */
+    public interface ConnectivitySource {
+        /**
+         * @return Observable that emits the current state on subscription, and then every change
+         */
+        Observable<Boolean> observeConnected();
+    }
+
+    private final ConnectivitySource connectivity;
+    private final Scheduler scheduler;
+    private final Random random;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxRetries;
+
+    /**
+     * Creates a scheduler with the default tuning from {@link Constants.RetryConstants}
+     */
+    public RetryScheduler(ConnectivitySource connectivity) {
+        this(connectivity, Schedulers.computation(), new Random(),
+                Constants.RetryConstants.BASE_DELAY_MILLIS,
+                Constants.RetryConstants.MAX_DELAY_MILLIS,
+                Constants.RetryConstants.MAX_RETRIES);
+    }
+
+    /**
+     * @param connectivity Used to pause retrying while offline
+     * @param scheduler Used to time the backoff delays (a TestScheduler works as a fake clock)
+     * @param random Used for the jitter
+     * @param baseDelayMillis Upper bound of the first delay
+     * @param maxDelayMillis Upper bound of any delay
+     * @param maxRetries Maximum number of consecutive retries while online, before giving up
+     */
+    public RetryScheduler(ConnectivitySource connectivity, Scheduler scheduler, Random random,
+                          long baseDelayMillis, long maxDelayMillis, int maxRetries) {
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis || maxRetries < 0)
+            throw new IllegalArgumentException("Invalid backoff parameters");
+
+        this.connectivity = connectivity;
+        this.scheduler = scheduler;
+        this.random = random;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * A function to pass to retryWhen
+     * Each call of the function (each subscription) keeps its own retry count
+     */
+    public Func1<Observable<? extends Throwable>, Observable<?>> retryWhenFunc() {
+        return new Func1<Observable<? extends Throwable>, Observable<?>>() {
+            @Override
+            public Observable<?> call(Observable<? extends Throwable> errors) {
+                // concatMap, so one retry is scheduled after the other
+                return errors.concatMap(new Func1<Throwable, Observable<?>>() {
+                    int attempt = 0;
+
+                    @Override
+                    public Observable<?> call(final Throwable throwable) {
+                        if (!isRetryable(throwable))
+                            return Observable.error(throwable);
+
+                        return waitForRetry(attempt)
+                                .flatMap(new Func1<Resume, Observable<?>>() {
+                                    @Override
+                                    public Observable<?> call(Resume resume) {
+                                        if (resume == Resume.GAVE_UP)
+                                            return Observable.error(throwable);
+
+                                        // Failures while offline say nothing about the server, start over
+                                        attempt = resume == Resume.RECONNECTED ? 0 : attempt + 1;
+                                        return Observable.just(resume);
+                                    }
+                                });
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Waits until the given attempt may be retried
+     *
+     * @return Observable that emits once, telling why the wait is over
+     */
+    Observable<Resume> waitForRetry(final int attempt) {
+        return connectivity.observeConnected()
+                .distinctUntilChanged()
+                .switchMap(new Func1<Boolean, Observable<Resume>>() {
+                    boolean wasOffline = false;
+
+                    @Override
+                    public Observable<Resume> call(Boolean connected) {
+                        // Pause until connectivity comes back (switchMap cancels any pending delay)
+                        if (!connected) {
+                            wasOffline = true;
+                            return Observable.never();
+                        }
+                        if (wasOffline)
+                            return Observable.just(Resume.RECONNECTED);
+                        if (attempt >= maxRetries)
+                            return Observable.just(Resume.GAVE_UP);
+
+                        return Observable.timer(delayMillis(attempt), TimeUnit.MILLISECONDS, scheduler)
+                                .map(new Func1<Long, Resume>() {
+                                    @Override
+                                    public Resume call(Long tick) {
+                                        return Resume.BACKED_OFF;
+                                    }
+                                });
+                    }
+                })
+                .take(1)
+                // Nothing to wait on if the connectivity source is gone
+                .defaultIfEmpty(Resume.GAVE_UP);
+    }
+
+    /**
+     * @return A random delay between 0 and the capped exponential bound for the given attempt
+     */
+    long delayMillis(int attempt) {
+        // Doubling in a loop rather than shifting, so large attempts can't overflow
+        long bound = baseDelayMillis;
+        for (int i = 0; i < attempt && bound < maxDelayMillis; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, maxDelayMillis);
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * (bound + 1));
+        }
+    }
+
+    /**
+     * Why a wait for retry ended
+     */
+    enum Resume {
+        // The backoff delay passed
+        BACKED_OFF,
+        // We were offline, and now we're not
+        RECONNECTED,
+        // Out of retries
+        GAVE_UP
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        return throwable instanceof IOException;
+    }
+}
@@ -0,0 +1,261 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.RecipeTag;
+import co.bstorm.aleksa.recipes.pojo.Tag;
+import co.bstorm.aleksa.recipes.pojo.TagCategory;
+import io.realm.Realm;
+import io.realm.RealmList;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Created by aleksa on 8/26/16.
+ *
+ * Writes the catalog snapshot bundled with the app (see seed.gradle) on the first run,
+ * so the list isn't empty while we wait for the network
+ *
+ * The snapshot is a plain binary dump of tag categories, components and recipe summaries, read
+ * with a DataInputStream (no JSON parsing). It's read completely before anything is written, and
+ * then written through the writer thread in a single transaction, so a crash can't leave half a
+ * seed behind (which the next launch would take for a filled catalog). Nothing is ever deleted, so user data like the shopping list stays. The seed only has the
+ * first recipes, so it doesn't set the delta sync watermark (recipes older than the newest in it
+ * would never come through), and the sync times aren't set either. The catalog is then filled
+ * in full on startup, which sets the watermark, and delta syncs bring it up to date from there
+ */
+public class SeedCatalog {
+
+    private static final String TAG = "SeedCatalog";
+
+    public static final String ASSET = "seed/catalog.bin";
+
+    // Have to match seed.gradle
+    static final int MAGIC = 0x52534544;
+    static final int VERSION = 1;
+
+    /**
+     * The contents of a seed, not yet in Realm
+     */
+    public static class Seed {
+
+        private final List<TagCategory> categories = new ArrayList<>();
+        private final List<Component> components = new ArrayList<>();
+        private final List<Recipe> recipes = new ArrayList<>();
+
+        public List<TagCategory> getCategories() {
+            return categories;
+        }
+
+        public List<Component> getComponents() {
+            return components;
+        }
+
+        public List<Recipe> getRecipes() {
+            return recipes;
+        }
+    }
+
+    /**
+     * Installs the seed on a background thread, so the first frame doesn't wait on reading it or on
+     * the writer thread (which can be busy with other ingests). The cached list picks the recipes up
+     * through its change listener once they're committed
+     *
+     * @param context A context used to open the asset
+     * @param listener Told how many recipes were written, on the main thread (can be null)
+     * @return Subscription that can be used to stop waiting for it (the write itself still goes through)
+     */
+    public static Subscription installAsync(final Context context, final Action1<Integer> listener) {
+        return Observable.fromCallable(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return install(context);
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Subscriber<Integer>() {
+                    @Override
+                    public void onCompleted() {
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        // Nothing was written, the startup fetches fill the catalog instead
+                        Log.e(TAG, "Couldn't install the seed catalog", e);
+                    }
+
+                    @Override
+                    public void onNext(Integer seeded) {
+                        if (listener != null)
+                            listener.call(seeded);
+                    }
+                });
+    }
+
+    /**
+     * Writes the bundled seed in one transaction, if there are no recipes yet and the app was built with one
+     * Blocks until it's committed, so it shouldn't be called on the main thread
+     *
+     * @param context A context used to open the asset
+     * @return Number of recipes written
+     */
+    public static int install(Context context) {
+        // A quick check first, so the asset isn't read on every launch
+        Realm realm = RealmSessions.get().acquire();
+        try {
+            if (realm.where(Recipe.class).count() > 0)
+                return 0;
+        } finally {
+            RealmSessions.get().release();
+        }
+
+        Seed seed;
+        try {
+            InputStream in = context.getAssets().open(ASSET);
+            try {
+                seed = read(in);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Built without a seed (the server wasn't reachable), we'll fetch everything
+            return 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read the seed catalog", e);
+            return 0;
+        }
+
+        prepare(seed);
+        final Seed prepared = seed;
+
+        int size = prepared.categories.size() + prepared.components.size() + prepared.recipes.size();
+        return RealmWriter.get().write(size, new WriteQueue.Write<Realm>() {
+            @Override
+            public int write(Realm realm) {
+                // Checked again in the transaction, a fetch that got there first has newer recipes than the seed
+                if (realm.where(Recipe.class).count() > 0)
+                    return 0;
+
+                realm.copyToRealmOrUpdate(prepared.categories);
+                ComponentLinks.backFill(realm, realm.copyToRealmOrUpdate(prepared.components));
+                ComponentLinks.link(realm, prepared.recipes);
+                realm.copyToRealmOrUpdate(prepared.recipes);
+                TagIndex.update(realm, prepared.recipes);
+                return prepared.recipes.size();
+            }
+        });
+    }
+
+    /**
+     * Initializes the fields that don't come from the server, like a fetch would
+     */
+    static void prepare(Seed seed) {
+        for (TagCategory category : seed.categories) {
+            category.setContentHash(category.computeContentHash());
+        }
+        for (Component component : seed.components) {
+            component.setContentHash(component.computeContentHash());
+            component.encodeQuantityType();
+        }
+        for (Recipe recipe : seed.recipes) {
+            recipe.setContentHash(recipe.computeContentHash());
+            recipe.setDetailLoaded(false);
+        }
+        FetchData.prepareRecipes(seed.recipes);
+    }
+
+    /**
+     * Reads a whole seed
+     *
+     * @throws IOException If the stream isn't a seed of this version, or ends early
+     */
+    public static Seed read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a seed catalog");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported seed catalog version " + version);
+
+        Seed seed = new Seed();
+
+        int categoryCount = in.readInt();
+        for (int i = 0; i < categoryCount; i++) {
+            TagCategory category = new TagCategory();
+            category.setId(in.readInt());
+            category.setName(readString(in));
+            category.setEnName(readString(in));
+            category.setCountryId(in.readInt());
+
+            int tagCount = in.readInt();
+            RealmList<Tag> tags = new RealmList<>();
+            for (int j = 0; j < tagCount; j++) {
+                Tag tag = new Tag();
+                tag.setId(in.readInt());
+                tag.setName(readString(in));
+                tag.setTagCategoryId(in.readInt());
+                tags.add(tag);
+            }
+            category.setTags(tags);
+
+            seed.categories.add(category);
+        }
+
+        int componentCount = in.readInt();
+        for (int i = 0; i < componentCount; i++) {
+            Component component = new Component();
+            component.setId(in.readInt());
+            component.setName(readString(in));
+            component.setQuantityType(readString(in));
+            seed.components.add(component);
+        }
+
+        int recipeCount = in.readInt();
+        for (int i = 0; i < recipeCount; i++) {
+            Recipe recipe = new Recipe();
+            recipe.setId(in.readInt());
+            recipe.setTitle(readString(in));
+            recipe.setImageUrl(readString(in));
+            recipe.setDifficulty(in.readInt());
+            recipe.setDefaultServingSize(in.readInt());
+            recipe.setPreparationTime(in.readInt());
+            recipe.setLikes(in.readInt());
+            recipe.setUpdatedAt(readString(in));
+
+            int tagCount = in.readInt();
+            RealmList<RecipeTag> tags = new RealmList<>();
+            for (int j = 0; j < tagCount; j++) {
+                RecipeTag tag = new RecipeTag();
+                tag.setId(in.readInt());
+                tags.add(tag);
+            }
+            recipe.setTags(tags);
+
+            seed.recipes.add(recipe);
+        }
+
+        return seed;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,244 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by aleksa on 9/2/16.
+ *
+ * Hands out one database instance per thread, reference counted, so code that needs the database
+ * takes the thread's instance instead of opening and closing one of its own
+ *
+ * Workers acquire a session around what they do, and the instance is closed when the last one is
+ * released. Threads that keep their instance (the UI thread, where it's refreshed by its looper)
+ * open it once and never close it, so hot paths like list binds only pay for a thread local lookup.
+ *
+ * In debug builds every acquire remembers where it came from, and sessions left open are reported:
+ * ones whose thread died (leaked, they can't be closed anymore) and ones held for too long
+ * (probably a release that was forgotten)
+ */
+public class SessionManager<D> {
+
+    /**
+     * Opens and closes the instances, only ever called on the thread the instance is for
+     */
+    public interface Database<D> {
+
+        D open();
+
+        void close(D db);
+
+        /**
+         * @return Whether the calling thread keeps its instance open after its last release
+         */
+        boolean keepsOpen();
+    }
+
+    /**
+     * Hears about the sessions left open, in debug builds
+     */
+    public interface LeakReporter {
+
+        /**
+         * @param thread Name of the thread the session is on
+         * @param references Number of acquires that weren't released
+         * @param acquiredAt Where the oldest of them was acquired, null if the thread didn't acquire any
+         * @param threadDied Whether the thread is gone (the instance is leaked), or just held it for too long
+         */
+        void report(String thread, int references, Throwable acquiredAt, boolean threadDied);
+    }
+
+    private final Database<D> database;
+    private final boolean debug;
+    private final long maxHoldMillis;
+    private final LeakReporter reporter;
+
+    private final ThreadLocal<Session<D>> sessions = new ThreadLocal<>();
+    // Only filled in debug builds, the leak checks go through it
+    private final Map<Thread, Session<D>> tracked = new HashMap<>();
+
+    private long openedCount = 0;
+    private long closedCount = 0;
+
+    /**
+     * @param database Opens and closes the instances
+     * @param debug Whether to track where sessions are acquired and report the ones left open
+     * @param maxHoldMillis How long a worker can hold a session before it's reported
+     * @param reporter Hears about the sessions left open
+     */
+    public SessionManager(Database<D> database, boolean debug, long maxHoldMillis, LeakReporter reporter) {
+        this.database = database;
+        this.debug = debug;
+        this.maxHoldMillis = maxHoldMillis;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Takes a reference to the thread's instance, opening it if there's none
+     * Has to be paired with a release on the same thread (in a finally block)
+     */
+    public D acquire() {
+        Session<D> session = sessions.get();
+        if (session == null)
+            session = open();
+
+        session.references++;
+        if (debug)
+            session.acquired.add(new Acquire(new Throwable("Acquired on " + session.thread.getName())));
+        return session.db;
+    }
+
+    /**
+     * Gives back a reference taken with acquire, closing the instance if it was the last one
+     * (unless the thread keeps it)
+     *
+     * @throws IllegalStateException If the thread has nothing to release
+     */
+    public void release() {
+        Session<D> session = sessions.get();
+        if (session == null || session.references == 0)
+            throw new IllegalStateException("Nothing acquired on " + Thread.currentThread().getName());
+
+        session.references--;
+        if (debug)
+            session.acquired.remove(session.acquired.size() - 1);
+
+        if (session.references == 0 && !session.keepOpen)
+            close(session);
+    }
+
+    /**
+     * The thread's instance, for code that's called within a session (or on a thread that keeps its instance)
+     * No reference is taken, so there's nothing to release
+     *
+     * @throws IllegalStateException If the thread has no session, and doesn't keep an instance
+     */
+    public D current() {
+        Session<D> session = sessions.get();
+        if (session != null)
+            return session.db;
+
+        if (!database.keepsOpen())
+            throw new IllegalStateException("No session on " + Thread.currentThread().getName() + ", acquire one first");
+        return open().db;
+    }
+
+    /**
+     * @return Number of references the calling thread holds
+     */
+    public int getReferences() {
+        Session<D> session = sessions.get();
+        return session == null ? 0 : session.references;
+    }
+
+    /**
+     * @return Number of instances opened so far, a few per worker thread is what we're after (not one per call)
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    public synchronized long getClosedCount() {
+        return closedCount;
+    }
+
+    /**
+     * Reports the sessions whose thread died with it open, and the ones held longer than maxHold
+     * Does nothing outside debug builds, since we don't track the sessions there
+     *
+     * @return Number of sessions reported
+     */
+    public int reportLeaks() {
+        if (!debug)
+            return 0;
+
+        List<Session<D>> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<>(tracked.values());
+        }
+
+        int reported = 0;
+        long now = System.currentTimeMillis();
+        for (Session<D> session : sessions) {
+            Acquire oldest = session.oldest();
+
+            if (!session.thread.isAlive()) {
+                // Can't be closed from here, instances belong to their thread
+                synchronized (this) {
+                    tracked.remove(session.thread);
+                }
+                reporter.report(session.thread.getName(), session.references,
+                        oldest == null ? null : oldest.site, true);
+                reported++;
+            }
+            else if (!session.keepOpen && oldest != null && now - oldest.at > maxHoldMillis) {
+                reporter.report(session.thread.getName(), session.references, oldest.site, false);
+                reported++;
+            }
+        }
+        return reported;
+    }
+
+    private Session<D> open() {
+        Session<D> session = new Session<>(database.open(), Thread.currentThread(), database.keepsOpen());
+        sessions.set(session);
+
+        synchronized (this) {
+            openedCount++;
+            if (debug)
+                tracked.put(session.thread, session);
+        }
+
+        // New threads are when old ones tend to be gone, a good time to look for what they left behind
+        if (debug)
+            reportLeaks();
+        return session;
+    }
+
+    private void close(Session<D> session) {
+        sessions.remove();
+        database.close(session.db);
+
+        synchronized (this) {
+            closedCount++;
+            if (debug)
+                tracked.remove(session.thread);
+        }
+    }
+
+    private static class Session<D> {
+
+        final D db;
+        final Thread thread;
+        final boolean keepOpen;
+
+        // Only changed on the session's thread, read by the leak checks
+        volatile int references = 0;
+        final List<Acquire> acquired = Collections.synchronizedList(new ArrayList<Acquire>());
+
+        Session(D db, Thread thread, boolean keepOpen) {
+            this.db = db;
+            this.thread = thread;
+            this.keepOpen = keepOpen;
+        }
+
+        Acquire oldest() {
+            synchronized (acquired) {
+                return acquired.isEmpty() ? null : acquired.get(0);
+            }
+        }
+    }
+
+    private static class Acquire {
+
+        final Throwable site;
+        final long at = System.currentTimeMillis();
+
+        Acquire(Throwable site) {
+            this.site = site;
+        }
+    }
+}
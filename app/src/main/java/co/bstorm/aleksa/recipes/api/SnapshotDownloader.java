@@ -0,0 +1,206 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Created by aleksa on 8/27/16.
+ *
+ * Downloads the catalog snapshot to a file, resuming from the last byte we have whenever the connection drops
+ *
+ * Resuming asks for the rest with a Range header, and an If-Range with the validator (ETag or
+ * Last-Modified) of what we have, so if the snapshot changed in the meantime the server sends
+ * the whole new one and we start over. The validator is kept next to the file, so a download
+ * interrupted in an earlier session resumes too
+ */
+public class SnapshotDownloader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OkHttpClient client;
+    private final String url;
+    private final File validatorFile;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    private volatile int requestCount = 0;
+
+    /**
+     * @param client Used for the requests (shouldn't cache, the snapshot is too big for that)
+     * @param url URL of the snapshot
+     * @param validatorFile Where the validator of what we have is kept
+     * @param maxAttempts Number of consecutive attempts that make no progress before we give up
+     * @param retryDelayMillis Delay before the first retry, grows with every attempt that makes no progress
+     */
+    public SnapshotDownloader(OkHttpClient client, String url, File validatorFile,
+                              int maxAttempts, long retryDelayMillis) {
+        this.client = client;
+        this.url = url;
+        this.validatorFile = validatorFile;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Downloads the rest of the snapshot into the file, blocking until it's done
+     * Marks the file complete, or failed if we gave up
+     */
+    public void download(SnapshotFile file) {
+        try {
+            int failures = 0;
+            while (true) {
+                long before = file.getAvailable();
+                try {
+                    attempt(file);
+                    file.complete();
+                    return;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Only attempts that got us nowhere count
+                    if (file.getAvailable() > before)
+                        failures = 0;
+                    if (++failures >= maxAttempts)
+                        throw e;
+                    sleep(retryDelayMillis * failures);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            file.fail(e);
+        }
+    }
+
+    private void attempt(SnapshotFile file) throws IOException {
+        long from = file.getAvailable();
+        String validator = from > 0 ? readValidator() : null;
+        if (from > 0 && validator == null) {
+            // No way to tell whether what we have is still part of the same snapshot
+            file.restart();
+            from = 0;
+        }
+
+        // Always the plain bytes, so the offsets (and the validator) mean the same thing in every request
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("Accept-Encoding", "identity");
+        if (from > 0) {
+            request.header("Range", "bytes=" + from + "-");
+            request.header("If-Range", validator);
+        }
+
+        requestCount++;
+        Response response = client.newCall(request.build()).execute();
+        try {
+            // We already have all of it
+            if (response.code() == 416 && from > 0)
+                return;
+            if (!response.isSuccessful())
+                throw new IOException("Unexpected snapshot response " + response.code());
+
+            if (from > 0 && response.code() != 206) {
+                // The server sent the whole snapshot (it changed, or doesn't do ranges)
+                file.restart();
+                from = 0;
+            }
+            else if (response.code() == 206 && rangeStart(response) != from) {
+                throw new IOException("Unexpected range " + response.header("Content-Range"));
+            }
+
+            if (from == 0)
+                writeValidator(response);
+
+            copy(response.body().byteStream(), file, from);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    private static void copy(InputStream in, SnapshotFile file, long position) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            file.awaitRoom();
+
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+            while (bytes.hasRemaining()) {
+                position += file.getChannel().write(bytes, position);
+            }
+            file.appended(count);
+        }
+    }
+
+    private static long rangeStart(Response response) {
+        // Content-Range: bytes <start>-<end>/<length>
+        String range = response.header("Content-Range");
+        if (range == null || !range.startsWith("bytes "))
+            return -1;
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private String readValidator() throws IOException {
+        if (!validatorFile.exists())
+            return null;
+        InputStream in = new FileInputStream(validatorFile);
+        try {
+            byte[] bytes = new byte[(int) validatorFile.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0)
+                    break;
+                read += count;
+            }
+            return new String(bytes, 0, read, UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeValidator(Response response) throws IOException {
+        String validator = response.header("ETag");
+        if (validator == null)
+            validator = response.header("Last-Modified");
+
+        if (validator == null) {
+            validatorFile.delete();
+            return;
+        }
+        OutputStream out = new FileOutputStream(validatorFile);
+        try {
+            out.write(validator.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * @return Number of requests made, resumes included
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+}
@@ -0,0 +1,167 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by aleksa on 8/27/16.
+ *
+ * The file a catalog snapshot is downloaded to, shared by the download and the parse running at the same time
+ *
+ * The download appends and the parse reads what's been appended so far. The download never gets
+ * more than maxLead bytes ahead of the parse, so the part of the file that's waiting to be parsed
+ * (and mapped) stays bounded. If the download has to start over (the snapshot changed on the
+ * server) the generation changes, and the parse starts over too
+ */
+public class SnapshotFile {
+
+    /**
+     * Thrown to the parse when the download started over
+     */
+    public static class RestartedException extends IOException {
+        public RestartedException() {
+            super("Snapshot download started over");
+        }
+    }
+
+    private final FileChannel channel;
+    private final long maxLead;
+
+    private long available;
+    private long consumed;
+    private int generation;
+    private boolean complete;
+    private boolean cancelled;
+    private Throwable error;
+
+    /**
+     * @param channel Channel of the file, opened for reading and writing
+     * @param available Bytes already in the file (from an earlier, interrupted download)
+     * @param maxLead Maximum number of bytes the download gets ahead of the parse
+     */
+    public SnapshotFile(FileChannel channel, long available, long maxLead) {
+        this.channel = channel;
+        this.available = available;
+        this.maxLead = maxLead;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public synchronized long getAvailable() {
+        return available;
+    }
+
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Blocks the download while it's too far ahead of the parse
+     */
+    public synchronized void awaitRoom() throws InterruptedIOException {
+        try {
+            while (!cancelled && available - consumed >= maxLead) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the parse");
+        }
+        if (cancelled)
+            throw new InterruptedIOException("Cancelled");
+    }
+
+    /**
+     * Called by the download once the bytes are written to the channel
+     */
+    public synchronized void appended(long bytes) {
+        available += bytes;
+        notifyAll();
+    }
+
+    /**
+     * Drops everything downloaded so far, the parse starts over
+     */
+    public synchronized void restart() throws IOException {
+        channel.truncate(0);
+        available = 0;
+        consumed = 0;
+        generation++;
+        notifyAll();
+    }
+
+    public synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    public synchronized void fail(Throwable throwable) {
+        error = throwable;
+        notifyAll();
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * @return The number of bytes available, or -1 if the download completed and there's nothing past the position
+     */
+    private long awaitAvailable(long position, int generation) throws IOException {
+        try {
+            while (true) {
+                if (this.generation != generation)
+                    throw new RestartedException();
+                if (available > position)
+                    return available;
+                if (error != null)
+                    throw new IOException("Snapshot download failed", error);
+                if (complete)
+                    return -1;
+                if (cancelled)
+                    throw new InterruptedIOException("Cancelled");
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the download");
+        }
+    }
+
+    /**
+     * Maps the next window past the position, blocking the parse until there's something there
+     *
+     * @return The window, or null if the download completed and there's nothing past the position
+     * @throws RestartedException If the download started over since the given generation
+     */
+    public synchronized MappedByteBuffer mapNext(long position, int generation, long windowSize) throws IOException {
+        long available = awaitAvailable(position, generation);
+        if (available < 0)
+            return null;
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(available - position, windowSize));
+    }
+
+    /**
+     * Copies from a window mapped in the given generation, which moves the parse forward and makes room for the download
+     *
+     * Done under the same lock as restart, since reading a window after its part of the file is truncated away
+     * crashes instead of throwing
+     *
+     * @return Number of bytes copied
+     * @throws RestartedException If the download started over since the given generation
+     */
+    public synchronized int copy(MappedByteBuffer window, int generation, byte[] bytes, int offset, int length)
+            throws RestartedException {
+        if (this.generation != generation)
+            throw new RestartedException();
+
+        int count = Math.min(length, window.remaining());
+        window.get(bytes, offset, count);
+        consumed += count;
+        notifyAll();
+        return count;
+    }
+}
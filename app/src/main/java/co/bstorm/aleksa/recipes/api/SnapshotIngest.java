@@ -0,0 +1,162 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.ResponseBody;
+import okio.Okio;
+import rx.functions.Action1;
+
+/**
+ * Created by aleksa on 8/27/16.
+ *
+ * Ingests the whole catalog snapshot for a full resync: downloaded to a file (resumably), and
+ * parsed from memory-mapped windows of that file into batches, at the same time
+ *
+ * The download runs on its own thread and the parse on the calling thread. The download stays at
+ * most maxLead bytes ahead of the parse, and each batch is written before the next one is parsed,
+ * so neither the file mapping nor the parsed recipes pile up. Once everything is written the file
+ * is deleted, if anything fails it stays so the next run resumes it
+ */
+public class SnapshotIngest {
+
+    /**
+     * Writes a batch of parsed recipes, called on the parsing thread
+     */
+    public interface BatchSink {
+        void write(List<Recipe> batch);
+    }
+
+    private final SnapshotDownloader downloader;
+    private final File file;
+    private final File validatorFile;
+    private final BatchSink sink;
+    private final StreamingIngest.ProgressListener progress;
+    private final int batchSize;
+    private final long maxLead;
+    private final long windowSize;
+
+    private SnapshotFile snapshot = null;
+    private boolean cancelled = false;
+
+    /**
+     * @param downloader Downloads the snapshot, should keep its validator in validatorFile
+     * @param file Where the snapshot is downloaded to
+     * @param validatorFile Where the downloader keeps the validator, deleted together with the file
+     * @param sink Writes the parsed recipes
+     * @param progress Notified on the parsing thread once a batch is written (can be null)
+     * @param batchSize Number of recipes per batch
+     * @param maxLead Maximum number of bytes the download gets ahead of the parse
+     * @param windowSize Maximum number of bytes mapped at once
+     */
+    public SnapshotIngest(SnapshotDownloader downloader, File file, File validatorFile, BatchSink sink,
+                          StreamingIngest.ProgressListener progress, int batchSize, long maxLead, long windowSize) {
+        this.downloader = downloader;
+        this.file = file;
+        this.validatorFile = validatorFile;
+        this.sink = sink;
+        this.progress = progress;
+        this.batchSize = batchSize;
+        this.maxLead = maxLead;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Downloads and ingests the snapshot, blocking until it's done
+     *
+     * @return Number of recipes ingested
+     * @throws IOException If the download gave up, the snapshot couldn't be parsed, or we were cancelled
+     */
+    public int run() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        int ingested;
+        try {
+            final SnapshotFile snapshot = new SnapshotFile(randomAccessFile.getChannel(),
+                    randomAccessFile.length(), maxLead);
+            synchronized (this) {
+                if (cancelled)
+                    snapshot.cancel();
+                this.snapshot = snapshot;
+            }
+
+            Thread download = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    downloader.download(snapshot);
+                }
+            }, "snapshot-download");
+            download.start();
+
+            try {
+                ingested = parse(snapshot);
+            } finally {
+                // Lets the download go if the parse failed
+                snapshot.cancel();
+                join(download);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        file.delete();
+        validatorFile.delete();
+        return ingested;
+    }
+
+    /**
+     * Stops the download and the parse, run then throws
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (snapshot != null)
+            snapshot.cancel();
+    }
+
+    private int parse(SnapshotFile snapshot) throws IOException {
+        final int[] ingested = new int[1];
+
+        while (true) {
+            MappedSnapshotStream stream = new MappedSnapshotStream(snapshot, snapshot.getGeneration(), windowSize);
+            ResponseBody body = ResponseBody.create(null, -1, Okio.buffer(Okio.source(stream)));
+            try {
+                StreamingIngest.parseRecipes(body)
+                        .buffer(batchSize)
+                        .toBlocking()
+                        .forEach(new Action1<List<Recipe>>() {
+                            @Override
+                            public void call(List<Recipe> batch) {
+                                sink.write(batch);
+                                ingested[0] += batch.size();
+                                if (progress != null)
+                                    progress.onProgress(ingested[0]);
+                            }
+                        });
+                return ingested[0];
+            } catch (RuntimeException e) {
+                // Blocking Rx calls wrap checked exceptions
+                Throwable cause = e.getClass().equals(RuntimeException.class) && e.getCause() != null
+                        ? e.getCause() : e;
+
+                // The snapshot changed on the server, what we wrote so far is simply updated (progress starts over too)
+                if (cause instanceof SnapshotFile.RestartedException) {
+                    ingested[0] = 0;
+                    continue;
+                }
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw e;
+            }
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package co.bstorm.aleksa.recipes.api;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.RecipeTypeAdapter;
+import okhttp3.ResponseBody;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Created by aleksa on 8/14/16.
+ *
+ * Parses large recipe responses one recipe at a time, straight from the response body
+ *
+ * Only a single Recipe is held in memory by the parser at any time, so the memory used
+ * doesn't depend on the size of the catalog (as long as the subscriber doesn't hold on to them)
+ */
+public class StreamingIngest {
+
+    // The envelope member that holds the recipes array
+    private static final String RECIPES_MEMBER = "recipes";
+
+    /**
+     * Receives the number of recipes ingested so far
+     */
+    public interface ProgressListener {
+        void onProgress(int ingested);
+    }
+
+    /**
+     * Creates an observable that emits recipes as they are parsed from the given body
+     * The body is always closed once we're done with it (or the subscriber unsubscribes)
+     *
+     * Emission happens synchronously on the subscribing thread, so any work done in onNext
+     * (like a Realm write) naturally slows the parser down instead of piling up recipes
+     *
+     * @param body A streamed response body of the {status, recipes: [...]} shape
+     * @return Observable emitting the parsed recipes in order
+     */
+    public static Observable<Recipe> parseRecipes(final ResponseBody body) {
+        return Observable.create(new Observable.OnSubscribe<Recipe>() {
+            @Override
+            public void call(Subscriber<? super Recipe> subscriber) {
+
+                JsonReader reader = new JsonReader(body.charStream());
+                TypeAdapter<Recipe> adapter = new RecipeTypeAdapter(API.getGson());
+
+                try {
+                    reader.beginObject();
+                    while (reader.hasNext() && !subscriber.isUnsubscribed()) {
+                        if (!reader.nextName().equals(RECIPES_MEMBER)) {
+                            reader.skipValue();
+                            continue;
+                        }
+
+                        // A single recipe instead of an array
+                        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            subscriber.onNext(adapter.read(reader));
+                            continue;
+                        }
+
+                        reader.beginArray();
+                        while (reader.hasNext() && !subscriber.isUnsubscribed()) {
+                            subscriber.onNext(adapter.read(reader));
+                        }
+                        // No point in reading the rest if nobody is listening anymore
+                        if (subscriber.isUnsubscribed())
+                            return;
+                        reader.endArray();
+                    }
+
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onCompleted();
+                } catch (IOException | RuntimeException e) {
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onError(e);
+                } finally {
+                    body.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,470 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Created by aleksa on 8/29/16.
+ *
+ * Runs fetches through four stages (fetch, parse, transform, write), each on its own fixed-size
+ * executor, handing each response over to the next stage through a bounded queue
+ *
+ * When a hand-off queue is full the stage before it waits until there's room, so a slow write
+ * holds up the transform, which holds up the parse, which holds up the network, instead of
+ * parsed pages piling up in memory. Only the fetch stage has an unbounded queue, since all that
+ * waits there are requests that haven't gone out yet
+ *
+ * Every stage keeps its own numbers (throughput, queue occupancy, latency), so the thread counts
+ * and queue sizes can be tuned per device
+ */
+public class SyncPipeline {
+
+    /**
+     * Turns a fetched response into items, called on a parse thread
+     */
+    public interface Parser<S, T> {
+        List<T> parse(S response) throws Exception;
+    }
+
+    /**
+     * Prepares the parsed items for writing (anything that doesn't need Realm), called on a transform thread
+     */
+    public interface Transformer<T> {
+        void transform(List<T> items);
+    }
+
+    /**
+     * Writes the items, called on the write thread
+     *
+     * @return Number of items written
+     */
+    public interface Writer<T> {
+        int write(List<T> items);
+    }
+
+    private final Stage fetchStage;
+    private final Stage parseStage;
+    private final Stage transformStage;
+    private final Stage writeStage;
+
+    /**
+     * @param fetchThreads Number of fetches running at once
+     * @param parseThreads Number of responses parsed at once
+     * @param transformThreads Number of responses transformed at once
+     * @param writeThreads Number of responses written at once (Realm only lets one write at a time anyway)
+     * @param handOffCapacity Number of responses waiting for each stage after fetch
+     */
+    public SyncPipeline(int fetchThreads, int parseThreads, int transformThreads, int writeThreads, int handOffCapacity) {
+        if (fetchThreads < 1 || parseThreads < 1 || transformThreads < 1 || writeThreads < 1 || handOffCapacity < 1)
+            throw new IllegalArgumentException("Thread counts and capacity must be positive");
+
+        fetchStage = new Stage("fetch", fetchThreads, 0);
+        parseStage = new Stage("parse", parseThreads, handOffCapacity);
+        transformStage = new Stage("transform", transformThreads, handOffCapacity);
+        writeStage = new Stage("write", writeThreads, handOffCapacity);
+    }
+
+    /**
+     * Creates an observable that runs the fetch through the pipeline when subscribed
+     * It emits the number of items written once they're written (on the write thread), and completes
+     * If the fetch completes empty (nothing changed on the server) it completes without emitting
+     *
+     * @param fetch Observable fetching a single response, subscribed to on a fetch thread
+     * @param parser Parses the response
+     * @param transformer Prepares the items, or null if there's nothing to prepare
+     * @param writer Writes the items
+     */
+    public <S, T> Observable<Integer> process(final Observable<S> fetch, final Parser<S, T> parser,
+                                              final Transformer<T> transformer, final Writer<T> writer) {
+        return Observable.create(new Observable.OnSubscribe<Integer>() {
+            @Override
+            public void call(final Subscriber<? super Integer> subscriber) {
+                final Job<S, T> job = new Job<>(subscriber, fetch, parser, transformer, writer);
+
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        job.cancelled = true;
+                    }
+                }));
+
+                // Never blocks, the fetch queue isn't bounded
+                fetchStage.submit(job, new Step() {
+                    @Override
+                    public Runnable run() throws Exception {
+                        return job.fetch();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return The stages, in order
+     */
+    public List<Stage> getStages() {
+        List<Stage> stages = new ArrayList<>(4);
+        Collections.addAll(stages, fetchStage, parseStage, transformStage, writeStage);
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("SyncPipeline{");
+        for (Stage stage : getStages()) {
+            if (builder.length() > "SyncPipeline{".length())
+                builder.append("; ");
+            builder.append(stage);
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Work done by a stage, its failure goes to the job it's part of
+     */
+    private interface Step {
+        /**
+         * @return Hands the result over to the next stage (kept apart so waiting for room isn't counted as work),
+         * or null if there's nothing to hand over
+         */
+        Runnable run() throws Exception;
+    }
+
+    private static void closeQuietly(Object response) {
+        if (!(response instanceof Closeable))
+            return;
+        try {
+            ((Closeable) response).close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A single response on its way through the stages
+     */
+    private class Job<S, T> {
+
+        private final Subscriber<? super Integer> subscriber;
+        private final Observable<S> fetch;
+        private final Parser<S, T> parser;
+        private final Transformer<T> transformer;
+        private final Writer<T> writer;
+
+        volatile boolean cancelled = false;
+
+        Job(Subscriber<? super Integer> subscriber, Observable<S> fetch, Parser<S, T> parser,
+            Transformer<T> transformer, Writer<T> writer) {
+            this.subscriber = subscriber;
+            this.fetch = fetch;
+            this.parser = parser;
+            this.transformer = transformer;
+            this.writer = writer;
+        }
+
+        Runnable fetch() {
+            if (cancelled)
+                return null;
+
+            final S response = fetch.toBlocking().singleOrDefault(null);
+            if (response == null) {
+                complete();
+                return null;
+            }
+
+            return handOff(parseStage, new Step() {
+                @Override
+                public Runnable run() throws Exception {
+                    return parse(response);
+                }
+            });
+        }
+
+        Runnable parse(S response) throws Exception {
+            if (cancelled) {
+                // Nobody is going to read it, and an open body holds on to its connection
+                closeQuietly(response);
+                return null;
+            }
+
+            final List<T> items = parser.parse(response);
+            return handOff(transformStage, new Step() {
+                @Override
+                public Runnable run() throws Exception {
+                    return transform(items);
+                }
+            });
+        }
+
+        Runnable transform(final List<T> items) {
+            if (cancelled)
+                return null;
+
+            if (transformer != null)
+                transformer.transform(items);
+            return handOff(writeStage, new Step() {
+                @Override
+                public Runnable run() throws Exception {
+                    return write(items);
+                }
+            });
+        }
+
+        Runnable write(List<T> items) {
+            if (cancelled)
+                return null;
+
+            int written = writer.write(items);
+            if (!subscriber.isUnsubscribed())
+                subscriber.onNext(written);
+            complete();
+            return null;
+        }
+
+        Runnable handOff(final Stage next, final Step step) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    next.submit(Job.this, step);
+                }
+            };
+        }
+
+        void complete() {
+            if (!subscriber.isUnsubscribed())
+                subscriber.onCompleted();
+        }
+
+        void fail(Throwable throwable) {
+            // Blocking Rx calls wrap checked exceptions, the retry logic upstream wants the original
+            if (throwable.getClass().equals(RuntimeException.class) && throwable.getCause() != null)
+                throwable = throwable.getCause();
+            if (!subscriber.isUnsubscribed())
+                subscriber.onError(throwable);
+        }
+    }
+
+    /**
+     * A fixed number of threads working off a queue, with the numbers to tune them by
+     */
+    public static class Stage {
+
+        private final String name;
+        private final int capacity;
+        private final ThreadPoolExecutor executor;
+
+        private long processed = 0;
+        private long failed = 0;
+        private long totalBusyNanos = 0;
+        private long maxBusyNanos = 0;
+        private long totalWaitNanos = 0;
+        // Time spent waiting for room in the next stage
+        private long totalBlockedNanos = 0;
+        private int maxQueued = 0;
+        // Span the stage was doing anything in, for the throughput
+        private long firstStartNanos = -1;
+        private long lastEndNanos = -1;
+
+        /**
+         * @param capacity Number of items that can wait for the stage, 0 for no limit
+         */
+        Stage(final String name, int threads, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+
+            BlockingQueue<Runnable> queue = capacity > 0
+                    ? new ArrayBlockingQueue<Runnable>(capacity)
+                    : new LinkedBlockingQueue<Runnable>();
+
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "sync-" + name + "-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    },
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                            // Full, so the stage handing it over waits for room (this is the backpressure)
+                            try {
+                                executor.getQueue().put(runnable);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new RejectedExecutionException("Interrupted while waiting for " + name, e);
+                            }
+                        }
+                    });
+        }
+
+        /**
+         * Hands a step of the job over to this stage, waiting for room if the queue is full
+         * If the step throws, the job fails
+         */
+        void submit(final SyncPipeline.Job<?, ?> job, final Step step) {
+            final long queuedAt = System.nanoTime();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    Runnable handOff = null;
+                    boolean succeeded = false;
+                    try {
+                        handOff = step.run();
+                        succeeded = true;
+                    } catch (Throwable throwable) {
+                        job.fail(throwable);
+                    }
+                    long end = System.nanoTime();
+
+                    try {
+                        if (handOff != null)
+                            handOff.run();
+                    } catch (Throwable throwable) {
+                        job.fail(throwable);
+                    }
+                    finished(queuedAt, start, end, System.nanoTime() - end, succeeded);
+                }
+            });
+            queued(executor.getQueue().size());
+        }
+
+        private synchronized void queued(int size) {
+            maxQueued = Math.max(maxQueued, size);
+        }
+
+        private synchronized void finished(long queuedAt, long start, long end, long blocked, boolean succeeded) {
+            if (succeeded)
+                processed++;
+            else
+                failed++;
+
+            long busy = end - start;
+            totalBusyNanos += busy;
+            maxBusyNanos = Math.max(maxBusyNanos, busy);
+            totalWaitNanos += start - queuedAt;
+            totalBlockedNanos += blocked;
+
+            if (firstStartNanos < 0)
+                firstStartNanos = start;
+            lastEndNanos = end;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreadCount() {
+            return executor.getMaximumPoolSize();
+        }
+
+        /**
+         * @return Number of items the queue holds, 0 if it's not bounded
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return Number of items waiting for the stage right now
+         */
+        public int getQueued() {
+            return executor.getQueue().size();
+        }
+
+        /**
+         * @return Most items that waited for the stage at once
+         */
+        public synchronized int getMaxQueued() {
+            return maxQueued;
+        }
+
+        /**
+         * @return Number of items being worked on right now
+         */
+        public int getActive() {
+            return executor.getActiveCount();
+        }
+
+        public synchronized long getProcessedCount() {
+            return processed;
+        }
+
+        public synchronized long getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * @return Average time an item spent being worked on
+         */
+        public synchronized long getAverageLatencyMillis() {
+            long count = processed + failed;
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalBusyNanos / count);
+        }
+
+        /**
+         * @return Longest time an item spent being worked on
+         */
+        public synchronized long getMaxLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxBusyNanos);
+        }
+
+        /**
+         * @return Average time an item waited in the queue
+         */
+        public synchronized long getAverageWaitMillis() {
+            long count = processed + failed;
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / count);
+        }
+
+        /**
+         * @return Average time an item waited for room in the next stage (high means the next stage is the bottleneck)
+         */
+        public synchronized long getAverageBlockedMillis() {
+            long count = processed + failed;
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalBlockedNanos / count);
+        }
+
+        /**
+         * @return Items processed per second, from the first one started to the last one finished
+         */
+        public synchronized double getThroughput() {
+            if (processed == 0 || lastEndNanos <= firstStartNanos)
+                return 0;
+            return processed * 1e9 / (lastEndNanos - firstStartNanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return name + ": threads=" + getThreadCount()
+                    + ", queued=" + getQueued() + "/" + (capacity > 0 ? String.valueOf(capacity) : "-")
+                    + " (max " + maxQueued + ")"
+                    + ", active=" + getActive()
+                    + ", processed=" + processed
+                    + ", failed=" + failed
+                    + ", latency=" + getAverageLatencyMillis() + "ms (max " + getMaxLatencyMillis() + "ms)"
+                    + ", wait=" + getAverageWaitMillis() + "ms"
+                    + ", blocked=" + getAverageBlockedMillis() + "ms"
+                    + String.format(", throughput=%.1f/s", getThroughput());
+        }
+    }
+}
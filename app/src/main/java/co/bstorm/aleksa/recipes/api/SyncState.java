@@ -0,0 +1,71 @@
+package co.bstorm.aleksa.recipes.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import rx.Observable;
+import rx.functions.Action0;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Remembers when each entity (recipes, components, tags) was last synced, so we only fetch what's stale
+ */
+public class SyncState {
+
+    public static final String RECIPES = "recipes";
+    public static final String COMPONENTS = "components";
+    public static final String TAGS = "tags";
+
+    // How long each entity is considered fresh after a sync
+    private static final Map<String, Long> TTL_MILLIS = new HashMap<>();
+    static {
+        TTL_MILLIS.put(RECIPES, Constants.SyncConstants.RECIPES_TTL_MILLIS);
+        TTL_MILLIS.put(COMPONENTS, Constants.SyncConstants.COMPONENTS_TTL_MILLIS);
+        TTL_MILLIS.put(TAGS, Constants.SyncConstants.TAGS_TTL_MILLIS);
+    }
+
+    /**
+     * @return When the entity was last synced, or 0 if never
+     */
+    public static long getLastSync(Context context, String entity) {
+        return getPreferences(context).getLong(key(entity), 0);
+    }
+
+    public static void record(Context context, String entity) {
+        getPreferences(context).edit().putLong(key(entity), System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * @return Whether the entity wasn't synced within its TTL
+     */
+    public static boolean isStale(Context context, String entity) {
+        long age = System.currentTimeMillis() - getLastSync(context, entity);
+        // Negative if the clock was turned back, we'd rather sync then
+        return age < 0 || age > TTL_MILLIS.get(entity);
+    }
+
+    /**
+     * Records the entity as synced once the given fetch completes
+     */
+    public static <T> Observable<T> recording(final Context context, final String entity, Observable<T> fetch) {
+        return fetch.doOnCompleted(new Action0() {
+            @Override
+            public void call() {
+                record(context, entity);
+            }
+        });
+    }
+
+    private static String key(String entity) {
+        return Constants.LAST_SYNC_SHARED_PREF_KEY_PREFIX + entity;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(Constants.SYNC_SHARED_PREF, Context.MODE_PRIVATE);
+    }
+}
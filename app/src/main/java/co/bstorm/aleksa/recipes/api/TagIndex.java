@@ -0,0 +1,96 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.RecipeTag;
+import co.bstorm.aleksa.recipes.pojo.TaggedRecipe;
+import co.bstorm.aleksa.recipes.util.RealmQueries;
+import io.realm.Realm;
+import io.realm.RealmQuery;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Keeps a TaggedRecipe row for every tag of every stored recipe, so filtering by tags looks the
+ * tags up in an index, instead of following the tags of each recipe (which is what "tags.id" does)
+ *
+ * The rows of a recipe are replaced in the same transaction the recipe is written in
+ */
+public class TagIndex {
+
+    /**
+     * Replaces the rows of the recipes with rows for their current tags, has to be called inside a transaction
+     *
+     * @param realm The Realm the recipes were written to
+     * @param recipes The written recipes
+     * @return Number of rows written
+     */
+    public static int update(Realm realm, List<Recipe> recipes) {
+        if (recipes.isEmpty())
+            return 0;
+
+        Set<Integer> recipeIds = new LinkedHashSet<>();
+        for (Recipe recipe : recipes) {
+            recipeIds.add(recipe.getId());
+        }
+        remove(realm, recipeIds);
+
+        List<TaggedRecipe> rows = rows(recipes);
+        // Or update, in case a recipe lists a tag twice
+        realm.copyToRealmOrUpdate(rows);
+        return rows.size();
+    }
+
+    /**
+     * Removes the rows of the recipes, has to be called inside a transaction
+     */
+    public static void remove(Realm realm, Collection<Integer> recipeIds) {
+        if (recipeIds.isEmpty())
+            return;
+        RealmQueries.whereIn(realm.where(TaggedRecipe.class), DbColumns.TaggedRecipe.RECIPE_ID, recipeIds)
+                .findAll()
+                .deleteAllFromRealm();
+    }
+
+    /**
+     * @return A row for every tag of every recipe, not yet in Realm
+     */
+    public static List<TaggedRecipe> rows(List<Recipe> recipes) {
+        List<TaggedRecipe> rows = new ArrayList<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getTags() == null)
+                continue;
+            for (RecipeTag tag : recipe.getTags()) {
+                rows.add(TaggedRecipe.of(recipe.getId(), tag.getId()));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Narrows the query down to the recipes that have at least one of the tags
+     *
+     * @param realm The Realm to look the tags up in
+     * @param query A query on recipes
+     * @param tagIds Tags to look for, not empty
+     * @return The same query
+     */
+    public static RealmQuery<Recipe> withAnyTag(Realm realm, RealmQuery<Recipe> query, Collection<Integer> tagIds) {
+        Set<Integer> recipeIds = new LinkedHashSet<>();
+        for (TaggedRecipe row :
+                RealmQueries.whereIn(realm.where(TaggedRecipe.class), DbColumns.TaggedRecipe.TAG_ID, tagIds).findAll()) {
+            recipeIds.add(row.getRecipeId());
+        }
+
+        // No recipe has a negative id, so that matches nothing
+        if (recipeIds.isEmpty())
+            return query.equalTo(DbColumns.Recipe.ID, -1);
+        return RealmQueries.whereIn(query, DbColumns.Recipe.ID, recipeIds);
+    }
+}
@@ -0,0 +1,504 @@
+package co.bstorm.aleksa.recipes.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by aleksa on 8/31/16.
+ *
+ * Funnels the writes from everywhere in the app through a single writer thread, so they never
+ * fight over the database's write lock
+ *
+ * Writes that come in close together are committed in one transaction (group commit): once the
+ * writer takes a write, it waits up to groupWindow for more, until the group holds maxGroupSize
+ * items. Big payloads are split into chunks of at most chunkSize items, each a write of its own,
+ * so no single transaction runs for long. A group that wrote nothing is cancelled instead of
+ * committed, so nobody's change listeners are woken up for nothing. If a write in a group throws,
+ * the group is cancelled and its writes are redone one transaction each, so only that one fails.
+ * If the database itself fails (opening it, beginning or committing), the group's writes fail with
+ * it and the writer goes on with the next group, so nobody waits on a writer that's gone
+ */
+public class WriteQueue<D> {
+
+    /**
+     * The database the writes go to, only ever used on the writer thread
+     */
+    public interface Database<D> {
+
+        /**
+         * Opens the database for the writer thread, called once
+         */
+        D open();
+
+        void beginTransaction(D db);
+
+        void commitTransaction(D db);
+
+        void cancelTransaction(D db);
+    }
+
+    /**
+     * Hears about the failures nobody waits on (posted writes), the awaited ones are thrown to the caller
+     */
+    public interface FailureReporter {
+        void report(String message, Throwable e);
+    }
+
+    /**
+     * A write, run inside a transaction on the writer thread
+     * It runs again if its group is redone, so running it twice has to give what running it once does
+     * (don't build on what an earlier run changed in the objects it writes)
+     */
+    public interface Write<D> {
+        /**
+         * @return Number of objects written, 0 if nothing was
+         */
+        int write(D db);
+    }
+
+    /**
+     * Writes a chunk of a big payload, run inside a transaction on the writer thread
+     */
+    public interface ChunkWrite<D, T> {
+        /**
+         * @return Number of objects written, 0 if nothing was
+         */
+        int write(D db, List<T> chunk);
+    }
+
+    private final Database<D> database;
+    private final FailureReporter reporter;
+    private final long groupWindowMillis;
+    private final int maxGroupSize;
+    private final int chunkSize;
+
+    private final BlockingQueue<Job<D>> queue = new LinkedBlockingQueue<>();
+    private Thread writer = null;
+
+    // Only touched on the writer thread
+    private D currentDb = null;
+    // The write that didn't fit the last group, it starts the next one
+    private Job<D> carried = null;
+
+    private long transactionCount = 0;
+    private long cancelledCount = 0;
+    private long jobCount = 0;
+    private long failedCount = 0;
+    private long totalTransactionSize = 0;
+    private int maxTransactionSize = 0;
+    private long totalLockWaitNanos = 0;
+    private long maxLockWaitNanos = 0;
+    private long totalTransactionNanos = 0;
+    private long maxTransactionNanos = 0;
+    private long totalQueueWaitNanos = 0;
+
+    /**
+     * @param database The database to write to
+     * @param reporter Hears about the posted writes that failed
+     * @param groupWindowMillis How long the writer waits for more writes to group with the first one
+     * @param maxGroupSize Maximum number of items written in one transaction (a single bigger write still goes)
+     * @param chunkSize Number of items per chunk when splitting big payloads
+     */
+    public WriteQueue(Database<D> database, FailureReporter reporter, long groupWindowMillis, int maxGroupSize,
+                      int chunkSize) {
+        if (groupWindowMillis < 0 || maxGroupSize < 1 || chunkSize < 1)
+            throw new IllegalArgumentException("Window can't be negative, sizes must be positive");
+
+        this.database = database;
+        this.reporter = reporter;
+        this.groupWindowMillis = groupWindowMillis;
+        this.maxGroupSize = maxGroupSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Writes and waits until the write is committed
+     * Called on the writer thread (from inside another write) it just runs in the current transaction
+     *
+     * @param size Number of items the write is about, for grouping
+     * @return Number of objects written
+     * @throws RuntimeException Whatever the write (or the database) threw, Errors are rethrown as they are
+     */
+    public int write(int size, Write<D> write) {
+        if (Thread.currentThread() == writer)
+            return write.write(currentDb);
+
+        Job<D> job = new Job<>(write, size, true);
+        enqueue(job);
+        return job.await();
+    }
+
+    /**
+     * Queues the write and returns right away, for writes nobody waits on (like the UI's)
+     * If it fails, it's only logged
+     */
+    public void post(Write<D> write) {
+        enqueue(new Job<>(write, 1, false));
+    }
+
+    /**
+     * Splits the items into chunks, writes each one as a write of its own, and waits until all of them are committed
+     * The chunks are queued together, so they go out in order (grouped, if they're small enough)
+     *
+     * @return Number of objects written
+     * @throws RuntimeException Whatever the first failing chunk threw (the other chunks are still written)
+     */
+    public <T> int writeChunked(final List<T> items, final ChunkWrite<D, T> write) {
+        if (items.isEmpty())
+            return 0;
+
+        if (Thread.currentThread() == writer)
+            return write.write(currentDb, items);
+
+        List<Job<D>> jobs = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += chunkSize) {
+            final List<T> chunk = items.subList(start, Math.min(items.size(), start + chunkSize));
+            jobs.add(new Job<>(new Write<D>() {
+                @Override
+                public int write(D db) {
+                    return write.write(db, chunk);
+                }
+            }, chunk.size(), true));
+        }
+
+        synchronized (this) {
+            startWriter();
+            queue.addAll(jobs);
+        }
+
+        int written = 0;
+        RuntimeException failure = null;
+        for (Job<D> job : jobs) {
+            try {
+                written += job.await();
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return written;
+    }
+
+    private synchronized void enqueue(Job<D> job) {
+        startWriter();
+        queue.add(job);
+    }
+
+    private void startWriter() {
+        if (writer != null)
+            return;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "realm-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void runWriter() {
+        List<Job<D>> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(next());
+                gather(group);
+            } catch (InterruptedException e) {
+                // Nobody stops the writer, keep going
+                if (group.isEmpty())
+                    continue;
+            }
+
+            // Opened here rather than before the loop, so a database that failed to open is tried again
+            if (currentDb == null) {
+                try {
+                    currentDb = database.open();
+                } catch (Throwable e) {
+                    failAll(group, e);
+                    group.clear();
+                    continue;
+                }
+            }
+
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private Job<D> next() throws InterruptedException {
+        if (carried == null)
+            return queue.take();
+
+        Job<D> job = carried;
+        carried = null;
+        return job;
+    }
+
+    /**
+     * Adds the writes that come in within the window, as long as they fit
+     */
+    private void gather(List<Job<D>> group) throws InterruptedException {
+        int size = group.get(0).size;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(groupWindowMillis);
+
+        while (size < maxGroupSize) {
+            long left = deadline - System.nanoTime();
+            Job<D> next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null)
+                return;
+
+            if (size + next.size > maxGroupSize) {
+                carried = next;
+                return;
+            }
+            group.add(next);
+            size += next.size;
+        }
+    }
+
+    private void commit(List<Job<D>> group) {
+        long beginning = System.nanoTime();
+        try {
+            database.beginTransaction(currentDb);
+        } catch (Throwable e) {
+            // Nothing was written, and nothing can be until the database recovers
+            failAll(group, e);
+            return;
+        }
+        long begun = System.nanoTime();
+
+        int written = 0;
+        int size = 0;
+        try {
+            for (Job<D> job : group) {
+                job.result = job.write.write(currentDb);
+                written += job.result;
+                size += job.size;
+            }
+        } catch (Throwable e) {
+            cancelQuietly();
+            recordCancelled();
+
+            // Redo them one at a time, so only the failing one fails
+            if (group.size() > 1) {
+                for (Job<D> job : group) {
+                    List<Job<D>> single = new ArrayList<>(1);
+                    single.add(job);
+                    commit(single);
+                }
+            }
+            else {
+                failAll(group, e);
+            }
+            return;
+        }
+
+        try {
+            if (written > 0)
+                database.commitTransaction(currentDb);
+            else
+                database.cancelTransaction(currentDb);
+        } catch (Throwable e) {
+            cancelQuietly();
+            failAll(group, e);
+            return;
+        }
+        long end = System.nanoTime();
+
+        record(group, size, written > 0, begun - beginning, end - beginning, beginning);
+        for (Job<D> job : group) {
+            job.done();
+        }
+    }
+
+    // After a failed commit the transaction may or may not still be open, either way it's gone after this
+    private void cancelQuietly() {
+        try {
+            database.cancelTransaction(currentDb);
+        } catch (Throwable ignored) {
+            // Not in a transaction anymore
+        }
+    }
+
+    private void failAll(List<Job<D>> group, Throwable e) {
+        for (Job<D> job : group) {
+            recordFailed();
+            if (!job.fail(e))
+                reporter.report("A posted write failed", e);
+        }
+    }
+
+    private synchronized void record(List<Job<D>> group, int size, boolean committed,
+                                     long lockWait, long duration, long beginning) {
+        if (committed)
+            transactionCount++;
+        else
+            cancelledCount++;
+        jobCount += group.size();
+        totalTransactionSize += size;
+        maxTransactionSize = Math.max(maxTransactionSize, size);
+        totalLockWaitNanos += lockWait;
+        maxLockWaitNanos = Math.max(maxLockWaitNanos, lockWait);
+        totalTransactionNanos += duration;
+        maxTransactionNanos = Math.max(maxTransactionNanos, duration);
+        for (Job<D> job : group) {
+            totalQueueWaitNanos += beginning - job.queuedAt;
+        }
+    }
+
+    private synchronized void recordCancelled() {
+        cancelledCount++;
+    }
+
+    private synchronized void recordFailed() {
+        failedCount++;
+    }
+
+    /**
+     * @return Number of transactions committed
+     */
+    public synchronized long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * @return Number of transactions cancelled (nothing written, or a write failed)
+     */
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return Number of writes done, chunks included
+     */
+    public synchronized long getWriteCount() {
+        return jobCount;
+    }
+
+    /**
+     * @return Number of writes that threw
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return Average number of items per transaction
+     */
+    public synchronized long getAverageTransactionSize() {
+        long transactions = transactionCount + cancelledCount;
+        return transactions == 0 ? 0 : totalTransactionSize / transactions;
+    }
+
+    public synchronized int getMaxTransactionSize() {
+        return maxTransactionSize;
+    }
+
+    /**
+     * @return Average time it took to get the write lock
+     */
+    public synchronized long getAverageLockWaitMillis() {
+        long transactions = transactionCount + cancelledCount;
+        return transactions == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLockWaitNanos / transactions);
+    }
+
+    public synchronized long getMaxLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLockWaitNanos);
+    }
+
+    /**
+     * @return Average time from beginning the transaction to committing it
+     */
+    public synchronized long getAverageTransactionMillis() {
+        long transactions = transactionCount + cancelledCount;
+        return transactions == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalTransactionNanos / transactions);
+    }
+
+    public synchronized long getMaxTransactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTransactionNanos);
+    }
+
+    /**
+     * @return Average time a write waited in the queue
+     */
+    public synchronized long getAverageQueueWaitMillis() {
+        return jobCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueWaitNanos / jobCount);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WriteQueue{transactions=" + transactionCount
+                + ", cancelled=" + cancelledCount
+                + ", writes=" + jobCount
+                + ", failed=" + failedCount
+                + ", queued=" + queue.size()
+                + ", size=" + getAverageTransactionSize() + " (max " + maxTransactionSize + ")"
+                + ", lockWait=" + getAverageLockWaitMillis() + "ms (max " + getMaxLockWaitMillis() + "ms)"
+                + ", duration=" + getAverageTransactionMillis() + "ms (max " + getMaxTransactionMillis() + "ms)"
+                + ", queueWait=" + getAverageQueueWaitMillis() + "ms}";
+    }
+
+    private static class Job<D> {
+
+        final Write<D> write;
+        final int size;
+        final long queuedAt = System.nanoTime();
+        // Null for posted writes, nobody waits on them
+        final CountDownLatch done;
+
+        int result = 0;
+        Throwable failure = null;
+
+        Job(Write<D> write, int size, boolean awaited) {
+            this.write = write;
+            this.size = Math.max(1, size);
+            this.done = awaited ? new CountDownLatch(1) : null;
+        }
+
+        void done() {
+            if (done != null)
+                done.countDown();
+        }
+
+        /**
+         * @return Whether somebody waits to hear about it
+         */
+        boolean fail(Throwable e) {
+            failure = e;
+            result = 0;
+            if (done == null)
+                return false;
+            done.countDown();
+            return true;
+        }
+
+        int await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+            if (failure != null)
+                throw new RuntimeException(failure);
+            return result;
+        }
+    }
+}
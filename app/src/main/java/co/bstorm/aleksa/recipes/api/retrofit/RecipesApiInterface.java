@@ -1,12 +1,14 @@
 package co.bstorm.aleksa.recipes.api.retrofit;
 
-import java.util.ArrayList;
+import java.util.List;
 
-import co.bstorm.aleksa.recipes.pojo.Component;
-import co.bstorm.aleksa.recipes.pojo.Recipe;
-import co.bstorm.aleksa.recipes.pojo.TagCategory;
+import co.bstorm.aleksa.recipes.api.PendingLike;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import okhttp3.ResponseBody;
+import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.Headers;
+import retrofit2.http.POST;
 import retrofit2.http.Query;
 import rx.Observable;
 
@@ -17,23 +19,45 @@ import rx.Observable;
  */
 public interface RecipesApiInterface {
 
-    // Gets a list of all recipes
+    // Gets an offset list of 50 recipes (starting with offset and ending with offset+49 indices), as a raw
+    // body (parsed later, off the network thread)
+    // With fields set to summary, the recipes come without steps and ingredients
     @Headers("Accept-Language: SRB")
-    @GET("recipes/get-init-recipes")
-    Observable<ArrayList<Recipe>> listAllRecipes();
+    @GET("recipes/get-recipes")
+    Observable<ResponseBody> streamOffsetRecipes(@Query("offset") int offset, @Query("fields") String fields);
+
+    // Gets a list of 50 recipes ordered by (updated_at, id), that come after the given pair, as a raw body
+    @Headers("Accept-Language: SRB")
+    @GET("recipes/get-recipes")
+    Observable<ResponseBody> streamRecipesAfter(@Query("after_key") String afterKey,
+                                                @Query("after_id") int afterId,
+                                                @Query("fields") String fields);
 
-    // Gets an offset list of 50 recipes (starting with offset and ending with offset+49 indices)
+    // Gets an offset list of 50 recipes that were updated or deleted since the given time (server's "yyyy-MM-dd HH:mm:ss"),
+    // as a raw body
     @Headers("Accept-Language: SRB")
     @GET("recipes/get-recipes")
-    Observable<ArrayList<Recipe>> listOffsetRecipes(@Query("offset") int offset);
+    Observable<ResponseBody> streamChangedRecipes(@Query("updated_since") String updatedSince,
+                                                  @Query("offset") int offset,
+                                                  @Query("fields") String fields);
 
-    // Gets a list of all components
+    // Gets the full recipes (with steps and ingredients) for the given comma separated ids, as a raw body
+    // (so we know how many bytes they took)
     @Headers("Accept-Language: SRB")
-    @GET("ingredients/get-ingredients")
-    Observable<ArrayList<Component>> listAllComponents();
+    @GET("recipes/get-recipes")
+    Observable<ResponseBody> streamRecipeDetails(@Query("ids") String ids);
+
+    // Gets a list of all components, as a raw body
+    @Headers("Accept-Language: SRB")
+    @GET(Constants.APIConstants.COMPONENTS_PATH)
+    Observable<ResponseBody> streamAllComponents();
 
-    // Gets a list of all tags
+    // Gets a list of all tags, as a raw body
     @Headers("Accept-Language: SRB")
-    @GET("tags/get-tags")
-    Observable<ArrayList<TagCategory>> listAllTags();
+    @GET(Constants.APIConstants.TAGS_PATH)
+    Observable<ResponseBody> streamAllTags();
+
+    // Sets the likes of several recipes at once
+    @POST(Constants.APIConstants.LIKES_PATH)
+    Observable<ResponseBody> postLikes(@Body List<PendingLike> likes);
 }
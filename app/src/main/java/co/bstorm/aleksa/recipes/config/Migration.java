@@ -0,0 +1,212 @@
+package co.bstorm.aleksa.recipes.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.constants.DbColumns;
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.util.Diacritics;
+import co.bstorm.aleksa.recipes.util.MeasureCodes;
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmList;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmMigration;
+import io.realm.RealmSchema;
+
+/**
+ * Created by aleksa on 8/17/16.
+ *
+ * Migrates the Realm schema between versions, so an update doesn't lose the shopping list
+ *
+ * Every schema change bumps SCHEMA_VERSION and adds a step here
+ */
+public class Migration implements RealmMigration {
+
+    public static final long SCHEMA_VERSION = 7;
+
+    @Override
+    public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+
+        RealmSchema schema = realm.getSchema();
+
+        // Recipe got the fields needed for delta sync
+        if (oldVersion == 0) {
+            schema.get("Recipe")
+                    .addField(DbColumns.Recipe.UPDATED_AT, String.class)
+                    .addField(DbColumns.Recipe.DELETED, int.class);
+            oldVersion++;
+        }
+
+        // Hashes used to skip writing unchanged objects
+        if (oldVersion == 1) {
+            schema.get("Recipe").addField(DbColumns.Recipe.CONTENT_HASH, long.class);
+            schema.get("Component").addField(DbColumns.Component.CONTENT_HASH, long.class);
+            schema.get("TagCategory").addField(DbColumns.TagCategory.CONTENT_HASH, long.class);
+            oldVersion++;
+        }
+
+        // Recipes are now stored as summaries until opened, everything stored so far came with details
+        if (oldVersion == 2) {
+            schema.get("Recipe")
+                    .addField(DbColumns.Recipe.DETAIL_LOADED, boolean.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject obj) {
+                            obj.setBoolean(DbColumns.Recipe.DETAIL_LOADED, true);
+                        }
+                    });
+            oldVersion++;
+        }
+
+        // Liking, with the likes waiting to be sent
+        if (oldVersion == 3) {
+            schema.get("Recipe").addField(DbColumns.Recipe.LIKED, boolean.class);
+            schema.create("OutboxLike")
+                    .addField(DbColumns.OutboxLike.RECIPE_ID, int.class, FieldAttribute.PRIMARY_KEY)
+                    .addField(DbColumns.OutboxLike.LIKED, boolean.class)
+                    .addField(DbColumns.OutboxLike.BASELINE, boolean.class)
+                    .addField(DbColumns.OutboxLike.SEQUENCE, long.class);
+            oldVersion++;
+        }
+
+        // Ingredients link straight to their component, and their keys no longer overflow
+        if (oldVersion == 4) {
+            migrateIngredients(realm, schema);
+            oldVersion++;
+        }
+
+        // Measures and quantity types are stored as codes, the strings only if they're not in the table
+        if (oldVersion == 5) {
+            schema.get("Ingredient")
+                    .addField(DbColumns.Ingredient.PREFERRED_MEASURE_CODE, int.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject obj) {
+                            String measure = obj.getString(DbColumns.Ingredient.PREFERRED_MEASURE);
+                            int code = MeasureCodes.measureCode(measure);
+                            obj.setInt(DbColumns.Ingredient.PREFERRED_MEASURE_CODE, code);
+                            if (code != MeasureCodes.OTHER)
+                                obj.setString(DbColumns.Ingredient.PREFERRED_MEASURE, null);
+                        }
+                    });
+            schema.get("Component")
+                    .addField(DbColumns.Component.QUANTITY_TYPE_CODE, int.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject obj) {
+                            String quantityType = obj.getString(DbColumns.Component.QUANTITY_TYPE);
+                            int code = MeasureCodes.quantityTypeCode(quantityType);
+                            obj.setInt(DbColumns.Component.QUANTITY_TYPE_CODE, code);
+                            if (code != MeasureCodes.OTHER)
+                                obj.setString(DbColumns.Component.QUANTITY_TYPE, null);
+                        }
+                    });
+            oldVersion++;
+        }
+
+        // Derived recipe columns and the tag index
+        if (oldVersion == 6) {
+            migrateDerivedColumns(realm, schema);
+            oldVersion++;
+        }
+    }
+
+    private static void migrateDerivedColumns(final DynamicRealm realm, RealmSchema schema) {
+        schema.create("TaggedRecipe")
+                .addField(DbColumns.TaggedRecipe.KEY, long.class, FieldAttribute.PRIMARY_KEY)
+                .addField(DbColumns.TaggedRecipe.RECIPE_ID, int.class, FieldAttribute.INDEXED)
+                .addField(DbColumns.TaggedRecipe.TAG_ID, int.class, FieldAttribute.INDEXED);
+
+        schema.get("Recipe")
+                .addField(DbColumns.Recipe.TITLE_FOLDED, String.class)
+                .addField(DbColumns.Recipe.INGREDIENT_COUNT, int.class)
+                .addField(DbColumns.Recipe.STEP_COUNT, int.class)
+                .addField(DbColumns.Recipe.TIMER_MINUTES, int.class)
+                .transform(new RealmObjectSchema.Function() {
+                    @Override
+                    public void apply(DynamicRealmObject obj) {
+                        int recipeId = obj.getInt(DbColumns.Recipe.ID);
+                        obj.setString(DbColumns.Recipe.TITLE_FOLDED, Diacritics.fold(obj.getString(DbColumns.Recipe.TITLE)));
+
+                        // Summaries have empty lists, which is a zero like the ones ingested from now on
+                        obj.setInt(DbColumns.Recipe.INGREDIENT_COUNT, obj.getList(DbColumns.Recipe.INGREDIENTS).size());
+                        int timerMinutes = 0;
+                        for (DynamicRealmObject step : obj.getList(DbColumns.Recipe.STEPS)) {
+                            timerMinutes += step.getInt(DbColumns.Step.TIMER);
+                        }
+                        obj.setInt(DbColumns.Recipe.STEP_COUNT, obj.getList(DbColumns.Recipe.STEPS).size());
+                        obj.setInt(DbColumns.Recipe.TIMER_MINUTES, timerMinutes);
+
+                        for (DynamicRealmObject tag : obj.getList(DbColumns.Recipe.TAGS)) {
+                            int tagId = tag.getInt(DbColumns.RecipeTag.ID);
+                            long key = Ingredient.uniqueId(recipeId, tagId);
+                            // A tag listed twice
+                            if (realm.where("TaggedRecipe").equalTo(DbColumns.TaggedRecipe.KEY, key).findFirst() != null)
+                                continue;
+                            DynamicRealmObject row = realm.createObject("TaggedRecipe", key);
+                            row.setInt(DbColumns.TaggedRecipe.RECIPE_ID, recipeId);
+                            row.setInt(DbColumns.TaggedRecipe.TAG_ID, tagId);
+                        }
+                    }
+                });
+    }
+
+    private static void migrateIngredients(final DynamicRealm realm, RealmSchema schema) {
+        schema.get("Ingredient")
+                .addRealmObjectField(DbColumns.Ingredient.COMPONENT, schema.get("Component"))
+                .transform(new RealmObjectSchema.Function() {
+                    @Override
+                    public void apply(DynamicRealmObject obj) {
+                        obj.setObject(DbColumns.Ingredient.COMPONENT, realm.where("Component")
+                                .equalTo(DbColumns.Component.ID, obj.getInt(DbColumns.Ingredient.COMPONENT_ID))
+                                .findFirst());
+                    }
+                });
+
+        // Keys that overflowed are moved to their 64-bit key. The old int keys can't reach that far,
+        // so nothing is there yet. Two ingredients could have overflowed into the same row though
+        // (the last one written won), so the recipes are still fetched again to get the lost ones
+        List<DynamicRealmObject> overflowed = new ArrayList<>();
+        for (DynamicRealmObject ingredient : realm.where("Ingredient").findAll()) {
+            long key = Ingredient.uniqueId(ingredient.getInt(DbColumns.Ingredient.RECIPE_ID),
+                    ingredient.getInt(DbColumns.Ingredient.COMPONENT_ID));
+            if (ingredient.getLong(DbColumns.Ingredient.ID) != key)
+                overflowed.add(ingredient);
+        }
+        for (DynamicRealmObject ingredient : overflowed) {
+            int recipeId = ingredient.getInt(DbColumns.Ingredient.RECIPE_ID);
+            int componentId = ingredient.getInt(DbColumns.Ingredient.COMPONENT_ID);
+            long oldKey = ingredient.getLong(DbColumns.Ingredient.ID);
+
+            DynamicRealmObject moved = realm.createObject("Ingredient", Ingredient.uniqueId(recipeId, componentId));
+            moved.setInt(DbColumns.Ingredient.RECIPE_ID, recipeId);
+            moved.setInt(DbColumns.Ingredient.COMPONENT_ID, componentId);
+            moved.setFloat(DbColumns.Ingredient.QUANTITY, ingredient.getFloat(DbColumns.Ingredient.QUANTITY));
+            moved.setString(DbColumns.Ingredient.PREFERRED_MEASURE,
+                    ingredient.getString(DbColumns.Ingredient.PREFERRED_MEASURE));
+            moved.setObject(DbColumns.Ingredient.COMPONENT, ingredient.getObject(DbColumns.Ingredient.COMPONENT));
+
+            // The shopping list keeps its items, pointing at the moved row
+            for (DynamicRealmObject item : realm.where("ShoppingItem")
+                    .equalTo(DbColumns.ShoppingItem.INGREDIENTS + "." + DbColumns.Ingredient.ID, oldKey)
+                    .findAll()) {
+                RealmList<DynamicRealmObject> ingredients = item.getList(DbColumns.ShoppingItem.INGREDIENTS);
+                for (int i = 0; i < ingredients.size(); i++) {
+                    if (ingredients.get(i).getLong(DbColumns.Ingredient.ID) == oldKey)
+                        ingredients.set(i, moved);
+                }
+            }
+
+            // Every recipe that listed the row, a collided one may belong to another recipe than the row says
+            for (DynamicRealmObject recipe : realm.where("Recipe")
+                    .equalTo(DbColumns.Recipe.INGREDIENTS + "." + DbColumns.Ingredient.ID, oldKey)
+                    .findAll()) {
+                recipe.setBoolean(DbColumns.Recipe.DETAIL_LOADED, false);
+                recipe.setLong(DbColumns.Recipe.CONTENT_HASH, 0);
+            }
+            ingredient.deleteFromRealm();
+        }
+    }
+}
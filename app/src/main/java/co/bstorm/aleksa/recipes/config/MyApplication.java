@@ -2,6 +2,7 @@ package co.bstorm.aleksa.recipes.config;
 
 import android.app.Application;
 
+import co.bstorm.aleksa.recipes.api.API;
 import io.realm.Realm;
 import io.realm.RealmConfiguration;
 
@@ -13,8 +14,25 @@ public class MyApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTimeline.begin();
 
-        RealmConfiguration realmConfig = new RealmConfiguration.Builder(this).build();
+        RealmConfiguration realmConfig = new RealmConfiguration.Builder(this)
+                .schemaVersion(Migration.SCHEMA_VERSION)
+                .migration(new Migration())
+                .build();
         Realm.setDefaultConfiguration(realmConfig);
+
+        API.init(this);
+
+        // Gson and Retrofit take a while to build, so that's done off the main thread before the first request
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                API.warmUp();
+                StartupTimeline.get().mark("API initialized");
+            }
+        }, "api-warm-up").start();
+
+        StartupTimeline.get().mark("application created");
     }
 }
@@ -0,0 +1,111 @@
+package co.bstorm.aleksa.recipes.config;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.api.NetworkScheduler.Priority;
+import rx.Subscription;
+import rx.functions.Func0;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Starts the startup fetches in priority order, leaving out the entities that are still fresh
+ *
+ * The activity renders the cached data first and only starts these after its first frame, so
+ * nothing but the cached list is between launching the app and seeing it
+ */
+public class StartupOrchestrator {
+
+    public static final String PHASE_FIRST_FRAME = "first frame";
+
+    /**
+     * Tells whether an entity needs fetching (it wasn't synced within its TTL)
+     */
+    public interface Freshness {
+        boolean isStale(String entity);
+    }
+
+    private static class Fetch {
+
+        final String entity;
+        final Priority priority;
+        final Func0<Subscription> start;
+
+        Fetch(String entity, Priority priority, Func0<Subscription> start) {
+            this.entity = entity;
+            this.priority = priority;
+            this.start = start;
+        }
+    }
+
+    private final Freshness freshness;
+    private final StartupTimeline timeline;
+    private final List<Fetch> fetches = new ArrayList<>();
+
+    public StartupOrchestrator(Freshness freshness, StartupTimeline timeline) {
+        this.freshness = freshness;
+        this.timeline = timeline;
+    }
+
+    /**
+     * @param entity The entity fetched, as known by the freshness check
+     * @param priority Fetches are started from the most urgent, in the order added within the same priority
+     * @param start Starts the fetch
+     */
+    public StartupOrchestrator add(String entity, Priority priority, Func0<Subscription> start) {
+        Fetch fetch = new Fetch(entity, priority, start);
+
+        // Insertion sort keeps the ones with the same priority in order
+        int index = fetches.size();
+        while (index > 0 && fetches.get(index - 1).priority.compareTo(priority) > 0) {
+            index--;
+        }
+        fetches.add(index, fetch);
+        return this;
+    }
+
+    /**
+     * Starts the stale fetches in priority order
+     *
+     * @return Subscriptions of the started fetches
+     */
+    public List<Subscription> start() {
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (Fetch fetch : fetches) {
+            if (!freshness.isStale(fetch.entity)) {
+                timeline.mark(fetch.entity + " fresh, skipped");
+                continue;
+            }
+            subscriptions.add(fetch.start.call());
+            timeline.mark(fetch.entity + " fetch started");
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Runs the given runnable once the view has drawn its first frame
+     */
+    public static void runAfterFirstFrame(final View view, final Runnable runnable) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted, so it runs once the frame that's about to be drawn is done
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTimeline.get().mark(PHASE_FIRST_FRAME);
+                        runnable.run();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+}
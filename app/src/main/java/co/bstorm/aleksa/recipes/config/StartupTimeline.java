@@ -0,0 +1,84 @@
+package co.bstorm.aleksa.recipes.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Records when each startup phase happened, counting from the start of the application
+ * Once startup is over the timeline is frozen, so later phases (of a second activity for example) don't end up in it
+ */
+public class StartupTimeline {
+
+    private static StartupTimeline instance = null;
+
+    private final long startNanos;
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> nanos = new ArrayList<>();
+    private boolean finished = false;
+
+    public StartupTimeline() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts the timeline of this process, should be called as early as possible
+     */
+    public static synchronized void begin() {
+        instance = new StartupTimeline();
+    }
+
+    /**
+     * @return The timeline of this process
+     */
+    public static synchronized StartupTimeline get() {
+        if (instance == null)
+            instance = new StartupTimeline();
+        return instance;
+    }
+
+    public synchronized void mark(String phase) {
+        if (finished)
+            return;
+        phases.add(phase);
+        nanos.add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Freezes the timeline
+     *
+     * @return Whether it was still running (so only the first caller logs it)
+     */
+    public synchronized boolean finish() {
+        if (finished)
+            return false;
+        finished = true;
+        return true;
+    }
+
+    public synchronized List<String> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    /**
+     * @return Milliseconds since the start, at the first time the phase was marked, or -1 if it never was
+     */
+    public synchronized long getMillis(String phase) {
+        int index = phases.indexOf(phase);
+        return index < 0 ? -1 : nanos.get(index) / 1000000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Startup timeline:");
+        long previous = 0;
+        for (int i = 0; i < phases.size(); i++) {
+            long millis = nanos.get(i) / 1000000;
+            builder.append("\n  +").append(millis).append(" ms (+").append(millis - previous).append(") ")
+                    .append(phases.get(i));
+            previous = millis;
+        }
+        return builder.toString();
+    }
+}
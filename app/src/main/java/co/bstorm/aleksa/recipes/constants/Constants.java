@@ -12,6 +12,12 @@ public class Constants {
     public static final String FILTER_SHARED_PREF = "filterSharedPref";
     public static final String TAG_SHARED_PREF_KEY = "tag";
 
+    public static final String SYNC_SHARED_PREF = "syncSharedPref";
+    public static final String WATERMARK_SHARED_PREF_KEY = "recipesWatermark";
+    public static final String CURSOR_KEY_SHARED_PREF_KEY = "recipesCursorKey";
+    public static final String CURSOR_ID_SHARED_PREF_KEY = "recipesCursorId";
+    public static final String LAST_SYNC_SHARED_PREF_KEY_PREFIX = "lastSync_";
+
     public static final HashMap<Integer, String> DIFFICULTIES = new HashMap<>();
     static {
         DIFFICULTIES.put(1, "EASY"); // TODO extract to strings
@@ -23,12 +29,135 @@ public class Constants {
     public static class APIConstants {
 
         public static final String BASE_URL = "http://46.101.236.188/v1/";
+
+        public static final String COMPONENTS_PATH = "ingredients/get-ingredients";
+        public static final String TAGS_PATH = "tags/get-tags";
+        // The whole catalog, with details, used for full resyncs
+        public static final String SNAPSHOT_PATH = "recipes/get-init-recipes";
+        public static final String LIKES_PATH = "recipes/set-likes";
+
+        // Asks for recipes without steps and ingredients, used for everything shown in the list
+        public static final String SUMMARY_FIELDS = "summary";
+
+        // Whether the list pages by (updated_at, id) cursor, offsets are used if this is off (or the server ignores it)
+        public static final boolean KEYSET_PAGINATION = true;
+
+        // How long a completed response is handed out again to identical requests
+        public static final long COALESCE_WINDOW_MILLIS = 2000;
+
+        // Maximum number of requests in flight at once, one of them is always kept for interactive requests
+        public static final int MAX_CONCURRENT_REQUESTS = 4;
+    }
+
+    public static class CacheConstants {
+
+        public static final String HTTP_CACHE_DIR = "http";
+        public static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
+        // How long the reference lists are considered fresh, we don't even revalidate them within this window
+        public static final int COMPONENTS_TTL_SECONDS = 6 * 60 * 60;
+        public static final int TAGS_TTL_SECONDS = 24 * 60 * 60;
+    }
+
+    public static class PrefetchConstants {
+
+        // Number of recipes the server returns per offset page
+        public static final int PAGE_SIZE = 50;
+        // Maximum number of page requests in flight during the first-run catalog fill
+        public static final int MAX_CONCURRENT_PAGES = 4;
+        // Maximum number of pages fetched during the first-run catalog fill
+        public static final int MAX_PAGES = 40;
+
+        // Number of rows past the visible ones whose details we also prefetch
+        public static final int DETAIL_LOOKAHEAD = 5;
+        // Maximum number of recipes asked for in a single detail request
+        public static final int DETAIL_MAX_BATCH = 20;
+        // Response bytes after which we stop prefetching details for the session
+        public static final long DETAIL_BYTE_BUDGET = 2 * 1024 * 1024;
+    }
+
+    public static class SnapshotConstants {
+
+        // Where the catalog snapshot is downloaded to (in the cache dir), and the validator of what we have of it
+        public static final String SNAPSHOT_FILE = "catalog-snapshot.json";
+        public static final String VALIDATOR_FILE = "catalog-snapshot.validator";
+
+        // Number of recipes written per transaction
+        public static final int BATCH_SIZE = 100;
+        // Maximum number of bytes the download gets ahead of the parse
+        public static final long MAX_LEAD_BYTES = 4 * 1024 * 1024;
+        // Maximum number of bytes of the file mapped at once
+        public static final long MAP_WINDOW_BYTES = 256 * 1024;
+    }
+
+    public static class OutboxConstants {
+
+        // How long after the last like toggle the outbox is flushed, so quick toggles go out together
+        public static final long FLUSH_DELAY_MILLIS = 5000;
+        // Maximum number of likes sent in one request
+        public static final int MAX_BATCH_SIZE = 50;
     }
 
+    public static class PipelineConstants {
+
+        // Fetches running at once, there's no point in more than the network scheduler lets out
+        public static final int FETCH_THREADS = APIConstants.MAX_CONCURRENT_REQUESTS;
+        // Realm only lets one write through at a time
+        public static final int WRITE_THREADS = 1;
+        // Responses waiting for each stage after fetch, beyond that the stage before it waits
+        public static final int HAND_OFF_CAPACITY = 2;
+        // Items a transform thread takes at once, so a single page (50) stays on one thread
+        public static final int TRANSFORM_CHUNK_SIZE = 64;
+    }
+
+    public static class WriteConstants {
+
+        // How long the writer waits for more writes to commit together with the first one
+        public static final long GROUP_WINDOW_MILLIS = 10;
+        // Items in one transaction, bigger groups hold the write lock (and the UI's writes) for too long
+        public static final int MAX_GROUP_SIZE = 100;
+        // Items per chunk when a big payload is split up, two pages of recipes
+        public static final int CHUNK_SIZE = 100;
+    }
+
+    public static class SessionConstants {
+
+        // A worker holding a Realm session longer than this is reported in debug builds
+        public static final long MAX_HOLD_MILLIS = 60 * 1000;
+    }
+
+    public static class RetryConstants {
+
+        // Upper bound of the first retry delay, doubled with each retry
+        public static final long BASE_DELAY_MILLIS = 1000;
+        // Upper bound of any retry delay
+        public static final long MAX_DELAY_MILLIS = 60 * 1000;
+        // Number of consecutive retries while online before we give up, waiting for connectivity doesn't count
+        public static final int MAX_RETRIES = 8;
+    }
+
+    public static class SyncConstants {
+
+        // How long after a sync each entity is considered fresh, the activity doesn't fetch it within this window
+        public static final long RECIPES_TTL_MILLIS = 60 * 60 * 1000;
+        public static final long COMPONENTS_TTL_MILLIS = CacheConstants.COMPONENTS_TTL_SECONDS * 1000L;
+        public static final long TAGS_TTL_MILLIS = CacheConstants.TAGS_TTL_SECONDS * 1000L;
+
+        // ID of the background catalog sync job, and how often it runs (when charging and on unmetered network)
+        public static final int CATALOG_SYNC_JOB_ID = 1;
+        public static final long CATALOG_SYNC_INTERVAL_MILLIS = 12 * 60 * 60 * 1000;
+    }
+
+    /**
+     * The measures as the server names them. They're stored as codes, see MeasureCodes for the units of each
+     */
     public static class Measures {
 
         public static final String PREFERRED_MEASURE_REGULAR = "regular";
         public static final String PREFERRED_MEASURE_THOUSAND = "thousand";
+        public static final String PREFERRED_MEASURE_CUP = "cup";
+        public static final String PREFERRED_MEASURE_TABLESPOON = "tbsp";
+        public static final String PREFERRED_MEASURE_TEASPOON = "tsp";
 
         public static final String QUANTITY_TYPE_WEIGHT = "weight";
         public static final String WEIGHT_UNIT_GRAM = "g";
@@ -39,14 +168,5 @@ public class Constants {
 
         public static final String QUANTITY_TYPE_NUMBER = "number";
         public static final String NUMBER_UNIT = "";
-
-        public static final HashMap<String, String> MEASURE_MAP = new HashMap<>();
-
-        static {
-            MEASURE_MAP.put(QUANTITY_TYPE_WEIGHT, WEIGHT_UNIT_GRAM);
-            MEASURE_MAP.put(QUANTITY_TYPE_VOLUME, VOLUME_UNIT_MILLILITER);
-            MEASURE_MAP.put(QUANTITY_TYPE_NUMBER, NUMBER_UNIT);
-        }
-
     }
 }
@@ -18,6 +18,15 @@ public class DbColumns {
         public static final String TAGS = "tags";
         public static final String INGREDIENTS = "ingredients";
         public static final String TITLE_LOWER = "titleLower";
+        public static final String TITLE_FOLDED = "titleFolded";
+        public static final String INGREDIENT_COUNT = "ingredientCount";
+        public static final String STEP_COUNT = "stepCount";
+        public static final String TIMER_MINUTES = "timerMinutes";
+        public static final String UPDATED_AT = "updatedAt";
+        public static final String DELETED = "deleted";
+        public static final String CONTENT_HASH = "contentHash";
+        public static final String DETAIL_LOADED = "detailLoaded";
+        public static final String LIKED = "liked";
 
     }
 
@@ -27,8 +36,10 @@ public class DbColumns {
         public static final String COMPONENT_ID = "componentId";
         public static final String QUANTITY = "quantity";
         public static final String PREFERRED_MEASURE = "preferredMeasure";
+        public static final String PREFERRED_MEASURE_CODE = "preferredMeasureCode";
         public static final String RECIPE_ID = "recipeId";
         public static final String IN_CART = "inCart";
+        public static final String COMPONENT = "component";
 
     }
 
@@ -37,6 +48,8 @@ public class DbColumns {
         public static final String ID = "id";
         public static final String NAME = "name";
         public static final String QUANTITY_TYPE = "quantityType";
+        public static final String QUANTITY_TYPE_CODE = "quantityTypeCode";
+        public static final String CONTENT_HASH = "contentHash";
 
     }
 
@@ -65,6 +78,7 @@ public class DbColumns {
         public static final String EN_NAME = "enName";
         public static final String COUNTRY_ID = "countryId";
         public static final String TAGS = "tags";
+        public static final String CONTENT_HASH = "contentHash";
 
     }
 
@@ -73,6 +87,21 @@ public class DbColumns {
         public static final String ID = "id";
     }
 
+    public static class TaggedRecipe {
+
+        public static final String KEY = "key";
+        public static final String RECIPE_ID = "recipeId";
+        public static final String TAG_ID = "tagId";
+    }
+
+    public static class OutboxLike {
+
+        public static final String RECIPE_ID = "recipeId";
+        public static final String LIKED = "liked";
+        public static final String BASELINE = "baseline";
+        public static final String SEQUENCE = "sequence";
+    }
+
     public static class ShoppingItem {
 
         public static final String COMPONENT = "component";
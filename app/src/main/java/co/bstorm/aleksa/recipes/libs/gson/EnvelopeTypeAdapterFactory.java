@@ -0,0 +1,341 @@
+package co.bstorm.aleksa.recipes.libs.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by aleksa on 8/12/16.
+ *
+ * Unwraps the {"status": ..., "<member>": ...} envelope our API puts around every response
+ *
+ * Reads straight from the JsonReader, so no JsonElement tree is ever built - everything outside of
+ * the member we want is skipped with skipValue(), and the member itself is handed to the delegate
+ * adapter (which in turn skips fields the pojo doesn't declare, like en_text, utensils or post_url)
+ *
+ * Handles both a single object (T) and a list of them (List<T>/ArrayList<T>)
+ *
+ * A single object can also come without the envelope. The first name tells them apart (an envelope
+ * starts with the status or the member), and a bare object is handed to the delegate with that name
+ * played back in front of the rest of the stream, so nothing is buffered either way
+ */
+public class EnvelopeTypeAdapterFactory implements TypeAdapterFactory {
+
+    // Maps the pojo class to the name of the envelope member it's wrapped in
+    private final Map<Class<?>, String> memberNames = new HashMap<>();
+
+    /**
+     * Registers an envelope member for the given class
+     *
+     * @param clazz The class that comes wrapped in an envelope
+     * @param memberName Name of the envelope member that holds the actual data
+     * @return this factory, for chaining
+     */
+    public EnvelopeTypeAdapterFactory withEnvelope(Class<?> clazz, String memberName) {
+        memberNames.put(clazz, memberName);
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+
+        Class<? super T> rawType = type.getRawType();
+
+        // A single enveloped object
+        if (memberNames.containsKey(rawType)) {
+            TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+            return new EnvelopeAdapter<>(memberNames.get(rawType), delegate, true);
+        }
+
+        // A list of enveloped objects
+        if ((rawType == ArrayList.class || rawType == List.class)
+                && type.getType() instanceof ParameterizedType) {
+
+            Type elementType = ((ParameterizedType) type.getType()).getActualTypeArguments()[0];
+
+            if (elementType instanceof Class && memberNames.containsKey(elementType)) {
+                // We skip past this factory for the elements, since they're not wrapped on their own
+                TypeAdapter<?> elementAdapter = gson.getDelegateAdapter(this, TypeToken.get(elementType));
+                // An object that's not an envelope can't be a list, so there's nothing to fall back to
+                return (TypeAdapter<T>) new EnvelopeAdapter<>(memberNames.get(elementType),
+                        new ListAdapter<>(elementAdapter), false);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the member in the envelope and reads it with the delegate, skipping everything else
+     */
+    private static class EnvelopeAdapter<T> extends TypeAdapter<T> {
+
+        // The envelope's own member next to the data
+        private static final String STATUS = "status";
+
+        private final String memberName;
+        private final TypeAdapter<T> delegate;
+        // Whether it can come without the envelope, false if it has to be one
+        private final boolean mayBeBare;
+
+        EnvelopeAdapter(String memberName, TypeAdapter<T> delegate, boolean mayBeBare) {
+            this.memberName = memberName;
+            this.delegate = delegate;
+            this.mayBeBare = mayBeBare;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            // Not enveloped, just read it as is
+            if (in.peek() != JsonToken.BEGIN_OBJECT)
+                return delegate.read(in);
+
+            T result = null;
+            boolean found = false;
+
+            in.beginObject();
+            boolean first = true;
+            while (in.hasNext()) {
+                String name = in.nextName();
+                // Not an envelope, so it's the object itself, read from its first name on
+                if (first && mayBeBare && !name.equals(STATUS) && !name.equals(memberName))
+                    return delegate.read(new ReplayingReader(in, name));
+                first = false;
+
+                if (!found && name.equals(memberName)) {
+                    result = delegate.read(in);
+                    found = true;
+                }
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+
+            return result;
+        }
+    }
+
+    /**
+     * Reads an object whose opening brace and first name were already read from the wrapped reader,
+     * by playing them back before passing the calls on. The wrapped reader ends up past the object,
+     * like the delegate read it from there
+     *
+     * Gson's Map adapter reads keys through JsonReader internals that can't be passed on, so a bare
+     * object can't have a Map field (none of the pojos do)
+     */
+    private static class ReplayingReader extends JsonReader {
+
+        private static final int BEGIN = 0;
+        private static final int NAME = 1;
+        private static final int PASSED_ON = 2;
+
+        private final JsonReader in;
+        private final String firstName;
+        private int state = BEGIN;
+
+        ReplayingReader(JsonReader in, String firstName) {
+            // Never read from, every call goes to the wrapped reader
+            super(new StringReader(""));
+            this.in = in;
+            this.firstName = firstName;
+        }
+
+        @Override
+        public JsonToken peek() throws IOException {
+            if (state == BEGIN)
+                return JsonToken.BEGIN_OBJECT;
+            if (state == NAME)
+                return JsonToken.NAME;
+            return in.peek();
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            if (state == BEGIN)
+                state = NAME;
+            else {
+                passedOn();
+                in.beginObject();
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            if (state != PASSED_ON)
+                return true;
+            return in.hasNext();
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            if (state == NAME) {
+                state = PASSED_ON;
+                return firstName;
+            }
+            passedOn();
+            return in.nextName();
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            if (state == BEGIN) {
+                // The whole object, the first value and whatever comes after it
+                state = PASSED_ON;
+                in.skipValue();
+                while (in.hasNext()) {
+                    in.nextName();
+                    in.skipValue();
+                }
+                in.endObject();
+            }
+            else if (state == NAME)
+                // Like JsonReader, skipping at a name skips just the name
+                state = PASSED_ON;
+            else
+                in.skipValue();
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            passedOn();
+            in.endObject();
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            passedOn();
+            in.beginArray();
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            passedOn();
+            in.endArray();
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            passedOn();
+            return in.nextString();
+        }
+
+        @Override
+        public boolean nextBoolean() throws IOException {
+            passedOn();
+            return in.nextBoolean();
+        }
+
+        @Override
+        public void nextNull() throws IOException {
+            passedOn();
+            in.nextNull();
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            passedOn();
+            return in.nextDouble();
+        }
+
+        @Override
+        public long nextLong() throws IOException {
+            passedOn();
+            return in.nextLong();
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            passedOn();
+            return in.nextInt();
+        }
+
+        @Override
+        public String getPath() {
+            return in.getPath();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // Anything but the played back tokens is an error until they're read
+        private void passedOn() {
+            if (state != PASSED_ON)
+                throw new IllegalStateException("Expected " + peekReplayed() + " at " + in.getPath());
+        }
+
+        private JsonToken peekReplayed() {
+            return state == BEGIN ? JsonToken.BEGIN_OBJECT : JsonToken.NAME;
+        }
+    }
+
+    /**
+     * Reads a JSON array into an ArrayList using the given element adapter
+     */
+    private static class ListAdapter<E> extends TypeAdapter<ArrayList<E>> {
+
+        private final TypeAdapter<E> elementAdapter;
+
+        ListAdapter(TypeAdapter<E> elementAdapter) {
+            this.elementAdapter = elementAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ArrayList<E> value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginArray();
+            for (E element : value) {
+                elementAdapter.write(out, element);
+            }
+            out.endArray();
+        }
+
+        @Override
+        public ArrayList<E> read(JsonReader in) throws IOException {
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            ArrayList<E> list = new ArrayList<>();
+
+            in.beginArray();
+            while (in.hasNext()) {
+                list.add(elementAdapter.read(in));
+            }
+            in.endArray();
+
+            return list;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
+import co.bstorm.aleksa.recipes.util.ContentHash;
+import co.bstorm.aleksa.recipes.util.MeasureCodes;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 
@@ -10,15 +13,19 @@ import io.realm.annotations.PrimaryKey;
  *
  * A class representing a general component in recipe, not specific (so, an apple and not 1/2 apple_id)
  */
-public class Component extends RealmObject{
+@GenerateTypeAdapter
+public class Component extends RealmObject implements ContentHashed {
 
     @PrimaryKey
     @SerializedName("id")
     private int id;
     @SerializedName("name")
     private String name;
+    // As parsed, once encoded it's stored as a code (see MeasureCodes), and only kept if it's not in the code table
     @SerializedName("quantity_type")
     private String quantityType;
+    private int quantityTypeCode;
+    private long contentHash;
 
     public int getId() {
         return id;
@@ -37,10 +44,46 @@ public class Component extends RealmObject{
     }
 
     public String getQuantityType() {
-        return quantityType;
+        return MeasureCodes.quantityType(quantityTypeCode, quantityType);
     }
 
     public void setQuantityType(String quantityType) {
         this.quantityType = quantityType;
+        quantityTypeCode = MeasureCodes.NONE;
+    }
+
+    public int getQuantityTypeCode() {
+        if (quantityTypeCode == MeasureCodes.NONE && quantityType != null)
+            return MeasureCodes.quantityTypeCode(quantityType);
+        return quantityTypeCode;
+    }
+
+    /**
+     * Maps the parsed quantity type to its code, can be called again
+     */
+    public void encodeQuantityType() {
+        if (quantityTypeCode != MeasureCodes.NONE)
+            return;
+        quantityTypeCode = MeasureCodes.quantityTypeCode(quantityType);
+        if (quantityTypeCode != MeasureCodes.OTHER)
+            quantityType = null;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    @Override
+    public long computeContentHash() {
+        return new ContentHash()
+                .add(id)
+                .add(name)
+                // The string, so the hashes don't change with how it's stored
+                .add(getQuantityType())
+                .get();
     }
 }
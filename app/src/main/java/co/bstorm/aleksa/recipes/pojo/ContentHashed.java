@@ -0,0 +1,19 @@
+package co.bstorm.aleksa.recipes.pojo;
+
+/**
+ * Created by aleksa on 8/18/16.
+ *
+ * Implemented by the objects that store a hash of their content, so we can skip writing them when nothing changed
+ * The primary key column of all of them is "id"
+ */
+public interface ContentHashed {
+
+    int getId();
+
+    long getContentHash();
+
+    void setContentHash(long contentHash);
+
+    // Computes the hash of the content that comes from the server (derived fields are left out)
+    long computeContentHash();
+}
@@ -2,9 +2,8 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
-import co.bstorm.aleksa.recipes.constants.Constants;
-import co.bstorm.aleksa.recipes.constants.DbColumns;
-import io.realm.Realm;
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
+import co.bstorm.aleksa.recipes.util.MeasureCodes;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 
@@ -14,8 +13,13 @@ import io.realm.annotations.PrimaryKey;
  * Represents an ingredient listed in recipe (it's just a reference to a real component, together with amount)
  *
  * We generate a primary key to avoid storing same elements over and over (since Ingredient doesn't provide us with a natural UID)
- * We do this using Szudzik's function
+ * We do this using Szudzik's function, in longs since the squares overflow an int for ids above 46340
+ *
+ * The component is linked when the ingredient is written (see ComponentLinks), so it's there without a query
+ * The preferred measure is stored as a code (see MeasureCodes), mapped from the parsed string once
+ * before the ingredient is written, the string is only kept if it's not in the code table
  */
+@GenerateTypeAdapter
 public class Ingredient extends RealmObject {
 
     @PrimaryKey
@@ -24,10 +28,14 @@ public class Ingredient extends RealmObject {
     private int componentId;
     @SerializedName("quantity")
     private float quantity;
+    // As parsed, once encoded only kept for measures that aren't in the code table
     @SerializedName("preferred_measure")
     private String preferredMeasure;
+    private int preferredMeasureCode;
 
     private int recipeId;
+    // Null until we have the component
+    private Component component;
 
     public int getComponentId() {
         return componentId;
@@ -46,11 +54,29 @@ public class Ingredient extends RealmObject {
     }
 
     public String getPreferredMeasure() {
-        return preferredMeasure;
+        return MeasureCodes.measure(preferredMeasureCode, preferredMeasure);
     }
 
     public void setPreferredMeasure(String preferredMeasure) {
         this.preferredMeasure = preferredMeasure;
+        preferredMeasureCode = MeasureCodes.NONE;
+    }
+
+    public int getPreferredMeasureCode() {
+        if (preferredMeasureCode == MeasureCodes.NONE && preferredMeasure != null)
+            return MeasureCodes.measureCode(preferredMeasure);
+        return preferredMeasureCode;
+    }
+
+    /**
+     * Maps the parsed measure to its code, can be called again
+     */
+    public void encodeMeasure() {
+        if (preferredMeasureCode != MeasureCodes.NONE)
+            return;
+        preferredMeasureCode = MeasureCodes.measureCode(preferredMeasure);
+        if (preferredMeasureCode != MeasureCodes.OTHER)
+            preferredMeasure = null;
     }
 
     public long getUniqueId() {
@@ -58,7 +84,16 @@ public class Ingredient extends RealmObject {
     }
 
     public void setUniqueId() {
-        uniqueId = recipeId >= componentId ? recipeId * recipeId + recipeId + componentId : recipeId + componentId * componentId;
+        uniqueId = uniqueId(recipeId, componentId);
+    }
+
+    /**
+     * Szudzik's pairing of the two ids, unique for every pair of non-negative ints
+     */
+    public static long uniqueId(int recipeId, int componentId) {
+        long recipe = recipeId;
+        long component = componentId;
+        return recipe >= component ? recipe * recipe + recipe + component : recipe + component * component;
     }
 
     public int getRecipeId() {
@@ -70,43 +105,25 @@ public class Ingredient extends RealmObject {
     }
 
     public Component getComponent(){
-        Realm realm = Realm.getDefaultInstance();
-        Component comp =  realm.where(Component.class).equalTo(DbColumns.Component.ID, componentId).findFirst();
-        realm.close();
-        return comp;
+        return component;
+    }
+
+    public void setComponent(Component component) {
+        this.component = component;
     }
 
     // Returns a formatted amount (<number> [unit])
     public String getFormattedAmount(){
         if (quantity == ((int) quantity))
-            return String.format("%d %s", quantity != 0 ? (int)quantity : 1, getUnit(preferredMeasure, getComponent().getQuantityType()));
+            return String.format("%d %s", quantity != 0 ? (int)quantity : 1, getUnit());
         else
-            return String.format("%f.2 %s", quantity != 0 ? quantity : 1, getUnit(preferredMeasure, getComponent().getQuantityType()));
-    }
-
-    // Gets a preferred unit for the given quantity type and preferred measure
-    private String getUnit (String preferredMeasure, String quantityType){
-        if (preferredMeasure == null || quantityType == null)
-            return "";
-
-        if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_NUMBER))
-            return "";
-
-        // Preferred measure "thousand" in weight means milliliters
-        if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_VOLUME)
-                && preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_THOUSAND))
-            return Constants.Measures.VOLUME_UNIT_MILLILITER;
-
-        if (preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_REGULAR)) {
-            return Constants.Measures.MEASURE_MAP.get(quantityType);
-        }
-        // Preferred measure "thousand" in weight means grams
-        else if (preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_THOUSAND)
-                && quantityType.equals(Constants.Measures.QUANTITY_TYPE_WEIGHT)){
-            return Constants.Measures.WEIGHT_UNIT_GRAM;
-        }
-        else {
-            return preferredMeasure;
-        }
+            return String.format("%f.2 %s", quantity != 0 ? quantity : 1, getUnit());
+    }
+
+    // Gets a preferred unit for the component's quantity type and the preferred measure
+    private String getUnit(){
+        Component component = getComponent();
+        int quantityType = component != null ? component.getQuantityTypeCode() : MeasureCodes.NONE;
+        return MeasureCodes.unit(getPreferredMeasureCode(), preferredMeasure, quantityType);
     }
 }
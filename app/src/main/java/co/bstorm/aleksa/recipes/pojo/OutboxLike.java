@@ -0,0 +1,53 @@
+package co.bstorm.aleksa.recipes.pojo;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * Created by aleksa on 8/28/16.
+ *
+ * A like (or unlike) that's waiting to be sent, at most one per recipe since toggles are coalesced
+ */
+public class OutboxLike extends RealmObject {
+
+    @PrimaryKey
+    private int recipeId;
+    // The state to send
+    private boolean liked;
+    // The state before the first pending toggle, which is what the server has
+    private boolean baseline;
+    // Orders the pending likes by their last toggle
+    private long sequence;
+
+    public int getRecipeId() {
+        return recipeId;
+    }
+
+    public void setRecipeId(int recipeId) {
+        this.recipeId = recipeId;
+    }
+
+    public boolean isLiked() {
+        return liked;
+    }
+
+    public void setLiked(boolean liked) {
+        this.liked = liked;
+    }
+
+    public boolean isBaseline() {
+        return baseline;
+    }
+
+    public void setBaseline(boolean baseline) {
+        this.baseline = baseline;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+}
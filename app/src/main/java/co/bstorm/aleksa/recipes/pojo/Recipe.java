@@ -2,8 +2,11 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
+import co.bstorm.aleksa.recipes.util.ContentHash;
 import io.realm.RealmList;
 import io.realm.RealmObject;
+import io.realm.annotations.Ignore;
 import io.realm.annotations.PrimaryKey;
 
 /**
@@ -11,7 +14,8 @@ import io.realm.annotations.PrimaryKey;
  *
  * A POJO representing our recipe
  */
-public class Recipe extends RealmObject{
+@GenerateTypeAdapter
+public class Recipe extends RealmObject implements ContentHashed {
 
     @SerializedName("id")
     @PrimaryKey
@@ -34,7 +38,33 @@ public class Recipe extends RealmObject{
     private RealmList<RecipeTag> tags;
     @SerializedName("ingredients")
     private RealmList<Ingredient> ingredients;
+    @SerializedName("updated_at")
+    private String updatedAt;
+    @SerializedName("is_deleted")
+    private int deleted;
     private String titleLower;
+    // Derived when the recipe is ingested. Search is a contains on the folded title, which an index
+    // wouldn't help, so none of these are indexed
+    private String titleFolded;
+    // All three stay 0 until the details are loaded, so they only mean something for a recipe that
+    // has them, and aren't offered for filtering the list (which is mostly summaries)
+    private int ingredientCount;
+    private int stepCount;
+    // Sum of the step timers, in minutes
+    private int timerMinutes;
+    private long contentHash;
+    // Steps and ingredients are only stored once someone opens the recipe
+    private boolean detailLoaded;
+    // Whether the user liked it, kept locally (the server only has the count)
+    private boolean liked;
+
+    // Not stored, what the server sent before we changed it, so preparing the same parsed recipe
+    // again (a redone write) starts from the same place
+    @Ignore
+    private Integer serverLikes;
+    // Not stored, whether the steps and ingredients are the stored ones rather than fetched
+    @Ignore
+    private boolean detailsKept;
 
     public int getId() {
         return id;
@@ -92,6 +122,24 @@ public class Recipe extends RealmObject{
         this.likes = likes;
     }
 
+    /**
+     * Sets the likes to the server's count plus ours that it doesn't know about yet
+     * Always counts from what the server sent, so calling it again doesn't add ours twice
+     */
+    public void setLikesWithPending(int pendingDelta) {
+        if (serverLikes == null)
+            serverLikes = likes;
+        likes = serverLikes + pendingDelta;
+    }
+
+    public boolean isDetailsKept() {
+        return detailsKept;
+    }
+
+    public void setDetailsKept(boolean detailsKept) {
+        this.detailsKept = detailsKept;
+    }
+
     public RealmList<Step> getSteps() {
         return steps;
     }
@@ -123,4 +171,113 @@ public class Recipe extends RealmObject{
     public void setTitleLower(String titleLower) {
         this.titleLower = titleLower;
     }
+
+    public String getTitleFolded() {
+        return titleFolded;
+    }
+
+    public void setTitleFolded(String titleFolded) {
+        this.titleFolded = titleFolded;
+    }
+
+    public int getIngredientCount() {
+        return ingredientCount;
+    }
+
+    public void setIngredientCount(int ingredientCount) {
+        this.ingredientCount = ingredientCount;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public void setStepCount(int stepCount) {
+        this.stepCount = stepCount;
+    }
+
+    public int getTimerMinutes() {
+        return timerMinutes;
+    }
+
+    public void setTimerMinutes(int timerMinutes) {
+        this.timerMinutes = timerMinutes;
+    }
+
+    public String getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(String updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(int deleted) {
+        this.deleted = deleted;
+    }
+
+    // The server marks deleted recipes with is_deleted = 1, we never keep those
+    public boolean isDeleted() {
+        return deleted != 0;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public boolean isDetailLoaded() {
+        return detailLoaded;
+    }
+
+    public void setDetailLoaded(boolean detailLoaded) {
+        this.detailLoaded = detailLoaded;
+    }
+
+    public boolean isLiked() {
+        return liked;
+    }
+
+    public void setLiked(boolean liked) {
+        this.liked = liked;
+    }
+
+    // Whether this recipe came with its steps and ingredients (the list only gets summaries)
+    public boolean hasDetails() {
+        return steps != null || ingredients != null;
+    }
+
+    // Details that came with the recipe, not the stored ones it keeps
+    public boolean hasFetchedDetails() {
+        return hasDetails() && !detailsKept;
+    }
+
+    // Covers only the summary, details are tracked by detailLoaded (updated_at changes with them anyway)
+    @Override
+    public long computeContentHash() {
+        ContentHash hash = new ContentHash()
+                .add(id)
+                .add(title)
+                .add(imageUrl)
+                .add(difficulty)
+                .add(defaultServingSize)
+                .add(preparationTime)
+                .add(likes)
+                .add(updatedAt);
+
+        if (tags != null) {
+            for (RecipeTag tag : tags) {
+                hash.add(tag.getId());
+            }
+        }
+
+        return hash.get();
+    }
 }
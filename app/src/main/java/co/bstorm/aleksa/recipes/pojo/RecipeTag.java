@@ -2,12 +2,14 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 
 /**
  * Created by aleksa on 8/6/16.
  */
+@GenerateTypeAdapter
 public class RecipeTag extends RealmObject {
 
     @PrimaryKey
@@ -2,6 +2,7 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 
@@ -10,6 +11,7 @@ import io.realm.annotations.PrimaryKey;
  *
  * Represents a tag listed in recipe. A tag belongs to a certain tag category
  */
+@GenerateTypeAdapter
 public class Tag extends RealmObject {
 
     @PrimaryKey
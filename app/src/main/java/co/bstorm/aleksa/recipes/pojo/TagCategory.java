@@ -2,6 +2,8 @@ package co.bstorm.aleksa.recipes.pojo;
 
 import com.google.gson.annotations.SerializedName;
 
+import co.bstorm.aleksa.recipes.processor.GenerateTypeAdapter;
+import co.bstorm.aleksa.recipes.util.ContentHash;
 import io.realm.RealmList;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
@@ -11,7 +13,8 @@ import io.realm.annotations.PrimaryKey;
  *
  * Represents a tag category
  */
-public class TagCategory extends RealmObject {
+@GenerateTypeAdapter
+public class TagCategory extends RealmObject implements ContentHashed {
 
     @PrimaryKey
     @SerializedName("id")
@@ -24,6 +27,7 @@ public class TagCategory extends RealmObject {
     private int countryId;
     @SerializedName("tags")
     private RealmList<Tag> tags;
+    private long contentHash;
 
     public int getId() {
         return id;
@@ -64,4 +68,31 @@ public class TagCategory extends RealmObject {
     public void setTags(RealmList<Tag> tags) {
         this.tags = tags;
     }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    @Override
+    public long computeContentHash() {
+        ContentHash hash = new ContentHash()
+                .add(id)
+                .add(name)
+                .add(enName)
+                .add(countryId);
+
+        if (tags != null) {
+            for (Tag tag : tags) {
+                hash.add(tag.getId())
+                        .add(tag.getName())
+                        .add(tag.getTagCategoryId());
+            }
+        }
+
+        return hash.get();
+    }
 }
@@ -0,0 +1,54 @@
+package co.bstorm.aleksa.recipes.pojo;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * One row per tag of every recipe, written next to the recipe, so filtering by tags is a lookup in an
+ * index instead of following the tags of each recipe
+ */
+public class TaggedRecipe extends RealmObject {
+
+    // The same pairing as the ingredient keys, unique for every recipe and tag
+    @PrimaryKey
+    private long key;
+    @Index
+    private int recipeId;
+    @Index
+    private int tagId;
+
+    public long getKey() {
+        return key;
+    }
+
+    public void setKey(long key) {
+        this.key = key;
+    }
+
+    public int getRecipeId() {
+        return recipeId;
+    }
+
+    public void setRecipeId(int recipeId) {
+        this.recipeId = recipeId;
+    }
+
+    public int getTagId() {
+        return tagId;
+    }
+
+    public void setTagId(int tagId) {
+        this.tagId = tagId;
+    }
+
+    public static TaggedRecipe of(int recipeId, int tagId) {
+        TaggedRecipe row = new TaggedRecipe();
+        row.setKey(Ingredient.uniqueId(recipeId, tagId));
+        row.setRecipeId(recipeId);
+        row.setTagId(tagId);
+        return row;
+    }
+}
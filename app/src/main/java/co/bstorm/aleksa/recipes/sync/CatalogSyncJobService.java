@@ -0,0 +1,61 @@
+package co.bstorm.aleksa.recipes.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+import co.bstorm.aleksa.recipes.api.CatalogSync;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Runs the background catalog sync once the job scheduler decides the device is charging and on unmetered network
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CatalogSyncJobService extends JobService {
+
+    private static final String TAG = "CatalogSyncJobService";
+
+    private Subscription subscription;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        subscription = CatalogSync.syncAll(getApplicationContext())
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Subscriber<String>() {
+                    @Override
+                    public void onCompleted() {
+                        Log.d(TAG, "Catalog sync finished");
+                        jobFinished(params, false);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        // The scheduler backs off and runs it again
+                        Log.e(TAG, "Encountered error during catalog sync", e);
+                        jobFinished(params, true);
+                    }
+
+                    @Override
+                    public void onNext(String entity) {
+                        Log.d(TAG, "Synced " + entity);
+                    }
+                });
+
+        // Still working, we call jobFinished when done
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Constraints no longer hold (unplugged or left wifi), stop and try again later
+        if (subscription != null)
+            subscription.unsubscribe();
+        return true;
+    }
+}
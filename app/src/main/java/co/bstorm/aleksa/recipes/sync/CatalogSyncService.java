@@ -0,0 +1,56 @@
+package co.bstorm.aleksa.recipes.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import co.bstorm.aleksa.recipes.api.CatalogSync;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Runs the background catalog sync on devices without the job scheduler (below Lollipop)
+ * Started by an inexact alarm, so we check the charging and unmetered network constraints ourselves
+ */
+public class CatalogSyncService extends IntentService {
+
+    private static final String TAG = "CatalogSyncService";
+
+    public CatalogSyncService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!isCharging() || !isOnUnmeteredNetwork()) {
+            Log.d(TAG, "Skipping catalog sync, not charging or not on unmetered network");
+            return;
+        }
+
+        try {
+            for (String entity : CatalogSync.syncAll(getApplicationContext()).toBlocking().toIterable()) {
+                Log.d(TAG, "Synced " + entity);
+            }
+        } catch (RuntimeException e) {
+            // We'll try again on the next alarm
+            Log.e(TAG, "Encountered error during catalog sync", e);
+        }
+    }
+
+    private boolean isCharging() {
+        // The battery broadcast is sticky, so this just reads the last one
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private boolean isOnUnmeteredNetwork() {
+        ConnectivityManager manager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        return info != null && info.isConnected() && !manager.isActiveNetworkMetered();
+    }
+}
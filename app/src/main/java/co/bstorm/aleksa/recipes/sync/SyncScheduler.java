@@ -0,0 +1,67 @@
+package co.bstorm.aleksa.recipes.sync;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Schedules the periodic background catalog sync, which only runs while charging and on unmetered network
+ * Uses the job scheduler where there is one, and an inexact alarm otherwise
+ */
+public class SyncScheduler {
+
+    /**
+     * Schedules the sync, unless it's already scheduled
+     */
+    public static void schedule(Context context) {
+        Context appContext = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            scheduleJob(appContext);
+        else
+            scheduleAlarm(appContext);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        // Rescheduling would reset the period, so the job would never run for people who open the app often
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == Constants.SyncConstants.CATALOG_SYNC_JOB_ID)
+                return;
+        }
+
+        JobInfo job = new JobInfo.Builder(Constants.SyncConstants.CATALOG_SYNC_JOB_ID,
+                new ComponentName(context, CatalogSyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(Constants.SyncConstants.CATALOG_SYNC_INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    private static void scheduleAlarm(Context context) {
+        Intent intent = new Intent(context, CatalogSyncService.class);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null)
+            return;
+
+        // Inexact, so it's batched with other apps' alarms and doesn't wake the device on its own
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + Constants.SyncConstants.CATALOG_SYNC_INTERVAL_MILLIS,
+                Constants.SyncConstants.CATALOG_SYNC_INTERVAL_MILLIS,
+                PendingIntent.getService(context, 0, intent, 0));
+    }
+}
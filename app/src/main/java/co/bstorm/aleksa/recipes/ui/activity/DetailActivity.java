@@ -3,15 +3,20 @@ package co.bstorm.aleksa.recipes.ui.activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.widget.ListView;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.DetailPrefetcher;
+import co.bstorm.aleksa.recipes.api.FetchData;
+import co.bstorm.aleksa.recipes.api.RealmSessions;
 import co.bstorm.aleksa.recipes.constants.Constants;
 import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
 import co.bstorm.aleksa.recipes.ui.adapter.DetailListAdapter;
 import io.realm.Realm;
 import io.realm.RealmChangeListener;
+import rx.Subscription;
 
 /**
  * Created by aleksa on 7/28/16.
@@ -26,6 +31,10 @@ public class DetailActivity extends AppCompatActivity {
     private ListView mDetails;
 
     Realm realm;
+    private RealmChangeListener<Realm> changeListener;
+
+    // Fetches the steps and ingredients if we only have the summary
+    private Subscription detailSubscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,7 +43,7 @@ public class DetailActivity extends AppCompatActivity {
 
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
-        realm = Realm.getDefaultInstance();
+        realm = RealmSessions.get().acquire();
 
         mDetails = (ListView) findViewById(R.id.details_root);
 
@@ -48,21 +57,36 @@ public class DetailActivity extends AppCompatActivity {
 
             mAdapter = new DetailListAdapter(this, recipe);
             mDetails.setAdapter(mAdapter);
+
+            if (recipe != null) {
+                DetailPrefetcher prefetcher = FetchData.getDetailPrefetcher();
+                prefetcher.recordOpen(recipe.isDetailLoaded());
+                Log.d(TAG, prefetcher.toString());
+
+                // The change listener below redraws the list once they're written, whoever fetches them
+                if (!recipe.isDetailLoaded() && !prefetcher.isInFlight((int) recipeId))
+                    detailSubscription = FetchData.loadRecipeDetails((int) recipeId, getApplicationContext());
+            }
         }
 
-        realm.addChangeListener(new RealmChangeListener<Realm>() {
+        changeListener = new RealmChangeListener<Realm>() {
             @Override
             public void onChange(Realm element) {
                 mAdapter.notifyDataSetChanged();
             }
-        });
+        };
+        realm.addChangeListener(changeListener);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        realm.removeAllChangeListeners();
-        realm.close();
+        if (detailSubscription != null)
+            detailSubscription.unsubscribe();
+
+        // The UI thread's Realm is shared with the other activities, so only our listener goes
+        realm.removeChangeListener(changeListener);
+        RealmSessions.get().release();
     }
 }
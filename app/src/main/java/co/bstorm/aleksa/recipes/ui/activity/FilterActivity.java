@@ -11,6 +11,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.RealmSessions;
 import co.bstorm.aleksa.recipes.pojo.TagCategory;
 import co.bstorm.aleksa.recipes.ui.adapter.FilterExpandableAdapter;
 import co.bstorm.aleksa.recipes.util.FilterUtils;
@@ -23,6 +24,7 @@ import io.realm.RealmChangeListener;
 public class FilterActivity extends AppCompatActivity{
 
     private Realm realm;
+    private RealmChangeListener<Realm> changeListener;
     private FilterExpandableAdapter mAdapter;
 
     // Used to memorize which filters were on when we entered the activity, so we could restore them
@@ -39,7 +41,7 @@ public class FilterActivity extends AppCompatActivity{
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setTitle(R.string.filter_activity_title);
 
-        realm = Realm.getDefaultInstance();
+        realm = RealmSessions.get().acquire();
 
         ExpandableListView filterList = (ExpandableListView) findViewById(R.id.filter_list_view);
 
@@ -57,12 +59,13 @@ public class FilterActivity extends AppCompatActivity{
 
         // Find all categories with selected filters
 
-        realm.addChangeListener(new RealmChangeListener<Realm>() {
+        changeListener = new RealmChangeListener<Realm>() {
             @Override
             public void onChange(Realm element) {
                 mAdapter.notifyDataSetChanged();
             }
-        });
+        };
+        realm.addChangeListener(changeListener);
 
         if (!FilterUtils.filterTagIds.isEmpty()) {
 
@@ -89,7 +92,8 @@ public class FilterActivity extends AppCompatActivity{
     protected void onDestroy() {
         super.onDestroy();
 
-        realm.removeAllChangeListeners();
-        realm.close();
+        // The UI thread's Realm is shared with the other activities, so only our listener goes
+        realm.removeChangeListener(changeListener);
+        RealmSessions.get().release();
     }
 }
@@ -9,6 +9,7 @@ import android.support.v4.content.res.ResourcesCompat;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.SearchView;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -17,25 +18,40 @@ import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import co.bstorm.aleksa.recipes.R;
 import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.CatalogSync;
+import co.bstorm.aleksa.recipes.api.DeltaSync;
 import co.bstorm.aleksa.recipes.api.FetchData;
+import co.bstorm.aleksa.recipes.api.NetworkScheduler;
+import co.bstorm.aleksa.recipes.api.RealmSessions;
+import co.bstorm.aleksa.recipes.api.RecipePager;
+import co.bstorm.aleksa.recipes.api.SeedCatalog;
+import co.bstorm.aleksa.recipes.api.SyncState;
+import co.bstorm.aleksa.recipes.api.TagIndex;
+import co.bstorm.aleksa.recipes.config.StartupOrchestrator;
+import co.bstorm.aleksa.recipes.config.StartupTimeline;
 import co.bstorm.aleksa.recipes.constants.Constants;
 import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.sync.SyncScheduler;
 import co.bstorm.aleksa.recipes.ui.adapter.RecipeListAdapter;
+import co.bstorm.aleksa.recipes.util.Diacritics;
 import co.bstorm.aleksa.recipes.util.FilterUtils;
 import io.realm.Realm;
 import io.realm.RealmChangeListener;
-import io.realm.RealmConfiguration;
-import io.realm.RealmQuery;
 import io.realm.RealmResults;
 import rx.Observable;
-import rx.Observer;
 import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.subscriptions.CompositeSubscription;
 
 public class MainActivity extends AppCompatActivity implements SearchView.OnQueryTextListener{
@@ -52,11 +68,16 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
 
     private Button mClearFilters;
 
+    private TextView mResyncProgress;
+
     private Menu mMenu;
 
     // Used to unsubscribe from observables at the end of lifecycle
     private CompositeSubscription cs;
 
+    // Loads the next page when scrolled to the bottom, by keyset position if possible
+    private RecipePager pager;
+
     // Indicates whether we are currently loading more items
     private boolean flagLoading = false;
 
@@ -70,16 +91,26 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        final StartupTimeline timeline = StartupTimeline.get();
+        timeline.mark("activity created");
+
         setContentView(R.layout.activity_main);
+        timeline.mark("layout inflated");
 
-        realm = Realm.getDefaultInstance();
+        realm = RealmSessions.get().acquire();
+        timeline.mark("realm opened");
 
         cs = new CompositeSubscription();
 
-        // Fetch all the data (recipes, tags and components) and add their subscriptions to the composite sub
-        cs.add(FetchData.fetchDataFromObservable(API.getOffsetRecipes(0), getApplicationContext()));
-        cs.add(FetchData.fetchDataFromObservable(API.getAllComponents(), getApplicationContext()));
-        cs.add(FetchData.fetchDataFromObservable(API.getAllTags(), getApplicationContext()));
+        // On the first run the bundled snapshot fills the list as soon as it's written, off the main thread
+        cs.add(SeedCatalog.installAsync(getApplicationContext(), new Action1<Integer>() {
+            @Override
+            public void call(Integer seeded) {
+                if (seeded > 0)
+                    timeline.mark("seed catalog installed (" + seeded + " recipes)");
+            }
+        }));
+        pager = new RecipePager(getApplicationContext());
 
         recipes = realm.where(Recipe.class).findAll();
         filteredRecipes = recipes;
@@ -87,6 +118,24 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
         mRecipesList = (ListView) findViewById(R.id.recipes_list);
         mAdapter = new RecipeListAdapter(this, recipes);
         mRecipesList.setAdapter(mAdapter);
+        timeline.mark("cached list bound");
+
+        // Nothing is fetched until the cached list is on screen, and then only what's stale
+        final StartupOrchestrator startup = createStartup(getApplicationContext());
+        StartupOrchestrator.runAfterFirstFrame(mRecipesList, new Runnable() {
+            @Override
+            public void run() {
+                for (Subscription subscription : startup.start()) {
+                    cs.add(subscription);
+                }
+                SyncScheduler.schedule(getApplicationContext());
+                // Anything liked last time that didn't make it out yet
+                FetchData.getLikeOutbox(getApplicationContext()).flush();
+
+                if (timeline.finish())
+                    Log.d(TAG, timeline.toString());
+            }
+        });
 
         mClearFilters = (Button) findViewById(R.id.clear_filters);
         mClearFilters.setOnClickListener(new View.OnClickListener() {
@@ -101,6 +150,22 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
             }
         });
 
+        // The background sync can be resyncing the whole catalog, show how far it got
+        mResyncProgress = (TextView) findViewById(R.id.resync_progress);
+        cs.add(CatalogSync.observeResyncProgress()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<Integer>() {
+                    @Override
+                    public void call(Integer ingested) {
+                        if (ingested == CatalogSync.NOT_RESYNCING) {
+                            mResyncProgress.setVisibility(View.GONE);
+                            return;
+                        }
+                        mResyncProgress.setText(getString(R.string.resync_progress_format, ingested));
+                        mResyncProgress.setVisibility(View.VISIBLE);
+                    }
+                }));
+
         // Set a footer view to be a simple progress bar
         final ProgressBar progressBar = new ProgressBar(this);
         progressBar.getIndeterminateDrawable().setColorFilter(Color.WHITE, android.graphics.PorterDuff.Mode.SRC_IN);
@@ -110,7 +175,13 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
         changeListener = new RealmChangeListener<Realm>() {
             @Override
             public void onChange(Realm element) {
-                mAdapter.notifyDataSetChanged();
+                // The filter matched the recipes that were there when it was applied, new ones get in when it's redone
+                if (!FilterUtils.filterTagIds.isEmpty()) {
+                    filteredRecipes = applyFilters(recipes);
+                    mAdapter.updateData(queryActive ? doQuery(lastQuery, filteredRecipes) : filteredRecipes);
+                }
+                else
+                    mAdapter.notifyDataSetChanged();
             }
         };
         realm.addChangeListener(changeListener);
@@ -131,6 +202,8 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
             public void onScroll(AbsListView view, int firstVisibleItem,
                                  final int visibleItemCount, final int totalItemCount) {
 
+                prefetchDetails(firstVisibleItem, visibleItemCount);
+
                 if(totalItemCount != 0 && firstVisibleItem + visibleItemCount == totalItemCount) {
                     // If we're already loading, or currently querying/filtering, we won't load new data
                     if(!flagLoading && !queryActive && FilterUtils.filterTagIds.isEmpty()) {
@@ -138,22 +211,21 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
 
                         mRecipesList.addFooterView(progressBar);
 
-                        // Get an observable for fetching offset recipes
-                        Observable<ArrayList<Recipe>> observable = API.getOffsetRecipes(totalItemCount);
-                        // Get an Observer interface for saving data to Realm
-                        final Observer<ArrayList<Recipe>> observer =
-                                FetchData.getObserverInterface(observable, getApplicationContext());
+                        // Get an observable for fetching the next page (offset is only used as a fallback)
+                        Observable<ArrayList<Recipe>> observable = pager.nextPage(totalItemCount);
 
-                        // Fetch data, store it to Realm, set flagLoading to false and store the subscription
+                        // Fetch the page, store it to Realm, set flagLoading to false and store the subscription
                         cs.add(FetchData.prepareObservable(observable, getApplicationContext())
-                                .subscribe(new Subscriber<ArrayList<Recipe>>() {
+                                .subscribe(new Subscriber<Integer>() {
                                     @Override
                                     public void onCompleted() {
-                                        observer.onCompleted();
-
-                                        Realm newRealm = Realm.getInstance(new RealmConfiguration.Builder(MainActivity.this).build());
-                                        long count = newRealm.where(Recipe.class).count();
-                                        newRealm.close();
+                                        long count;
+                                        Realm newRealm = RealmSessions.get().acquire();
+                                        try {
+                                            count = newRealm.where(Recipe.class).count();
+                                        } finally {
+                                            RealmSessions.get().release();
+                                        }
                                         // If we fetched anything, we just remove the loading flag
                                         // otherwise, we disable further updates by keeping the loading flag
                                         if (count > totalItemCount)
@@ -169,7 +241,7 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
                                     }
                                     @Override
                                     public void onError(Throwable e) {
-                                        observer.onError(e);
+                                        FetchData.showFetchError(getApplicationContext(), e);
                                         flagLoading = false;
                                         runOnUiThread(new Runnable() {
                                             @Override
@@ -180,8 +252,9 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
                                         });
                                     }
                                     @Override
-                                    public void onNext(ArrayList<Recipe> recipes) {
-                                        observer.onNext(recipes);
+                                    public void onNext(Integer written) {
+                                        // Written, so we can move past it for good
+                                        pager.onPageWritten();
                                     }
                                 }));
                     }
@@ -190,6 +263,68 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
         });
     }
 
+    /**
+     * Sets up the startup fetches, most urgent first
+     * Until the catalog was filled in full once (there's no watermark, like after the seed) we fill it
+     * with concurrent page requests, otherwise we only fetch what changed
+     */
+    private StartupOrchestrator createStartup(final Context context) {
+        final boolean unfilled = DeltaSync.getWatermark(context) == null;
+
+        return new StartupOrchestrator(
+                new StartupOrchestrator.Freshness() {
+                    @Override
+                    public boolean isStale(String entity) {
+                        return (unfilled && SyncState.RECIPES.equals(entity)) || SyncState.isStale(context, entity);
+                    }
+                },
+                StartupTimeline.get())
+                .add(SyncState.RECIPES, NetworkScheduler.Priority.INTERACTIVE, new Func0<Subscription>() {
+                    @Override
+                    public Subscription call() {
+                        if (unfilled)
+                            return FetchData.prefetchCatalog(context);
+                        return DeltaSync.sync(context);
+                    }
+                })
+                .add(SyncState.COMPONENTS, NetworkScheduler.Priority.BACKGROUND, new Func0<Subscription>() {
+                    @Override
+                    public Subscription call() {
+                        return FetchData.fetchDataFromObservable(
+                                SyncState.recording(context, SyncState.COMPONENTS, FetchData.prepareObservable(
+                                        API.streamAllComponents(), FetchData.COMPONENTS_TYPE, context)),
+                                context);
+                    }
+                })
+                .add(SyncState.TAGS, NetworkScheduler.Priority.BACKGROUND, new Func0<Subscription>() {
+                    @Override
+                    public Subscription call() {
+                        return FetchData.fetchDataFromObservable(
+                                SyncState.recording(context, SyncState.TAGS, FetchData.prepareObservable(
+                                        API.streamAllTags(), FetchData.TAGS_TYPE, context)),
+                                context);
+                    }
+                });
+    }
+
+    /**
+     * Lets the detail prefetcher know which recipes are on screen (and just below it)
+     * so their details are there by the time they're opened
+     */
+    private void prefetchDetails(int firstVisibleItem, int visibleItemCount){
+        int end = Math.min(mAdapter.getCount(),
+                firstVisibleItem + visibleItemCount + Constants.PrefetchConstants.DETAIL_LOOKAHEAD);
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = firstVisibleItem; i < end; i++) {
+            Recipe recipe = mAdapter.getItem(i);
+            if (recipe != null && recipe.isValid() && !recipe.isDetailLoaded())
+                ids.add(recipe.getId());
+        }
+
+        FetchData.getDetailPrefetcher().onViewport(ids);
+    }
+
     /**
      * Launches the details activity for the given recipe ID
      * @param id ID of the recipe whose details we want
@@ -258,10 +393,12 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
         super.onDestroy();
 
         cs.unsubscribe();
+        FetchData.getDetailPrefetcher().cancelAll();
 
-        recipes.removeChangeListener(changeListener);
+        // The UI thread's Realm outlives the activity, so the listener has to go
+        realm.removeChangeListener(changeListener);
 
-        realm.close();
+        RealmSessions.get().release();
     }
 
     @Override
@@ -289,10 +426,9 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
         lastQuery = newText;
         if (newText != null && newText.length() > 0) {
             queryActive = true;
-            String query = newText.toLowerCase();
-
-            // A hack since Realm doesn't support case insensitive search for non-english locales
-            return base.where().contains(DbColumns.Recipe.TITLE_LOWER, query).findAll();
+            // Realm doesn't support case insensitive search for non-english locales, so we search
+            // the folded title, which also finds "čokolada" when "cokolada" is typed
+            return base.where().contains(DbColumns.Recipe.TITLE_FOLDED, Diacritics.fold(newText)).findAll();
         }
         else {
             queryActive = false;
@@ -310,18 +446,8 @@ public class MainActivity extends AppCompatActivity implements SearchView.OnQuer
 
             mClearFilters.setVisibility(View.VISIBLE);
 
-            RealmQuery<Recipe> filteredRecipesQuery = base.where();
-
-            boolean passedFirstItem = false;
-            for (Integer id : FilterUtils.filterTagIds) {
-                if (passedFirstItem)
-                    filteredRecipesQuery = filteredRecipesQuery.or();
-                else
-                    passedFirstItem = true;
-                filteredRecipesQuery = filteredRecipesQuery.equalTo(DbColumns.Recipe.TAGS + "." + DbColumns.RecipeTag.ID, id);
-
-            }
-            return filteredRecipesQuery.findAll();
+            // Through the tag index, not the tags of every recipe
+            return TagIndex.withAnyTag(realm, base.where(), FilterUtils.filterTagIds).findAll();
         }
         else {
             mClearFilters.setVisibility(View.GONE);
@@ -6,6 +6,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.widget.ExpandableListView;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.RealmSessions;
 import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.ShoppingItem;
 import co.bstorm.aleksa.recipes.ui.adapter.ShoppingExpandableAdapter;
@@ -31,7 +32,7 @@ public class ShoppingActivity extends AppCompatActivity {
         getSupportActionBar().setTitle(R.string.shopping_activity_title);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
-        realm = Realm.getDefaultInstance();
+        realm = RealmSessions.get().acquire();
 
         shoppingItems = realm.where(ShoppingItem.class).isNotEmpty(DbColumns.ShoppingItem.INGREDIENTS).findAll();
         componentChangeListener = new RealmChangeListener<RealmResults<ShoppingItem>>() {
@@ -55,6 +56,6 @@ public class ShoppingActivity extends AppCompatActivity {
         super.onDestroy();
 
         shoppingItems.removeChangeListener(componentChangeListener);
-        realm.close();
+        RealmSessions.get().release();
     }
 }
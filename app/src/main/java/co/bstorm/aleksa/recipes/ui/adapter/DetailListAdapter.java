@@ -13,6 +13,9 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.RealmSessions;
+import co.bstorm.aleksa.recipes.api.RealmWriter;
+import co.bstorm.aleksa.recipes.api.WriteQueue;
 import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.Component;
 import co.bstorm.aleksa.recipes.pojo.Ingredient;
@@ -179,11 +182,9 @@ public class DetailListAdapter extends RealmBaseAdapter {
 
         holder.componentView.setText(component != null ? component.getName() : "");
 
-        Realm realm = Realm.getDefaultInstance();
-        ShoppingItem item = realm.where(ShoppingItem.class)
-                .equalTo(DbColumns.ShoppingItem.COMPONENT + "." + DbColumns.Component.ID, component.getId())
+        ShoppingItem item = RealmSessions.get().current().where(ShoppingItem.class)
+                .equalTo(DbColumns.ShoppingItem.COMPONENT + "." + DbColumns.Component.ID, ingredient.getComponentId())
                 .findFirst();
-        realm.close();
 
         boolean inShoppingList = item != null && item.getIngredients().contains(ingredient);
 
@@ -195,28 +196,40 @@ public class DetailListAdapter extends RealmBaseAdapter {
         }
 
         // Attach the add/remove from shopping list logic
+        // The write happens on the writer thread, so it looks the objects up again by their keys
+        final int componentId = ingredient.getComponentId();
+        final long ingredientId = ingredient.getUniqueId();
         holder.shoppingView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Realm realm = Realm.getDefaultInstance();
-                realm.beginTransaction();
-
-                ShoppingItem item = realm.where(co.bstorm.aleksa.recipes.pojo.ShoppingItem.class)
-                        .equalTo(DbColumns.ShoppingItem.COMPONENT + "." + DbColumns.Component.ID, component.getId())
-                        .findFirst();
-
-                if (item == null){
-                    item = realm.createObject(ShoppingItem.class);
-                    item.setComponent(ingredient.getComponent());
-                }
-
-                if (!item.getIngredients().contains(ingredient))
-                    item.getIngredients().add(ingredient);
-                else
-                    item.getIngredients().remove(ingredient);
-
-                realm.commitTransaction();
-                realm.close();
+                RealmWriter.get().post(new WriteQueue.Write<Realm>() {
+                    @Override
+                    public int write(Realm realm) {
+                        Ingredient ingredient = realm.where(Ingredient.class)
+                                .equalTo(DbColumns.Ingredient.ID, ingredientId)
+                                .findFirst();
+                        Component component = realm.where(Component.class)
+                                .equalTo(DbColumns.Component.ID, componentId)
+                                .findFirst();
+                        if (ingredient == null || component == null)
+                            return 0;
+
+                        ShoppingItem item = realm.where(ShoppingItem.class)
+                                .equalTo(DbColumns.ShoppingItem.COMPONENT + "." + DbColumns.Component.ID, componentId)
+                                .findFirst();
+
+                        if (item == null){
+                            item = realm.createObject(ShoppingItem.class);
+                            item.setComponent(component);
+                        }
+
+                        if (!item.getIngredients().contains(ingredient))
+                            item.getIngredients().add(ingredient);
+                        else
+                            item.getIngredients().remove(ingredient);
+                        return 1;
+                    }
+                });
             }
         });
     }
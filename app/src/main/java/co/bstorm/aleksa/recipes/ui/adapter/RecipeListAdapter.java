@@ -14,6 +14,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.FetchData;
 import co.bstorm.aleksa.recipes.constants.Constants;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
 import co.bstorm.aleksa.recipes.ui.widget.SquareImageView;
@@ -32,6 +33,10 @@ public class RecipeListAdapter extends RealmBaseAdapter<Recipe> {
     // A string representing format in which preparation time should be displayed
     private static final String PREP_TIME_FORMAT = "%d min";
 
+    // The likes of recipes the user didn't like are dimmed
+    private static final float LIKED_ALPHA = 1f;
+    private static final float NOT_LIKED_ALPHA = 0.6f;
+
     LayoutInflater inflater;
 
     int screenWidth;
@@ -72,6 +77,14 @@ public class RecipeListAdapter extends RealmBaseAdapter<Recipe> {
             holder.prepTimeView = (TextView) convertView.findViewById(R.id.list_item_prep_time);
             holder.imageView = (SquareImageView) convertView.findViewById(R.id.list_item_image);
 
+            // Tapping the likes likes the recipe (or unlikes it), the rest of the item still opens it
+            holder.likesView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    FetchData.getLikeOutbox(context.getApplicationContext()).toggle((Integer) v.getTag());
+                }
+            });
+
             convertView.setTag(holder);
         }
         else {
@@ -84,6 +97,8 @@ public class RecipeListAdapter extends RealmBaseAdapter<Recipe> {
         holder.difficultyView.setText(Constants.DIFFICULTIES.get(recipe.getDifficulty()));
         holder.prepTimeView.setText(String.format(PREP_TIME_FORMAT, recipe.getPreparationTime()));
         holder.likesView.setText(String.valueOf(recipe.getLikes()));
+        holder.likesView.setAlpha(recipe.isLiked() ? LIKED_ALPHA : NOT_LIKED_ALPHA);
+        holder.likesView.setTag(recipe.getId());
         Glide.with(context)
                 .load(recipe.getImageUrl())
                 .centerCrop()
@@ -9,6 +9,9 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import co.bstorm.aleksa.recipes.R;
+import co.bstorm.aleksa.recipes.api.RealmWriter;
+import co.bstorm.aleksa.recipes.api.WriteQueue;
+import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.Ingredient;
 import co.bstorm.aleksa.recipes.pojo.ShoppingItem;
 import io.realm.Realm;
@@ -109,16 +112,27 @@ public class ShoppingExpandableAdapter extends BaseExpandableListAdapter {
 
         shoppingButton.setImageResource(R.drawable.shopping_remove);
 
+        // The write happens on the writer thread, so it looks the objects up again by their keys
+        final int componentId = shoppingItems.get(groupPosition).getComponent().getId();
+        final long ingredientId = ingredient.getUniqueId();
         shoppingButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Realm realm = Realm.getDefaultInstance();
-                realm.beginTransaction();
-
-                shoppingItems.get(groupPosition).getIngredients().remove(ingredient);
-
-                realm.commitTransaction();
-                realm.close();
+                RealmWriter.get().post(new WriteQueue.Write<Realm>() {
+                    @Override
+                    public int write(Realm realm) {
+                        ShoppingItem item = realm.where(ShoppingItem.class)
+                                .equalTo(DbColumns.ShoppingItem.COMPONENT + "." + DbColumns.Component.ID, componentId)
+                                .findFirst();
+                        Ingredient ingredient = realm.where(Ingredient.class)
+                                .equalTo(DbColumns.Ingredient.ID, ingredientId)
+                                .findFirst();
+                        if (item == null || ingredient == null)
+                            return 0;
+
+                        return item.getIngredients().remove(ingredient) ? 1 : 0;
+                    }
+                });
             }
         });
 
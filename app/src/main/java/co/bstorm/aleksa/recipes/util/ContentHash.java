@@ -0,0 +1,57 @@
+package co.bstorm.aleksa.recipes.util;
+
+/**
+ * Created by aleksa on 8/18/16.
+ *
+ * Builds a compact 64-bit hash (FNV-1a) of an object's content, used to tell whether a fetched
+ * object differs from the one we already have stored
+ *
+ * Not meant to be cryptographically strong, only cheap and well spread
+ */
+public class ContentHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long hash = OFFSET_BASIS;
+
+    public ContentHash add(int value) {
+        mix(value);
+        mix(value >>> 8);
+        mix(value >>> 16);
+        mix(value >>> 24);
+        return this;
+    }
+
+    public ContentHash add(long value) {
+        add((int) value);
+        return add((int) (value >>> 32));
+    }
+
+    public ContentHash add(float value) {
+        return add(Float.floatToIntBits(value));
+    }
+
+    public ContentHash add(String value) {
+        // Distinguishes null from empty
+        if (value == null)
+            return add(-1);
+
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            mix(c);
+            mix(c >>> 8);
+        }
+        // The length keeps ("ab", "c") and ("a", "bc") apart
+        return add(value.length());
+    }
+
+    public long get() {
+        return hash;
+    }
+
+    private void mix(int octet) {
+        hash ^= octet & 0xff;
+        hash *= PRIME;
+    }
+}
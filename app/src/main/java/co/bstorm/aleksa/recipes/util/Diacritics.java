@@ -0,0 +1,40 @@
+package co.bstorm.aleksa.recipes.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Folds titles (and what's searched for) to lowercase without diacritics, so "cokolada" finds "Čokolada"
+ *
+ * Done once per recipe as it's ingested, the folded title is stored next to the real one
+ */
+public class Diacritics {
+
+    // What's left of the letters once they're decomposed, č becomes c and a combining caron
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    public static String fold(String text) {
+        if (text == null)
+            return null;
+
+        String lower = text.toLowerCase(Locale.ROOT);
+        // Nothing to fold, which is most of the titles in English
+        if (isAscii(lower))
+            return lower;
+
+        String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        // đ doesn't decompose, and it's written as dj without the diacritics
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").replace("đ", "dj");
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127)
+                return false;
+        }
+        return true;
+    }
+}
@@ -3,6 +3,7 @@ package co.bstorm.aleksa.recipes.util;
 import java.util.HashSet;
 import java.util.Set;
 
+import co.bstorm.aleksa.recipes.api.RealmSessions;
 import co.bstorm.aleksa.recipes.constants.DbColumns;
 import co.bstorm.aleksa.recipes.pojo.TagCategory;
 import io.realm.Realm;
@@ -29,7 +30,8 @@ public class FilterUtils {
         if (filterTagIds.isEmpty())
             return new HashSet<>();
 
-        Realm realm = Realm.getDefaultInstance();
+        // Called on the UI thread, which keeps its Realm
+        Realm realm = RealmSessions.get().current();
 
         // Find all cate
         RealmQuery<TagCategory> categories = realm.where(TagCategory.class);
@@ -48,8 +50,6 @@ public class FilterUtils {
 
         RealmResults<TagCategory> tagCategories =  categories.findAll();
 
-        realm.close();
-
         Set<Integer> tagIdsSet = new HashSet<>();
 
         for (TagCategory category :
@@ -0,0 +1,130 @@
+package co.bstorm.aleksa.recipes.util;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+
+/**
+ * Created by aleksa on 9/4/16.
+ *
+ * The fixed table of codes preferred measures and quantity types are stored as, instead of strings
+ *
+ * Strings are mapped to codes once, before they're written, and the unit shown for an ingredient is
+ * then a lookup in a small table, no string comparisons. A string we don't know gets the OTHER code
+ * and is stored as it came, so it still makes it back out (and shows up as its own unit)
+ *
+ * The codes are stored in Realm, so they can only be added to, never renumbered
+ */
+public class MeasureCodes {
+
+    // Common to both, no value at all
+    public static final int NONE = 0;
+    // Common to both, a string that's not in the table (stored next to the code)
+    public static final int OTHER = 1;
+
+    public static final int QUANTITY_TYPE_WEIGHT = 2;
+    public static final int QUANTITY_TYPE_VOLUME = 3;
+    public static final int QUANTITY_TYPE_NUMBER = 4;
+
+    public static final int MEASURE_REGULAR = 2;
+    public static final int MEASURE_THOUSAND = 3;
+    public static final int MEASURE_CUP = 4;
+    public static final int MEASURE_TABLESPOON = 5;
+    public static final int MEASURE_TEASPOON = 6;
+
+    // Indexed by code, the first two have no string of their own
+    private static final String[] QUANTITY_TYPES = {
+            null,
+            null,
+            Constants.Measures.QUANTITY_TYPE_WEIGHT,
+            Constants.Measures.QUANTITY_TYPE_VOLUME,
+            Constants.Measures.QUANTITY_TYPE_NUMBER,
+    };
+
+    private static final String[] MEASURES = {
+            null,
+            null,
+            Constants.Measures.PREFERRED_MEASURE_REGULAR,
+            Constants.Measures.PREFERRED_MEASURE_THOUSAND,
+            Constants.Measures.PREFERRED_MEASURE_CUP,
+            Constants.Measures.PREFERRED_MEASURE_TABLESPOON,
+            Constants.Measures.PREFERRED_MEASURE_TEASPOON,
+    };
+
+    // Unit for [measure][quantity type], null where it's the measure itself (only for ones we don't know)
+    private static final String[][] UNITS = {
+            // No measure
+            {"", "", "", "", ""},
+            // Unknown measure
+            {"", null, null, null, Constants.Measures.NUMBER_UNIT},
+            // Regular
+            {"", "", Constants.Measures.WEIGHT_UNIT_GRAM, Constants.Measures.VOLUME_UNIT_MILLILITER,
+                    Constants.Measures.NUMBER_UNIT},
+            // Thousand means grams in weight and milliliters in volume
+            {"", Constants.Measures.PREFERRED_MEASURE_THOUSAND, Constants.Measures.WEIGHT_UNIT_GRAM,
+                    Constants.Measures.VOLUME_UNIT_MILLILITER, Constants.Measures.NUMBER_UNIT},
+            // Cup
+            {"", Constants.Measures.PREFERRED_MEASURE_CUP, Constants.Measures.PREFERRED_MEASURE_CUP,
+                    Constants.Measures.PREFERRED_MEASURE_CUP, Constants.Measures.NUMBER_UNIT},
+            // Tablespoon
+            {"", Constants.Measures.PREFERRED_MEASURE_TABLESPOON, Constants.Measures.PREFERRED_MEASURE_TABLESPOON,
+                    Constants.Measures.PREFERRED_MEASURE_TABLESPOON, Constants.Measures.NUMBER_UNIT},
+            // Teaspoon
+            {"", Constants.Measures.PREFERRED_MEASURE_TEASPOON, Constants.Measures.PREFERRED_MEASURE_TEASPOON,
+                    Constants.Measures.PREFERRED_MEASURE_TEASPOON, Constants.Measures.NUMBER_UNIT},
+    };
+
+    public static int quantityTypeCode(String quantityType) {
+        return code(QUANTITY_TYPES, quantityType);
+    }
+
+    public static int measureCode(String measure) {
+        return code(MEASURES, measure);
+    }
+
+    /**
+     * @param code The stored code
+     * @param other The stored string, there for OTHER (and for NONE until it's encoded)
+     * @return The quantity type as it came from the server
+     */
+    public static String quantityType(int code, String other) {
+        return string(QUANTITY_TYPES, code, other);
+    }
+
+    public static String measure(int code, String other) {
+        return string(MEASURES, code, other);
+    }
+
+    /**
+     * @param measure Code of the preferred measure
+     * @param otherMeasure The stored measure, only there for OTHER
+     * @param quantityType Code of the component's quantity type
+     * @return The unit to show after the amount
+     */
+    public static String unit(int measure, String otherMeasure, int quantityType) {
+        // Codes from a newer version of the table don't mean anything to us
+        if (measure < 0 || measure >= UNITS.length)
+            measure = OTHER;
+        if (quantityType < 0 || quantityType >= QUANTITY_TYPES.length)
+            quantityType = OTHER;
+
+        String unit = UNITS[measure][quantityType];
+        if (unit != null)
+            return unit;
+        return otherMeasure != null ? otherMeasure : "";
+    }
+
+    private static int code(String[] table, String value) {
+        if (value == null)
+            return NONE;
+        for (int code = OTHER + 1; code < table.length; code++) {
+            if (table[code].equals(value))
+                return code;
+        }
+        return OTHER;
+    }
+
+    private static String string(String[] table, int code, String other) {
+        if (code <= OTHER || code >= table.length)
+            return other;
+        return table[code];
+    }
+}
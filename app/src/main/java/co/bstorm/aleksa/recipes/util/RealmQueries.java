@@ -0,0 +1,30 @@
+package co.bstorm.aleksa.recipes.util;
+
+import java.util.Collection;
+
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Query conditions Realm doesn't have (yet)
+ */
+public class RealmQueries {
+
+    /**
+     * Realm 1.1 has no in(), so it's a group of ors
+     * The values can't be empty, since an empty group isn't a valid query
+     */
+    public static <E extends RealmModel> RealmQuery<E> whereIn(RealmQuery<E> query, String field, Collection<Integer> values) {
+        query.beginGroup();
+        boolean first = true;
+        for (Integer value : values) {
+            if (!first)
+                query.or();
+            first = false;
+            query.equalTo(field, value);
+        }
+        return query.endGroup();
+    }
+}
@@ -0,0 +1,166 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.CatalogPrefetcher;
+import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/15/16.
+ *
+ * Runs the catalog prefetcher against a local stub server that answers later pages faster,
+ * so pages complete out of order
+ */
+public class CatalogPrefetcherUnitTest {
+
+    private static final int PAGE_SIZE = Constants.PrefetchConstants.PAGE_SIZE;
+
+    private MockWebServer server;
+    private RecipesApiInterface api;
+
+    // Number of recipes the stub server has
+    private int catalogSize;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    // Offsets and sizes of committed pages, in commit order
+    private final List<Integer> committedOffsets = new ArrayList<>();
+    private final List<Integer> committedSizes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                requests.incrementAndGet();
+                int current = inFlight.incrementAndGet();
+                while (true) {
+                    int max = maxInFlight.get();
+                    if (current <= max || maxInFlight.compareAndSet(max, current))
+                        break;
+                }
+
+                int offset = Integer.parseInt(request.getPath().replaceAll(".*offset=(\\d+).*", "$1"));
+
+                // Earlier pages are slower, so they finish after the ones that follow them
+                Thread.sleep(Math.max(0, 200 - offset));
+
+                inFlight.decrementAndGet();
+                return new MockResponse().setBody(page(offset));
+            }
+        });
+        server.start();
+
+        api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(API.getGson()))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(RecipesApiInterface.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Checks that pages are committed in offset order and the fill stops at the short page
+     */
+    @Test
+    public void commitsInOffsetOrderTest() {
+        catalogSize = 3 * PAGE_SIZE + 20;
+
+        run(4, 40);
+
+        assertEquals(Arrays.asList(0, PAGE_SIZE, 2 * PAGE_SIZE, 3 * PAGE_SIZE), committedOffsets);
+        assertEquals(Arrays.asList(PAGE_SIZE, PAGE_SIZE, PAGE_SIZE, 20), committedSizes);
+        assertTrue(maxInFlight.get() <= 4);
+    }
+
+    /**
+     * Checks that an empty page ends the fill without committing anything
+     */
+    @Test
+    public void stopsOnEmptyPageTest() {
+        catalogSize = 2 * PAGE_SIZE;
+
+        run(2, 40);
+
+        assertEquals(Arrays.asList(0, PAGE_SIZE), committedOffsets);
+        // The window never runs more than one page past the empty one
+        assertTrue(requests.get() <= 4);
+    }
+
+    /**
+     * Checks the concurrency limit and the maximum page count
+     */
+    @Test
+    public void respectsLimitsTest() {
+        catalogSize = 20 * PAGE_SIZE;
+
+        run(3, 5);
+
+        assertEquals(5, committedOffsets.size());
+        assertEquals(5, requests.get());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    private void run(int maxConcurrentPages, int maxPages) {
+        CatalogPrefetcher.PageSource source = new CatalogPrefetcher.PageSource() {
+            @Override
+            public List<Recipe> fetchPage(int offset) {
+                return RecipeBodies.parse(api.streamOffsetRecipes(offset, Constants.APIConstants.SUMMARY_FIELDS));
+            }
+        };
+
+        CatalogPrefetcher.PageSink sink = new CatalogPrefetcher.PageSink() {
+            @Override
+            public void commit(int offset, List<Recipe> page) {
+                committedOffsets.add(offset);
+                committedSizes.add(page.size());
+                assertEquals(offset + 1, page.get(0).getId());
+            }
+        };
+
+        new CatalogPrefetcher(source, sink, maxConcurrentPages, maxPages)
+                .prefetch(0)
+                .toList()
+                .toBlocking()
+                .single();
+    }
+
+    // Builds the stub server response for the given offset
+    private String page(int offset) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        for (int id = offset + 1; id <= Math.min(offset + PAGE_SIZE, catalogSize); id++) {
+            if (id > offset + 1)
+                builder.append(',');
+            builder.append("{\"id\":\"").append(id).append("\",\"title\":\"Recipe ").append(id).append("\"}");
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,162 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.CatalogPrefetcher;
+import co.bstorm.aleksa.recipes.api.DeltaSync;
+import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/17/16.
+ *
+ * Runs the delta sync fetch against a local stub server that honors updated_since
+ */
+public class DeltaSyncUnitTest {
+
+    private static final int CATALOG_SIZE = 200;
+
+    private MockWebServer server;
+    private RecipesApiInterface api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+                String since = url.queryParameter("updated_since");
+                int offset = Integer.parseInt(url.queryParameter("offset"));
+                return new MockResponse().setBody(changedPage(since, offset));
+            }
+        });
+        server.start();
+
+        api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(API.getGson()))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(RecipesApiInterface.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Checks that only the recipes changed after the watermark come back, page by page
+     */
+    @Test
+    public void fetchesOnlyChangesTest() throws Exception {
+        // Recipes 131 - 200 are newer than this
+        List<Recipe> changes = DeltaSync.fetchChanges(source(updatedAt(130)));
+
+        assertEquals(70, changes.size());
+        for (Recipe recipe : changes) {
+            assertTrue(recipe.getUpdatedAt().compareTo(updatedAt(130)) > 0);
+        }
+        // One full page and one short one
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /**
+     * Checks that tombstones come through with is_deleted set
+     */
+    @Test
+    public void parsesTombstonesTest() throws Exception {
+        List<Recipe> changes = DeltaSync.fetchChanges(source(updatedAt(190)));
+
+        int deleted = 0;
+        for (Recipe recipe : changes) {
+            if (recipe.isDeleted())
+                deleted++;
+        }
+        // Every tenth recipe is deleted
+        assertEquals(1, deleted);
+    }
+
+    /**
+     * Checks that a sync with nothing new is a single small request
+     */
+    @Test
+    public void steadyStateTest() throws Exception {
+        List<Recipe> changes = DeltaSync.fetchChanges(source(updatedAt(CATALOG_SIZE)));
+
+        assertEquals(0, changes.size());
+        assertEquals(1, server.getRequestCount());
+        assertTrue(server.takeRequest().getPath().contains("updated_since="));
+    }
+
+    /**
+     * Checks that the newest updated_at of a fill is found across its pages, whatever order they're in
+     */
+    @Test
+    public void newestUpdateTest() throws Exception {
+        List<Recipe> changes = DeltaSync.fetchChanges(source(updatedAt(0)));
+
+        String newest = DeltaSync.newestUpdate(changes.subList(100, changes.size()), null);
+        newest = DeltaSync.newestUpdate(changes.subList(0, 100), newest);
+        assertEquals(updatedAt(CATALOG_SIZE), newest);
+
+        // Recipes without updated_at don't count
+        assertEquals(updatedAt(5), DeltaSync.newestUpdate(Collections.singletonList(new Recipe()), updatedAt(5)));
+        assertNull(DeltaSync.newestUpdate(Collections.<Recipe>emptyList(), null));
+    }
+
+    private CatalogPrefetcher.PageSource source(final String watermark) {
+        return new CatalogPrefetcher.PageSource() {
+            @Override
+            public List<Recipe> fetchPage(int offset) {
+                return RecipeBodies.parse(api.streamChangedRecipes(watermark, offset, Constants.APIConstants.SUMMARY_FIELDS));
+            }
+        };
+    }
+
+    // Recipe n was updated n minutes after midnight
+    private static String updatedAt(int id) {
+        return String.format("2016-08-01 %02d:%02d:00", id / 60, id % 60);
+    }
+
+    // Builds the stub server response, with recipes changed after the given time
+    private static String changedPage(String since, int offset) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        int skipped = 0;
+        int written = 0;
+        for (int id = 1; id <= CATALOG_SIZE && written < Constants.PrefetchConstants.PAGE_SIZE; id++) {
+            if (updatedAt(id).compareTo(since) <= 0)
+                continue;
+            if (skipped++ < offset)
+                continue;
+            if (written++ > 0)
+                builder.append(',');
+            builder.append("{\"id\":\"").append(id)
+                    .append("\",\"title\":\"Recipe ").append(id)
+                    .append("\",\"updated_at\":\"").append(updatedAt(id))
+                    .append("\",\"is_deleted\":\"").append(id % 10 == 0 ? 1 : 0)
+                    .append("\"}");
+        }
+        return builder.append("]}").toString();
+    }
+}
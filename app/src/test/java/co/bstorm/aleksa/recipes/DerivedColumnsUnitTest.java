@@ -0,0 +1,226 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.api.RecipeTransform;
+import co.bstorm.aleksa.recipes.api.TagIndex;
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.RecipeTag;
+import co.bstorm.aleksa.recipes.pojo.Step;
+import co.bstorm.aleksa.recipes.pojo.TaggedRecipe;
+import co.bstorm.aleksa.recipes.util.Diacritics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Checks the columns derived at ingest and the tag index rows, and times Java loops over plain objects
+ * that mirror the filters (a lookup by tag, a derived column) against following the linked objects
+ */
+public class DerivedColumnsUnitTest {
+
+    private static final int CATALOG_SIZE = 10000;
+
+    /**
+     * Checks that titles are folded to lowercase without diacritics, and ASCII ones only lowercased
+     */
+    @Test
+    public void foldsDiacriticsTest() {
+        assertEquals("cokoladna torta sa visnjama", Diacritics.fold("Čokoladna Torta Sa Višnjama"));
+        assertEquals("djuvec", Diacritics.fold("Đuveč"));
+        assertEquals("creme brulee", Diacritics.fold("Crème Brûlée"));
+        assertEquals("apple pie 2", Diacritics.fold("Apple Pie 2"));
+        assertNull(Diacritics.fold(null));
+    }
+
+    /**
+     * Checks that a recipe with details gets its counts and timers, and a summary gets zeros
+     */
+    @Test
+    public void derivesColumnsTest() {
+        Recipe recipe = SyntheticCatalog.recipe(7);
+        RecipeTransform.prepare(recipe);
+
+        assertEquals("cokoladna torta sa visnjama 7", recipe.getTitleFolded());
+        assertEquals(SyntheticCatalog.INGREDIENTS, recipe.getIngredientCount());
+        assertEquals(SyntheticCatalog.STEPS, recipe.getStepCount());
+        assertEquals(timerMinutes(recipe), recipe.getTimerMinutes());
+        assertNotEquals(0, recipe.getTimerMinutes());
+
+        Recipe summary = SyntheticCatalog.recipe(8);
+        summary.setSteps(null);
+        summary.setIngredients(null);
+        RecipeTransform.prepare(summary);
+
+        assertEquals(0, summary.getIngredientCount());
+        assertEquals(0, summary.getStepCount());
+        assertEquals(0, summary.getTimerMinutes());
+    }
+
+    /**
+     * Checks that the tag index has a row for every tag of every recipe, with keys that don't collide
+     */
+    @Test
+    public void tagRowsTest() {
+        Recipe recipe = SyntheticCatalog.recipe(7);
+        Recipe untagged = SyntheticCatalog.recipe(8);
+        untagged.setTags(null);
+
+        List<TaggedRecipe> rows = TagIndex.rows(Arrays.asList(recipe, untagged));
+        assertEquals(recipe.getTags().size(), rows.size());
+
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            TaggedRecipe row = rows.get(i);
+            assertEquals(recipe.getId(), row.getRecipeId());
+            assertEquals(recipe.getTags().get(i).getId(), row.getTagId());
+            assertEquals(Ingredient.uniqueId(recipe.getId(), row.getTagId()), row.getKey());
+            assertTrue(keys.add(row.getKey()));
+        }
+
+        // Recipe 3 with tag 13 and recipe 13 with tag 3 are different rows
+        assertNotEquals(TaggedRecipe.of(3, 13).getKey(), TaggedRecipe.of(13, 3).getKey());
+    }
+
+    /**
+     * Times Java loops over 10k plain Recipe objects, filtering by tags and by total timer: once
+     * following each recipe's linked objects, once through a map from tag id to recipe ids built from
+     * the tag index rows, and once reading the derived timer field
+     *
+     * This is not a measurement of Realm query latency. Realm doesn't run on the JVM, and a HashMap
+     * and a field read say nothing about its indexes or column scans, the loops only show how much
+     * work each shape of the data leaves per recipe. Not a pass/fail test beyond all of them finding
+     * the same recipes, it prints the numbers
+     */
+    @Test
+    public void pojoLoopBenchmarkTest() {
+        List<Recipe> recipes = SyntheticCatalog.recipes(CATALOG_SIZE);
+        for (Recipe recipe : recipes) {
+            RecipeTransform.prepare(recipe);
+        }
+
+        List<Integer> tagIds = Arrays.asList(3, 17, 29);
+        int maxMinutes = 60;
+
+        Map<Integer, List<Integer>> byTag = tagMap(TagIndex.rows(recipes));
+
+        assertEquals(byTagLinks(recipes, tagIds), byTagMap(byTag, tagIds));
+        assertEquals(byTimerLinks(recipes, maxMinutes), byTimerColumn(recipes, maxMinutes));
+
+        // Warms up the JIT on all the paths
+        for (int i = 0; i < 20; i++) {
+            byTagLinks(recipes, tagIds);
+            byTagMap(byTag, tagIds);
+            byTimerLinks(recipes, maxMinutes);
+            byTimerColumn(recipes, maxMinutes);
+        }
+
+        long tagLinks = Long.MAX_VALUE;
+        long tagMap = Long.MAX_VALUE;
+        long timerLinks = Long.MAX_VALUE;
+        long timerColumn = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            byTagLinks(recipes, tagIds);
+            tagLinks = Math.min(tagLinks, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            byTagMap(byTag, tagIds);
+            tagMap = Math.min(tagMap, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            byTimerLinks(recipes, maxMinutes);
+            timerLinks = Math.min(timerLinks, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            byTimerColumn(recipes, maxMinutes);
+            timerColumn = Math.min(timerColumn, System.nanoTime() - start);
+        }
+
+        System.out.println("Java loops over " + CATALOG_SIZE + " plain recipes (not Realm query latency)");
+        System.out.println(String.format("tags in %s: links %7.3f ms, tag map %7.3f ms",
+                tagIds, tagLinks / 1e6, tagMap / 1e6));
+        System.out.println(String.format("timers <= %d min: links %7.3f ms, column %7.3f ms",
+                maxMinutes, timerLinks / 1e6, timerColumn / 1e6));
+    }
+
+    // Every recipe's tags are followed and compared, like a query on "tags.id"
+    private static Set<Integer> byTagLinks(List<Recipe> recipes, List<Integer> tagIds) {
+        Set<Integer> matches = new HashSet<>();
+        for (Recipe recipe : recipes) {
+            for (RecipeTag tag : recipe.getTags()) {
+                if (tagIds.contains(tag.getId())) {
+                    matches.add(recipe.getId());
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    // The tag index rows grouped by tag, the plain object stand-in for the indexed tagId column
+    private static Map<Integer, List<Integer>> tagMap(List<TaggedRecipe> rows) {
+        Map<Integer, List<Integer>> byTag = new HashMap<>();
+        for (TaggedRecipe row : rows) {
+            List<Integer> recipeIds = byTag.get(row.getTagId());
+            if (recipeIds == null) {
+                recipeIds = new ArrayList<>();
+                byTag.put(row.getTagId(), recipeIds);
+            }
+            recipeIds.add(row.getRecipeId());
+        }
+        return byTag;
+    }
+
+    // Like TagIndex.withAnyTag, only the recipes with a selected tag are touched
+    private static Set<Integer> byTagMap(Map<Integer, List<Integer>> byTag, List<Integer> tagIds) {
+        Set<Integer> matches = new HashSet<>();
+        for (int tagId : tagIds) {
+            List<Integer> recipeIds = byTag.get(tagId);
+            matches.addAll(recipeIds == null ? Collections.<Integer>emptyList() : recipeIds);
+        }
+        return matches;
+    }
+
+    // Every recipe's steps are followed and added up
+    private static Set<Integer> byTimerLinks(List<Recipe> recipes, int maxMinutes) {
+        Set<Integer> matches = new HashSet<>();
+        for (Recipe recipe : recipes) {
+            if (timerMinutes(recipe) <= maxMinutes)
+                matches.add(recipe.getId());
+        }
+        return matches;
+    }
+
+    // Reads the derived field instead of the steps
+    private static Set<Integer> byTimerColumn(List<Recipe> recipes, int maxMinutes) {
+        Set<Integer> matches = new HashSet<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getTimerMinutes() <= maxMinutes)
+                matches.add(recipe.getId());
+        }
+        return matches;
+    }
+
+    private static int timerMinutes(Recipe recipe) {
+        int minutes = 0;
+        for (Step step : recipe.getSteps()) {
+            minutes += step.getTimer();
+        }
+        return minutes;
+    }
+}
@@ -0,0 +1,173 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.api.DetailPrefetcher;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/23/16.
+ *
+ * Checks how the detail prefetcher batches, cancels and budgets its requests
+ */
+public class DetailPrefetcherUnitTest {
+
+    private static final long BYTE_BUDGET = 1000;
+
+    private DetailPrefetcher prefetcher;
+
+    // Ids of each request, and the responses we control
+    private List<List<Integer>> requests;
+    private List<PublishSubject<ResponseBody>> responses;
+    private List<Recipe> written;
+
+    @Before
+    public void setUp() {
+        requests = new ArrayList<>();
+        responses = new ArrayList<>();
+        written = new ArrayList<>();
+
+        prefetcher = new DetailPrefetcher(
+                new DetailPrefetcher.BatchSource() {
+                    @Override
+                    public Observable<ResponseBody> fetch(List<Integer> ids) {
+                        PublishSubject<ResponseBody> response = PublishSubject.create();
+                        requests.add(ids);
+                        responses.add(response);
+                        return response;
+                    }
+                },
+                new DetailPrefetcher.BatchSink() {
+                    @Override
+                    public void write(List<Recipe> recipes) {
+                        written.addAll(recipes);
+                    }
+                },
+                Schedulers.immediate(), 4, BYTE_BUDGET);
+    }
+
+    /**
+     * Checks that the visible ids go out together, split only by the batch size
+     */
+    @Test
+    public void batchesVisibleIdsTest() {
+        prefetcher.onViewport(Arrays.asList(1, 2, 3, 4, 5, 6));
+
+        assertEquals(2, requests.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4), requests.get(0));
+        assertEquals(Arrays.asList(5, 6), requests.get(1));
+    }
+
+    /**
+     * Checks that scrolling a bit only asks for the newly visible ids
+     */
+    @Test
+    public void asksOnlyForNewIdsTest() {
+        prefetcher.onViewport(Arrays.asList(1, 2, 3));
+        prefetcher.onViewport(Arrays.asList(1, 2, 3));
+        prefetcher.onViewport(Arrays.asList(2, 3, 4));
+
+        assertEquals(2, requests.size());
+        assertEquals(Arrays.asList(4), requests.get(1));
+        // The first batch is still partly visible, so it keeps going
+        assertTrue(responses.get(0).hasObservers());
+        assertEquals(0, prefetcher.getCancelledCount());
+    }
+
+    /**
+     * Checks that a batch is cancelled once all its rows scroll away, and asked for again when they're back
+     */
+    @Test
+    public void cancelsScrolledAwayTest() {
+        prefetcher.onViewport(Arrays.asList(1, 2, 3));
+        prefetcher.onViewport(Arrays.asList(10, 11, 12));
+
+        assertFalse(responses.get(0).hasObservers());
+        assertEquals(1, prefetcher.getCancelledCount());
+
+        prefetcher.onViewport(Arrays.asList(2, 3));
+        assertEquals(Arrays.asList(2, 3), requests.get(2));
+    }
+
+    /**
+     * Checks that the ids of a batch count as in flight until it's done, so opening one of them doesn't fetch it again
+     */
+    @Test
+    public void reportsInFlightTest() {
+        prefetcher.onViewport(Arrays.asList(1, 2, 3));
+        assertTrue(prefetcher.isInFlight(2));
+        assertFalse(prefetcher.isInFlight(4));
+
+        responses.get(0).onCompleted();
+        assertFalse(prefetcher.isInFlight(2));
+    }
+
+    /**
+     * Checks that fetched recipes are written, and that we stop once the byte budget is used up
+     */
+    @Test
+    public void respectsBudgetTest() {
+        prefetcher.onViewport(Arrays.asList(1, 2));
+        String body = body(1, 2);
+        respond(0, body);
+
+        assertEquals(2, written.size());
+        assertEquals(2, prefetcher.getPrefetchedCount());
+        assertEquals(body.length(), prefetcher.getBytesUsed());
+        assertTrue(prefetcher.getBytesUsed() >= BYTE_BUDGET);
+
+        prefetcher.onViewport(Arrays.asList(3, 4));
+        assertEquals(1, requests.size());
+    }
+
+    /**
+     * Checks the share of opens that found their details already stored
+     */
+    @Test
+    public void hitRateTest() {
+        prefetcher.recordOpen(true);
+        prefetcher.recordOpen(true);
+        prefetcher.recordOpen(false);
+        prefetcher.recordOpen(true);
+
+        assertEquals(4, prefetcher.getOpenCount());
+        assertEquals(0.75f, prefetcher.getHitRate(), 0.001f);
+    }
+
+    private void respond(int request, String body) {
+        responses.get(request).onNext(ResponseBody.create(MediaType.parse("application/json"), body));
+        responses.get(request).onCompleted();
+    }
+
+    // Full recipes with a long step each, so a couple of them go over the budget
+    private static String body(int... ids) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append("{\"id\":\"").append(ids[i])
+                    .append("\",\"title\":\"Recipe ").append(ids[i])
+                    .append("\",\"steps\":[{\"id\":\"").append(ids[i])
+                    .append("\",\"text\":\"");
+            for (int j = 0; j < 60; j++) {
+                builder.append("Stir well. ");
+            }
+            builder.append("\"}],\"ingredients\":[{\"id\":\"1\",\"quantity\":\"2\"}]}");
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -10,11 +10,14 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 
-import co.bstorm.aleksa.recipes.libs.gson.MyDeserializer;
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.libs.gson.EnvelopeTypeAdapterFactory;
 import co.bstorm.aleksa.recipes.pojo.Component;
 import co.bstorm.aleksa.recipes.pojo.Recipe;
 import co.bstorm.aleksa.recipes.pojo.TagCategory;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by aleksa on 7/30/16.
  *
@@ -35,15 +38,19 @@ public class GsonUnitTest {
     Type componentType = new TypeToken<ArrayList<Component>>(){}.getType();
     Type tagType = new TypeToken<ArrayList<TagCategory>>(){}.getType();
 
-    Gson gson = new GsonBuilder()
-            .registerTypeAdapter(Recipe.class, new MyDeserializer<Recipe>())
-            .registerTypeAdapter(recipeType, new MyDeserializer<List<Recipe>>())
-            .registerTypeAdapter(Component.class, new MyDeserializer<Component>())
-            .registerTypeAdapter(componentType, new MyDeserializer<List<Component>>())
-            .registerTypeAdapter(TagCategory.class, new MyDeserializer<TagCategory>())
-            .registerTypeAdapter(tagType, new MyDeserializer<List<TagCategory>>())
+    Gson gson = API.getGson();
+
+    // Binds the pojos through reflection, used as a reference for the generated adapters
+    Gson reflectiveGson = new GsonBuilder()
+            .registerTypeAdapterFactory(new EnvelopeTypeAdapterFactory()
+                    .withEnvelope(Recipe.class, "recipes")
+                    .withEnvelope(Component.class, "ingredients")
+                    .withEnvelope(TagCategory.class, "tag_categories"))
             .create();
 
+    // Used to dump parsed objects so they can be compared field by field
+    Gson dumpGson = new Gson();
+
     /**
      * Checks the Recipe parsing (both single and array)
      */
@@ -82,4 +89,53 @@ public class GsonUnitTest {
         List<TagCategory> tagCategories = gson.fromJson(tagsJson, tagType);
         assert tagCategories != null && tagCategories.get(0) != null && tagCategories.size() == 6;
     }
+
+    /**
+     * Checks that a single object that comes without the envelope is read as it is, not as an empty envelope
+     */
+    @Test
+    public void parseUnwrappedJsonTest(){
+
+        Recipe recipe = gson.fromJson("{\"id\":\"2333\",\"title\":\"Originalna Cezar salata\",\"tags\":[{\"id\":\"5\"}]}", Recipe.class);
+        assertEquals(2333, recipe.getId());
+        assertEquals("Originalna Cezar salata", recipe.getTitle());
+        assertEquals(1, recipe.getTags().size());
+
+        // Starting with fields the pojo skips
+        recipe = gson.fromJson("{\"utensils\":[{\"name\":\"Tiganj\"}],\"id\":\"2334\",\"title\":\"Musaka\"}", Recipe.class);
+        assertEquals(2334, recipe.getId());
+        assertEquals("Musaka", recipe.getTitle());
+
+        Component component = gson.fromJson("{\"id\":\"1\",\"name\":\"Kiseli kupus\",\"quantity_type\":\"number\"}", Component.class);
+        assertEquals("Kiseli kupus", component.getName());
+
+        TagCategory tagCategory = gson.fromJson(
+                "{\"id\":\"1\",\"name\":\"Težina spremanja\",\"tags\":[{\"id\":\"5\",\"name\":\"Lako\",\"tag_category_id\":\"1\"}]}",
+                TagCategory.class);
+        assertEquals("Težina spremanja", tagCategory.getName());
+
+        // The same goes for the reflective adapters
+        assertParsedEqually("{\"id\":\"1\",\"name\":\"Kiseli kupus\",\"quantity_type\":\"number\"}", Component.class);
+    }
+
+    /**
+     * Checks that the generated adapters produce exactly what reflection does, for all payloads
+     */
+    @Test
+    public void generatedAdaptersMatchReflectionTest(){
+
+        assertParsedEqually(recipeJson, Recipe.class);
+        assertParsedEqually(recipesJson, recipeType);
+        assertParsedEqually(componentJson, Component.class);
+        assertParsedEqually(componentsJson, componentType);
+        assertParsedEqually(tagJson, TagCategory.class);
+        assertParsedEqually(tagsJson, tagType);
+    }
+
+    private void assertParsedEqually(String json, Type type){
+        Object reflective = reflectiveGson.fromJson(json, type);
+        Object generated = gson.fromJson(json, type);
+
+        assertEquals(dumpGson.toJson(reflective), dumpGson.toJson(generated));
+    }
 }
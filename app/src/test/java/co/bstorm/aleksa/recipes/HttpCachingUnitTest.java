@@ -0,0 +1,99 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+
+import co.bstorm.aleksa.recipes.api.HttpCaching;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Checks that a cached response is only skipped when the store holds what it had
+ */
+public class HttpCachingUnitTest {
+
+    private static final String PATH = "tags/get-tags";
+
+    private MockWebServer server;
+    private File cacheDir;
+    private OkHttpClient client;
+    private boolean holds;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"tags\":[]}"));
+        server.start();
+
+        cacheDir = File.createTempFile("http-cache", "");
+        cacheDir.delete();
+
+        Map<String, Integer> ttlSeconds = Collections.singletonMap(PATH, 3600);
+        client = new OkHttpClient.Builder()
+                .cache(new Cache(cacheDir, 1024 * 1024))
+                .addInterceptor(HttpCaching.notModifiedInterceptor(ttlSeconds, new HttpCaching.Store() {
+                    @Override
+                    public boolean holds(String path, long receivedAtMillis) {
+                        return holds;
+                    }
+                }))
+                .addNetworkInterceptor(HttpCaching.freshnessInterceptor(ttlSeconds))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        client.cache().delete();
+    }
+
+    /**
+     * Checks that a fresh cached response becomes a bare 304 once the store holds it
+     */
+    @Test
+    public void skipsStoredResponseTest() throws Exception {
+        assertEquals(HttpURLConnection.HTTP_OK, fetch().code());
+
+        holds = true;
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetch().code());
+        // Straight from the cache
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Checks that a fresh cached response the store doesn't hold (the write failed, or the rows are gone)
+     * goes through with its body, so it's written again
+     */
+    @Test
+    public void passesUnstoredResponseTest() throws Exception {
+        fetch();
+
+        holds = false;
+        Response response = fetch();
+        assertEquals(HttpURLConnection.HTTP_OK, response.code());
+        assertEquals("{\"tags\":[]}", response.body().string());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private Response fetch() throws Exception {
+        Response response = client.newCall(new Request.Builder().url(server.url("/" + PATH)).build()).execute();
+        if (response.code() == HttpURLConnection.HTTP_OK && response.cacheResponse() == null)
+            // Read fully, so it ends up in the cache
+            response.body().string();
+        return response;
+    }
+}
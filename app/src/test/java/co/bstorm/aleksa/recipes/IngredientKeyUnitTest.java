@@ -0,0 +1,66 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 9/3/16.
+ *
+ * Checks the Ingredient primary keys, around the ids where the int version overflowed
+ */
+public class IngredientKeyUnitTest {
+
+    /**
+     * Checks that the keys of small ids stay what they were, so stored ingredients keep theirs
+     */
+    @Test
+    public void smallIdsUnchangedTest() {
+        for (int recipeId = 0; recipeId < 300; recipeId++) {
+            for (int componentId = 0; componentId < 300; componentId++) {
+                int old = recipeId >= componentId
+                        ? recipeId * recipeId + recipeId + componentId
+                        : recipeId + componentId * componentId;
+                assertEquals(old, Ingredient.uniqueId(recipeId, componentId));
+            }
+        }
+    }
+
+    /**
+     * Checks that big ids get a key of their own, where the int version wrapped around
+     */
+    @Test
+    public void bigIdsDontCollideTest() {
+        int[] ids = {0, 1, 2, 46339, 46340, 46341, 46342, 65535, 65536, 100000, 1000000, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+
+        Set<Long> keys = new HashSet<>();
+        for (int recipeId : ids) {
+            for (int componentId : ids) {
+                long key = Ingredient.uniqueId(recipeId, componentId);
+                assertTrue(key >= 0);
+                assertTrue(keys.add(key));
+            }
+        }
+
+        assertEquals(50000L * 50000L + 50000L + 1, Ingredient.uniqueId(50000, 1));
+    }
+
+    /**
+     * Checks the key against the setter, which is what the writes use
+     */
+    @Test
+    public void setterUsesLongsTest() {
+        Ingredient ingredient = new Ingredient();
+        ingredient.setRecipeId(3);
+        ingredient.setComponentId(70000);
+        ingredient.setUniqueId();
+
+        assertEquals(3 + 70000L * 70000L, ingredient.getUniqueId());
+    }
+}
@@ -0,0 +1,189 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.PageCursor;
+import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by aleksa on 8/24/16.
+ *
+ * Pages through a stub server that gets new recipes in the middle of paging
+ */
+public class KeysetPaginationUnitTest {
+
+    private static final int PAGE_SIZE = Constants.PrefetchConstants.PAGE_SIZE;
+
+    private MockWebServer server;
+    private RecipesApiInterface api;
+
+    // Number of recipes the server has right now, recipe n was updated n minutes after midnight
+    private volatile int catalogSize = 120;
+    // Whether the server ignores the cursor and always returns the first page
+    private volatile boolean ignoreCursor = false;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+
+                List<Integer> ids = new ArrayList<>();
+                String afterKey = url.queryParameter("after_key");
+                if (afterKey != null) {
+                    // Ordered by (updated_at, id), which here is the same as by id
+                    int afterId = Integer.parseInt(url.queryParameter("after_id"));
+                    if (ignoreCursor) {
+                        afterKey = "";
+                        afterId = 0;
+                    }
+                    for (int id = 1; id <= catalogSize && ids.size() < PAGE_SIZE; id++) {
+                        int compared = updatedAt(id).compareTo(afterKey);
+                        if (compared > 0 || (compared == 0 && id > afterId))
+                            ids.add(id);
+                    }
+                }
+                else {
+                    // Offsets count from the newest
+                    String offsetParameter = url.queryParameter("offset");
+                    int offset = offsetParameter == null ? 0 : Integer.parseInt(offsetParameter);
+                    for (int id = catalogSize - offset; id >= 1 && ids.size() < PAGE_SIZE; id--) {
+                        ids.add(id);
+                    }
+                }
+                return new MockResponse().setBody(page(ids));
+            }
+        });
+        server.start();
+
+        api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(API.getGson()))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(RecipesApiInterface.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Checks that paging by cursor sees every recipe exactly once, even with recipes added mid-way
+     */
+    @Test
+    public void noDuplicatesOrGapsTest() {
+        List<Integer> seen = new ArrayList<>();
+
+        PageCursor cursor = PageCursor.START;
+        List<Recipe> page = nextPage(cursor);
+        collect(page, seen);
+        cursor = cursor.after(page);
+
+        // The server gets new recipes between the first and second page
+        catalogSize = 130;
+
+        while (page.size() == PAGE_SIZE) {
+            page = nextPage(cursor);
+            collect(page, seen);
+            cursor = cursor.after(page);
+            assertNotNull(cursor);
+        }
+
+        assertEquals(130, seen.size());
+        assertEquals(130, new HashSet<>(seen).size());
+        assertEquals(130, cursor.getId());
+    }
+
+    /**
+     * Shows what offsets do in the same situation (this is why we page by cursor)
+     */
+    @Test
+    public void offsetsShiftTest() {
+        List<Integer> seen = new ArrayList<>();
+
+        collect(RecipeBodies.parse(api.streamOffsetRecipes(0, null)), seen);
+        catalogSize = 130;
+        collect(RecipeBodies.parse(api.streamOffsetRecipes(PAGE_SIZE, null)), seen);
+
+        Set<Integer> unique = new HashSet<>(seen);
+        assertEquals(10, seen.size() - unique.size());
+    }
+
+    /**
+     * Checks that a page that isn't after the cursor (the server ignored it) is recognized
+     */
+    @Test
+    public void ignoredCursorTest() {
+        PageCursor cursor = PageCursor.START.after(nextPage(PageCursor.START));
+        assertNotNull(cursor);
+
+        ignoreCursor = true;
+        assertNull(cursor.after(nextPage(cursor)));
+    }
+
+    /**
+     * Checks that an empty page keeps the position
+     */
+    @Test
+    public void emptyPageTest() {
+        PageCursor cursor = new PageCursor(updatedAt(catalogSize), catalogSize);
+        List<Recipe> page = nextPage(cursor);
+
+        assertEquals(0, page.size());
+        assertEquals(cursor, cursor.after(page));
+    }
+
+    private List<Recipe> nextPage(PageCursor cursor) {
+        return RecipeBodies.parse(
+                api.streamRecipesAfter(cursor.getSortKey(), cursor.getId(), Constants.APIConstants.SUMMARY_FIELDS));
+    }
+
+    private static void collect(List<Recipe> page, List<Integer> seen) {
+        for (Recipe recipe : page) {
+            seen.add(recipe.getId());
+        }
+    }
+
+    private static String updatedAt(int id) {
+        return String.format("2016-08-01 %02d:%02d:00", id / 60, id % 60);
+    }
+
+    private static String page(List<Integer> ids) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append("{\"id\":\"").append(ids.get(i))
+                    .append("\",\"title\":\"Recipe ").append(ids.get(i))
+                    .append("\",\"updated_at\":\"").append(updatedAt(ids.get(i)))
+                    .append("\"}");
+        }
+        return builder.append("]}").toString();
+    }
+}
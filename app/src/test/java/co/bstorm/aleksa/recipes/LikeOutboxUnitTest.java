@@ -0,0 +1,334 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.LikeOutbox;
+import co.bstorm.aleksa.recipes.api.PendingLike;
+import co.bstorm.aleksa.recipes.api.RetryScheduler;
+import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.converter.gson.GsonConverterFactory;
+import rx.Observable;
+import rx.schedulers.TestScheduler;
+import rx.subjects.BehaviorSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/28/16.
+ *
+ * Toggles likes against an in-memory store and a stub server, and checks what gets sent
+ */
+public class LikeOutboxUnitTest {
+
+    private static final long FLUSH_DELAY = 5000;
+    private static final long RETRY_DELAY = 1000;
+    private static final int RETRIES = 3;
+    private static final int LIKES = 10;
+
+    private MockWebServer server;
+    private RecipesApiInterface api;
+    private TestScheduler scheduler;
+    private MemoryStore store;
+    private BehaviorSubject<Boolean> connectivity;
+
+    // Request bodies the server got
+    private List<String> bodies;
+    private volatile int responseCode = 200;
+    // Runs while the server handles the next request (the client is waiting for it)
+    private volatile Runnable duringRequest = null;
+
+    @Before
+    public void setUp() throws Exception {
+        bodies = Collections.synchronizedList(new ArrayList<String>());
+        scheduler = new TestScheduler();
+        store = new MemoryStore();
+        connectivity = BehaviorSubject.create(true);
+
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                bodies.add(request.getBody().readUtf8());
+                Runnable during = duringRequest;
+                duringRequest = null;
+                if (during != null)
+                    during.run();
+                return new MockResponse().setResponseCode(responseCode).setBody("{\"status\":true}");
+            }
+        });
+        server.start();
+
+        api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(API.getGson()))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(RecipesApiInterface.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Checks that the likes show up right away, and that toggles of the same recipe go out as one like
+     */
+    @Test
+    public void coalescesTogglesTest() {
+        LikeOutbox outbox = outbox(50);
+
+        outbox.toggle(1);
+        outbox.toggle(1);
+        outbox.toggle(1);
+        outbox.toggle(2);
+        outbox.toggle(2);
+        outbox.toggle(3);
+
+        assertTrue(store.isLiked(1));
+        assertEquals(LIKES + 1, store.getLikes(1));
+        assertFalse(store.isLiked(2));
+        assertEquals(LIKES, store.getLikes(2));
+        assertTrue(bodies.isEmpty());
+
+        scheduler.advanceTimeBy(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+
+        // Liked and unliked is nothing to send
+        assertEquals(1, bodies.size());
+        assertEquals("[{\"recipe_id\":1,\"liked\":true},{\"recipe_id\":3,\"liked\":true}]", bodies.get(0));
+        assertTrue(store.pending().isEmpty());
+        assertEquals(6, outbox.getToggleCount());
+        assertEquals(2, outbox.getSentCount());
+    }
+
+    /**
+     * Checks that the flush waits for the toggles to settle
+     */
+    @Test
+    public void debouncesFlushTest() {
+        LikeOutbox outbox = outbox(50);
+
+        outbox.toggle(1);
+        scheduler.advanceTimeBy(FLUSH_DELAY - 1000, TimeUnit.MILLISECONDS);
+        outbox.toggle(2);
+        scheduler.advanceTimeBy(FLUSH_DELAY - 1000, TimeUnit.MILLISECONDS);
+        assertTrue(bodies.isEmpty());
+
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        assertEquals(1, bodies.size());
+        assertEquals("[{\"recipe_id\":1,\"liked\":true},{\"recipe_id\":2,\"liked\":true}]", bodies.get(0));
+    }
+
+    /**
+     * Checks that a big outbox goes out in batches, ordered by the last toggle
+     */
+    @Test
+    public void sendsBatchesInOrderTest() {
+        LikeOutbox outbox = outbox(2);
+
+        outbox.toggle(5);
+        outbox.toggle(4);
+        outbox.toggle(3);
+        outbox.toggle(2);
+        outbox.toggle(1);
+        // Toggled twice more, so it's the newest one now
+        outbox.toggle(5);
+        outbox.toggle(5);
+
+        outbox.flush();
+
+        assertEquals(3, bodies.size());
+        assertEquals("[{\"recipe_id\":4,\"liked\":true},{\"recipe_id\":3,\"liked\":true}]", bodies.get(0));
+        assertEquals("[{\"recipe_id\":2,\"liked\":true},{\"recipe_id\":1,\"liked\":true}]", bodies.get(1));
+        assertEquals("[{\"recipe_id\":5,\"liked\":true}]", bodies.get(2));
+        assertEquals(3, outbox.getBatchCount());
+    }
+
+    /**
+     * Checks that a recipe toggled back while its like is being sent gets the unlike sent too
+     */
+    @Test
+    public void resendsToggledWhileSendingTest() {
+        final LikeOutbox outbox = outbox(50);
+
+        outbox.toggle(1);
+        duringRequest = new Runnable() {
+            @Override
+            public void run() {
+                outbox.toggle(1);
+            }
+        };
+        outbox.flush();
+
+        assertEquals(1, bodies.size());
+        assertEquals("[{\"recipe_id\":1,\"liked\":true}]", bodies.get(0));
+        assertFalse(store.isLiked(1));
+        assertEquals(1, store.pending().size());
+
+        scheduler.advanceTimeBy(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(2, bodies.size());
+        assertEquals("[{\"recipe_id\":1,\"liked\":false}]", bodies.get(1));
+        assertTrue(store.pending().isEmpty());
+    }
+
+    /**
+     * Checks that failed likes stay in the outbox, and go out once we're connected again
+     */
+    @Test
+    public void keepsFailedLikesTest() {
+        LikeOutbox outbox = outbox(50);
+        outbox.flushWhenConnected(connectivity);
+
+        responseCode = 500;
+        outbox.toggle(1);
+        outbox.toggle(2);
+        scheduler.advanceTimeBy(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, bodies.size());
+        assertEquals(2, store.pending().size());
+        assertEquals(0, outbox.getSentCount());
+        // Still shown as liked
+        assertEquals(LIKES + 1, store.getLikes(1));
+
+        responseCode = 200;
+        connectivity.onNext(false);
+        assertEquals(1, bodies.size());
+        connectivity.onNext(true);
+
+        assertEquals(2, bodies.size());
+        assertEquals(bodies.get(0), bodies.get(1));
+        assertTrue(store.pending().isEmpty());
+        assertEquals(2, outbox.getSentCount());
+    }
+
+    /**
+     * Checks that a failed flush is retried after the backoff, until it goes through
+     */
+    @Test
+    public void retriesFailedFlushTest() {
+        LikeOutbox outbox = outbox(50);
+
+        responseCode = 500;
+        outbox.toggle(1);
+        scheduler.advanceTimeBy(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(1, bodies.size());
+
+        scheduler.advanceTimeBy(RETRY_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(2, bodies.size());
+
+        // The second retry waits twice as long
+        responseCode = 200;
+        scheduler.advanceTimeBy(RETRY_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(2, bodies.size());
+        scheduler.advanceTimeBy(RETRY_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(3, bodies.size());
+        assertTrue(store.pending().isEmpty());
+        assertEquals(1, outbox.getSentCount());
+
+        // Nothing else to retry
+        scheduler.advanceTimeBy(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        assertEquals(3, bodies.size());
+    }
+
+    private LikeOutbox outbox(int maxBatchSize) {
+        return new LikeOutbox(store,
+                new LikeOutbox.Sender() {
+                    @Override
+                    public Observable<?> send(List<PendingLike> likes) {
+                        return api.postLikes(likes);
+                    }
+                },
+                scheduler,
+                new RetryScheduler(new RetryScheduler.ConnectivitySource() {
+                    @Override
+                    public Observable<Boolean> observeConnected() {
+                        return connectivity;
+                    }
+                }, scheduler, new LongestJitter(), RETRY_DELAY, RETRY_DELAY * 8, RETRIES),
+                FLUSH_DELAY, maxBatchSize);
+    }
+
+    // Always picks the longest delay allowed, so the retries are predictable
+    private static class LongestJitter extends Random {
+        @Override
+        public double nextDouble() {
+            return 0.999999;
+        }
+    }
+
+    /**
+     * Keeps the likes and the outbox in maps, every recipe starts unliked with LIKES likes
+     */
+    private static class MemoryStore implements LikeOutbox.Store {
+
+        private final Map<Integer, Boolean> liked = new HashMap<>();
+        private final Map<Integer, Integer> likes = new HashMap<>();
+        private final Map<Integer, PendingLike> outbox = new HashMap<>();
+        private long sequence = 0;
+
+        @Override
+        public synchronized void toggle(int recipeId) {
+            boolean nowLiked = !isLiked(recipeId);
+            liked.put(recipeId, nowLiked);
+            likes.put(recipeId, getLikes(recipeId) + (nowLiked ? 1 : -1));
+            update(recipeId, LikeOutbox.coalesce(outbox.get(recipeId), recipeId, nowLiked, ++sequence));
+        }
+
+        @Override
+        public synchronized List<PendingLike> pending() {
+            List<PendingLike> pending = new ArrayList<>(outbox.values());
+            Collections.sort(pending, new Comparator<PendingLike>() {
+                @Override
+                public int compare(PendingLike lhs, PendingLike rhs) {
+                    return Long.valueOf(lhs.getSequence()).compareTo(rhs.getSequence());
+                }
+            });
+            return pending;
+        }
+
+        @Override
+        public synchronized void sent(List<PendingLike> sent) {
+            for (PendingLike like : sent) {
+                update(like.getRecipeId(), LikeOutbox.afterSent(like, outbox.get(like.getRecipeId()),
+                        isLiked(like.getRecipeId()), ++sequence));
+            }
+        }
+
+        synchronized boolean isLiked(int recipeId) {
+            Boolean value = liked.get(recipeId);
+            return value != null && value;
+        }
+
+        synchronized int getLikes(int recipeId) {
+            Integer value = likes.get(recipeId);
+            return value != null ? value : LIKES;
+        }
+
+        private void update(int recipeId, PendingLike pending) {
+            if (pending == null)
+                outbox.remove(recipeId);
+            else
+                outbox.put(recipeId, pending);
+        }
+    }
+}
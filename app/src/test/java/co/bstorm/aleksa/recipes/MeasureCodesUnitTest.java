@@ -0,0 +1,125 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.util.MeasureCodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by aleksa on 9/4/16.
+ *
+ * Checks that the code table gives the same units the string comparisons did, and that unknown strings survive
+ */
+public class MeasureCodesUnitTest {
+
+    private static final String[] MEASURES = {null, "regular", "thousand", "cup", "tbsp", "tsp", "pinch", ""};
+    private static final String[] QUANTITY_TYPES = {null, "weight", "volume", "number", "length"};
+
+    /**
+     * Checks every measure against every quantity type, known and unknown
+     */
+    @Test
+    public void sameUnitsAsStringsTest() {
+        for (String measure : MEASURES) {
+            for (String quantityType : QUANTITY_TYPES) {
+                assertEquals(measure + " in " + quantityType, unitFromStrings(measure, quantityType),
+                        MeasureCodes.unit(MeasureCodes.measureCode(measure), otherOrNull(measure),
+                                MeasureCodes.quantityTypeCode(quantityType)));
+            }
+        }
+    }
+
+    /**
+     * Checks that the strings come back out of the codes, including the ones we don't know
+     */
+    @Test
+    public void roundTripsTest() {
+        for (String measure : MEASURES) {
+            Ingredient ingredient = new Ingredient();
+            ingredient.setPreferredMeasure(measure);
+            assertEquals(measure, ingredient.getPreferredMeasure());
+
+            ingredient.encodeMeasure();
+            ingredient.encodeMeasure();
+            assertEquals(measure, ingredient.getPreferredMeasure());
+            assertEquals(MeasureCodes.measureCode(measure), ingredient.getPreferredMeasureCode());
+        }
+
+        for (String quantityType : QUANTITY_TYPES) {
+            Component component = new Component();
+            component.setQuantityType(quantityType);
+            long hash = component.computeContentHash();
+
+            component.encodeQuantityType();
+            assertEquals(quantityType, component.getQuantityType());
+            // Encoding doesn't make stored components look changed
+            assertEquals(hash, component.computeContentHash());
+        }
+    }
+
+    /**
+     * Checks the units shown for an ingredient, before and after it's encoded
+     */
+    @Test
+    public void formatsAmountTest() {
+        Component component = new Component();
+        component.setQuantityType("weight");
+        component.encodeQuantityType();
+
+        Ingredient ingredient = new Ingredient();
+        ingredient.setQuantity(500);
+        ingredient.setPreferredMeasure("thousand");
+        ingredient.setComponent(component);
+        assertEquals("500 g", ingredient.getFormattedAmount());
+
+        ingredient.encodeMeasure();
+        assertEquals("500 g", ingredient.getFormattedAmount());
+
+        ingredient.setPreferredMeasure("pinch");
+        ingredient.encodeMeasure();
+        assertEquals("500 pinch", ingredient.getFormattedAmount());
+
+        // No component yet, no unit
+        ingredient.setComponent(null);
+        assertEquals("500 ", ingredient.getFormattedAmount());
+        assertNull(MeasureCodes.quantityType(MeasureCodes.NONE, null));
+    }
+
+    // Only unknown strings are stored next to the code
+    private static String otherOrNull(String measure) {
+        return MeasureCodes.measureCode(measure) == MeasureCodes.OTHER ? measure : null;
+    }
+
+    // How the unit was picked before the codes, except that it doesn't show "null" for unknown quantity types
+    private static String unitFromStrings(String preferredMeasure, String quantityType) {
+        if (preferredMeasure == null || quantityType == null)
+            return "";
+
+        if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_NUMBER))
+            return "";
+
+        if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_VOLUME)
+                && preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_THOUSAND))
+            return Constants.Measures.VOLUME_UNIT_MILLILITER;
+
+        if (preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_REGULAR)) {
+            if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_WEIGHT))
+                return Constants.Measures.WEIGHT_UNIT_GRAM;
+            if (quantityType.equals(Constants.Measures.QUANTITY_TYPE_VOLUME))
+                return Constants.Measures.VOLUME_UNIT_MILLILITER;
+            return "";
+        }
+        else if (preferredMeasure.equals(Constants.Measures.PREFERRED_MEASURE_THOUSAND)
+                && quantityType.equals(Constants.Measures.QUANTITY_TYPE_WEIGHT)){
+            return Constants.Measures.WEIGHT_UNIT_GRAM;
+        }
+        else {
+            return preferredMeasure;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import co.bstorm.aleksa.recipes.api.NetworkScheduler;
+import co.bstorm.aleksa.recipes.api.NetworkScheduler.Priority;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Created by aleksa on 8/21/16.
+ *
+ * Checks the order in which the network scheduler lets requests out
+ */
+public class NetworkSchedulerUnitTest {
+
+    private NetworkScheduler scheduler;
+
+    // Names of the requests in the order they went out
+    private List<String> started;
+
+    @Before
+    public void setUp() {
+        // Runs the requests right away, on the calling thread
+        scheduler = new NetworkScheduler(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }, 2);
+        started = new ArrayList<>();
+    }
+
+    // A request that stays in flight until the returned subject completes
+    private PublishSubject<String> request(final String name, Priority priority) {
+        PublishSubject<String> response = PublishSubject.create();
+        schedule(name, priority, response).subscribe();
+        return response;
+    }
+
+    private Observable<String> schedule(final String name, Priority priority, Observable<String> response) {
+        return scheduler.schedule(priority, response.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                started.add(name);
+            }
+        }));
+    }
+
+    /**
+     * Checks that one slot is always left for interactive requests
+     */
+    @Test
+    public void keepsSlotForInteractiveTest() {
+        request("background 1", Priority.BACKGROUND);
+        request("background 2", Priority.BACKGROUND);
+        request("interactive", Priority.INTERACTIVE);
+
+        assertEquals(2, started.size());
+        assertEquals("interactive", started.get(1));
+        assertEquals(1, scheduler.getQueueDepth(Priority.BACKGROUND));
+    }
+
+    /**
+     * Checks that background requests wait while an interactive one is running
+     */
+    @Test
+    public void pausesBackgroundTest() {
+        PublishSubject<String> first = request("background 1", Priority.BACKGROUND);
+        PublishSubject<String> interactive = request("interactive", Priority.INTERACTIVE);
+        request("background 2", Priority.BACKGROUND);
+
+        first.onCompleted();
+        // The slot is free, but the interactive request is still running
+        assertFalse(started.contains("background 2"));
+
+        interactive.onCompleted();
+        assertEquals("background 2", started.get(2));
+        assertEquals(0, scheduler.getQueueDepth(Priority.BACKGROUND));
+    }
+
+    /**
+     * Checks that queued requests go out highest class first
+     */
+    @Test
+    public void startsByPriorityTest() {
+        PublishSubject<String> first = request("interactive 1", Priority.INTERACTIVE);
+        PublishSubject<String> second = request("interactive 2", Priority.INTERACTIVE);
+        request("background", Priority.BACKGROUND);
+        request("prefetch", Priority.PREFETCH);
+        PublishSubject<String> third = request("interactive 3", Priority.INTERACTIVE);
+
+        assertEquals(1, scheduler.getQueueDepth(Priority.INTERACTIVE));
+        assertEquals(1, scheduler.getQueueDepth(Priority.PREFETCH));
+
+        first.onCompleted();
+        assertEquals("interactive 3", started.get(2));
+
+        second.onCompleted();
+        third.onCompleted();
+        assertEquals("prefetch", started.get(3));
+        assertEquals(4, started.size());
+        assertEquals(1, scheduler.getDispatchedCount(Priority.PREFETCH));
+    }
+
+    /**
+     * Checks that unsubscribing takes a request out of the queue, and frees the slot of a running one
+     */
+    @Test
+    public void cancelsTest() {
+        Subscription running = schedule("prefetch", Priority.PREFETCH, PublishSubject.<String>create()).subscribe();
+        Subscription queued = schedule("background", Priority.BACKGROUND, PublishSubject.<String>create()).subscribe();
+        assertEquals(1, scheduler.getQueueDepth(Priority.BACKGROUND));
+
+        queued.unsubscribe();
+        assertEquals(0, scheduler.getQueueDepth(Priority.BACKGROUND));
+
+        running.unsubscribe();
+        assertEquals(0, scheduler.getRunningCount(Priority.PREFETCH));
+        assertEquals(1, started.size());
+    }
+}
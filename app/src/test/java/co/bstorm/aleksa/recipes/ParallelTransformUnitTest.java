@@ -0,0 +1,124 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import co.bstorm.aleksa.recipes.api.ParallelTransform;
+import co.bstorm.aleksa.recipes.api.RecipeTransform;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by aleksa on 8/30/16.
+ *
+ * Checks that the parallel transform does the same as the sequential one, and compares how long they take
+ */
+public class ParallelTransformUnitTest {
+
+    private static final int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int CHUNK_SIZE = 64;
+
+    private ExecutorService executor;
+    private ParallelTransform parallel;
+    private ParallelTransform sequential;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(PARALLELISM - 1);
+        parallel = new ParallelTransform(executor, PARALLELISM, CHUNK_SIZE);
+        sequential = new ParallelTransform(executor, 1, CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Checks that every recipe is transformed exactly as it would be on one thread, and stays where it was
+     */
+    @Test
+    public void sameAsSequentialTest() {
+        List<Recipe> expected = SyntheticCatalog.recipes(1000);
+        List<Recipe> actual = SyntheticCatalog.recipes(1000);
+
+        sequential.apply(expected, new RecipeTransform());
+        parallel.apply(actual, new RecipeTransform());
+
+        for (int i = 0; i < actual.size(); i++) {
+            Recipe recipe = actual.get(i);
+            assertEquals(i + 1, recipe.getId());
+            assertEquals(expected.get(i).getContentHash(), recipe.getContentHash());
+            assertEquals(expected.get(i).getTitleLower(), recipe.getTitleLower());
+            for (int j = 0; j < SyntheticCatalog.INGREDIENTS; j++) {
+                assertEquals(recipe.getId(), recipe.getIngredients().get(j).getRecipeId());
+                assertEquals(expected.get(i).getIngredients().get(j).getUniqueId(),
+                        recipe.getIngredients().get(j).getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Checks that a failing item fails the whole batch, on the calling thread
+     */
+    @Test
+    public void rethrowsFailureTest() {
+        List<Recipe> recipes = SyntheticCatalog.recipes(500);
+        // The lowercase title can't be made without a title
+        recipes.get(321).setTitle(null);
+
+        try {
+            parallel.apply(recipes, new RecipeTransform());
+            fail();
+        } catch (NullPointerException e) {
+            // Expected
+        }
+
+        // The other chunks were still done
+        assertNotNull(recipes.get(499).getTitleLower());
+    }
+
+    /**
+     * Times the sequential and the parallel transform on batches of growing size
+     * Not a pass/fail test, it prints the numbers (the speedup depends on the machine)
+     */
+    @Test
+    public void benchmarkTest() {
+        int[] sizes = {50, 500, 5000};
+        int runs = 20;
+
+        // Warms up the JIT on both paths
+        for (int i = 0; i < 5; i++) {
+            sequential.apply(SyntheticCatalog.recipes(5000), new RecipeTransform());
+            parallel.apply(SyntheticCatalog.recipes(5000), new RecipeTransform());
+        }
+
+        System.out.println("Transform benchmark, " + PARALLELISM + " threads, chunks of " + CHUNK_SIZE);
+        for (int size : sizes) {
+            long sequentialNanos = best(sequential, size, runs);
+            long parallelNanos = best(parallel, size, runs);
+            System.out.println(String.format("%5d recipes: sequential %7.3f ms, parallel %7.3f ms, speedup %.2fx",
+                    size, sequentialNanos / 1e6, parallelNanos / 1e6, (double) sequentialNanos / parallelNanos));
+        }
+    }
+
+    // Best time out of several runs, each on a fresh batch
+    private static long best(ParallelTransform transform, int size, int runs) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            List<Recipe> recipes = SyntheticCatalog.recipes(size);
+            long start = System.nanoTime();
+            transform.apply(recipes, new RecipeTransform());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,30 @@
+package co.bstorm.aleksa.recipes;
+
+import java.util.ArrayList;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.FetchData;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.ResponseBody;
+import rx.Observable;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Reads the raw recipe bodies the app requests, the way the app parses them, shared by the tests
+ * that run the API interface against a stub server
+ */
+public class RecipeBodies {
+
+    /**
+     * Waits for the body and parses it with the app's Gson
+     */
+    public static ArrayList<Recipe> parse(Observable<ResponseBody> request) {
+        ResponseBody body = request.toBlocking().single();
+        try {
+            return API.getGson().fromJson(body.charStream(), FetchData.RECIPES_TYPE);
+        } finally {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.api.API;
+import co.bstorm.aleksa.recipes.api.retrofit.RecipesApiInterface;
+import co.bstorm.aleksa.recipes.constants.Constants;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/22/16.
+ *
+ * Runs the summary and detail requests against a local stub server that serves both shapes
+ */
+public class RecipeTiersUnitTest {
+
+    private static final int STEPS = 8;
+    private static final int INGREDIENTS = 10;
+
+    private MockWebServer server;
+    private RecipesApiInterface api;
+
+    // Size of the last page served in each shape
+    private int summaryBytes;
+    private int fullBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+
+                if (url.queryParameter("ids") != null) {
+                    String[] ids = url.queryParameter("ids").split(",");
+                    StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+                    for (int i = 0; i < ids.length; i++) {
+                        if (i > 0)
+                            builder.append(',');
+                        builder.append(recipe(Integer.parseInt(ids[i]), true));
+                    }
+                    return new MockResponse().setBody(builder.append("]}").toString());
+                }
+
+                int offset = Integer.parseInt(url.queryParameter("offset"));
+                boolean summary = Constants.APIConstants.SUMMARY_FIELDS.equals(url.queryParameter("fields"));
+
+                String body = page(offset, !summary);
+                if (summary)
+                    summaryBytes = body.length();
+                else
+                    fullBytes = body.length();
+                return new MockResponse().setBody(body);
+            }
+        });
+        server.start();
+
+        api = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(API.getGson()))
+                .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                .build()
+                .create(RecipesApiInterface.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Checks that list pages come without details, and are a fraction of the full page
+     */
+    @Test
+    public void summaryPageTest() {
+        List<Recipe> summaries = RecipeBodies.parse(api.streamOffsetRecipes(0, Constants.APIConstants.SUMMARY_FIELDS));
+        RecipeBodies.parse(api.streamOffsetRecipes(0, null));
+
+        assertEquals(Constants.PrefetchConstants.PAGE_SIZE, summaries.size());
+        for (Recipe recipe : summaries) {
+            assertFalse(recipe.hasDetails());
+            assertEquals(3, recipe.getTags().size());
+        }
+
+        assertTrue("Summary page is " + summaryBytes + " bytes, full page " + fullBytes,
+                summaryBytes * 5 < fullBytes);
+    }
+
+    /**
+     * Checks that the details of the requested recipes come back in one request
+     */
+    @Test
+    public void detailsTest() throws Exception {
+        List<Recipe> details = RecipeBodies.parse(api.streamRecipeDetails("3,7"));
+
+        assertEquals(2, details.size());
+        assertEquals(3, details.get(0).getId());
+        assertEquals(7, details.get(1).getId());
+        for (Recipe recipe : details) {
+            assertTrue(recipe.hasDetails());
+            assertEquals(STEPS, recipe.getSteps().size());
+            assertEquals(INGREDIENTS, recipe.getIngredients().size());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Checks that a summary and a full recipe hash the same, so loading details doesn't look like a change
+     */
+    @Test
+    public void sameHashForBothTiersTest() {
+        Recipe summary = RecipeBodies.parse(api.streamOffsetRecipes(0, Constants.APIConstants.SUMMARY_FIELDS)).get(4);
+        Recipe full = RecipeBodies.parse(api.streamRecipeDetails(String.valueOf(summary.getId()))).get(0);
+
+        assertEquals(summary.computeContentHash(), full.computeContentHash());
+    }
+
+    // Builds a page of recipes, starting after offset
+    private static String page(int offset, boolean withDetails) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        for (int id = offset + 1; id <= offset + Constants.PrefetchConstants.PAGE_SIZE; id++) {
+            if (id > offset + 1)
+                builder.append(',');
+            builder.append(recipe(id, withDetails));
+        }
+        return builder.append("]}").toString();
+    }
+
+    // Builds a single recipe, steps have a realistic amount of text
+    private static String recipe(int id, boolean withDetails) {
+        StringBuilder builder = new StringBuilder()
+                .append("{\"id\":\"").append(id)
+                .append("\",\"title\":\"Recipe ").append(id)
+                .append("\",\"image_file_name\":\"recipe").append(id).append(".jpg")
+                .append("\",\"difficulty\":\"2\",\"default_serving_size\":\"4\",\"preparation_time\":\"45\"")
+                .append(",\"likes\":\"").append(id * 3)
+                .append("\",\"updated_at\":\"2016-08-01 10:00:00\"")
+                .append(",\"tags\":[{\"id\":\"1\"},{\"id\":\"5\"},{\"id\":\"9\"}]");
+
+        if (withDetails) {
+            builder.append(",\"steps\":[");
+            for (int step = 1; step <= STEPS; step++) {
+                if (step > 1)
+                    builder.append(',');
+                builder.append("{\"id\":\"").append(id * 100 + step)
+                        .append("\",\"text\":\"Stir the mixture slowly over medium heat until it thickens, ")
+                        .append("then season it to taste and leave it to rest for a few minutes before serving.")
+                        .append("\",\"seq_num\":\"").append(step)
+                        .append("\",\"timer\":\"300\",\"timer_name\":\"Resting\"}");
+            }
+            builder.append("],\"ingredients\":[");
+            for (int ingredient = 1; ingredient <= INGREDIENTS; ingredient++) {
+                if (ingredient > 1)
+                    builder.append(',');
+                builder.append("{\"id\":\"").append(ingredient)
+                        .append("\",\"quantity\":\"250\",\"preferred_measure\":\"regular\"}");
+            }
+            builder.append(']');
+        }
+
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,103 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.bstorm.aleksa.recipes.api.RequestCoalescer;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by aleksa on 8/19/16.
+ *
+ * Checks that identical requests share a single subscription to the source
+ */
+public class RequestCoalescerUnitTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    // Simulates a network call that takes a while
+    private Observable<Integer> slowCall() {
+        return Observable.just(42)
+                .delay(100, TimeUnit.MILLISECONDS)
+                .doOnSubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        calls.incrementAndGet();
+                    }
+                });
+    }
+
+    @Test
+    public void concurrentRequestsShareOneCallTest() {
+        RequestCoalescer coalescer = new RequestCoalescer(0);
+
+        List<Integer> results = Observable.merge(
+                coalescer.coalesce("offset=0", slowCall()).subscribeOn(Schedulers.io()),
+                coalescer.coalesce("offset=0", slowCall()).subscribeOn(Schedulers.io()),
+                coalescer.coalesce("offset=0", slowCall()).subscribeOn(Schedulers.io()))
+                .toList()
+                .toBlocking()
+                .single();
+
+        assertEquals(3, results.size());
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getRequestCount());
+        assertEquals(2, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void differentKeysAreNotSharedTest() {
+        RequestCoalescer coalescer = new RequestCoalescer(0);
+
+        Observable.merge(
+                coalescer.coalesce("offset=0", slowCall()).subscribeOn(Schedulers.io()),
+                coalescer.coalesce("offset=50", slowCall()).subscribeOn(Schedulers.io()))
+                .toBlocking()
+                .last();
+
+        assertEquals(2, calls.get());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void completedResultIsReusedWithinWindowTest() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(500);
+
+        coalescer.coalesce("tags", slowCall()).toBlocking().single();
+        coalescer.coalesce("tags", slowCall()).toBlocking().single();
+        assertEquals(1, calls.get());
+
+        Thread.sleep(600);
+
+        coalescer.coalesce("tags", slowCall()).toBlocking().single();
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void failedRequestIsForgottenTest() {
+        RequestCoalescer coalescer = new RequestCoalescer(10000);
+
+        Observable<Integer> failing = Observable.<Integer>error(new RuntimeException())
+                .doOnSubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        calls.incrementAndGet();
+                    }
+                });
+
+        int result = coalescer.coalesce("components", failing)
+                .onErrorResumeNext(coalescer.coalesce("components", slowCall()))
+                .toBlocking()
+                .single();
+
+        assertEquals(42, result);
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,163 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.bstorm.aleksa.recipes.api.RetryScheduler;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.BehaviorSubject;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by aleksa on 8/20/16.
+ *
+ * Runs the retry scheduler on a fake clock, with a fake connectivity source
+ */
+public class RetrySchedulerUnitTest {
+
+    private static final long BASE_DELAY = 1000;
+    private static final long MAX_DELAY = 8000;
+    private static final int MAX_RETRIES = 5;
+
+    private TestScheduler clock;
+    private BehaviorSubject<Boolean> connected;
+    private RetryScheduler retryScheduler;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() {
+        clock = new TestScheduler();
+        connected = BehaviorSubject.create(true);
+        calls = new AtomicInteger();
+        retryScheduler = new RetryScheduler(new RetryScheduler.ConnectivitySource() {
+            @Override
+            public Observable<Boolean> observeConnected() {
+                return connected;
+            }
+        }, clock, new LongestJitter(), BASE_DELAY, MAX_DELAY, MAX_RETRIES);
+    }
+
+    // Always picks the longest delay allowed, so the timing is predictable
+    private static class LongestJitter extends Random {
+        @Override
+        public double nextDouble() {
+            return 0.999999;
+        }
+    }
+
+    // A call that fails with a network error the given number of times, then succeeds
+    private Observable<String> flakyCall(final int failures) {
+        return Observable.defer(new Func0<Observable<String>>() {
+            @Override
+            public Observable<String> call() {
+                if (calls.getAndIncrement() < failures)
+                    return Observable.error(new ConnectException());
+                return Observable.just("ok");
+            }
+        });
+    }
+
+    /**
+     * Checks that the n-th retry waits base * 2^n, but never longer than the cap
+     */
+    @Test
+    public void backsOffExponentiallyTest() {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        flakyCall(5).retryWhen(retryScheduler.retryWhenFunc()).subscribe(subscriber);
+
+        assertEquals(1, calls.get());
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long delay = Math.min(MAX_DELAY, BASE_DELAY << attempt);
+
+            clock.advanceTimeBy(delay - 1, TimeUnit.MILLISECONDS);
+            assertEquals(attempt + 1, calls.get());
+
+            clock.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+            assertEquals(attempt + 2, calls.get());
+        }
+
+        subscriber.assertValue("ok");
+        subscriber.assertCompleted();
+    }
+
+    /**
+     * Checks that we give up after the maximum number of retries
+     */
+    @Test
+    public void givesUpTest() {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        flakyCall(Integer.MAX_VALUE).retryWhen(retryScheduler.retryWhenFunc()).subscribe(subscriber);
+
+        clock.advanceTimeBy(1, TimeUnit.HOURS);
+
+        assertEquals(MAX_RETRIES + 1, calls.get());
+        subscriber.assertError(ConnectException.class);
+    }
+
+    /**
+     * Checks that nothing is retried while offline, and that we retry right away once back online
+     */
+    @Test
+    public void pausesWhileOfflineTest() {
+        connected.onNext(false);
+
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        flakyCall(1).retryWhen(retryScheduler.retryWhenFunc()).subscribe(subscriber);
+
+        // Way past any backoff delay, still only the first call
+        clock.advanceTimeBy(1, TimeUnit.HOURS);
+        assertEquals(1, calls.get());
+        subscriber.assertNoTerminalEvent();
+
+        connected.onNext(true);
+
+        assertEquals(2, calls.get());
+        subscriber.assertValue("ok");
+    }
+
+    /**
+     * Checks that losing connectivity during a backoff delay pauses it
+     */
+    @Test
+    public void offlineDuringBackoffTest() {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        flakyCall(1).retryWhen(retryScheduler.retryWhenFunc()).subscribe(subscriber);
+
+        connected.onNext(false);
+        clock.advanceTimeBy(1, TimeUnit.HOURS);
+        assertEquals(1, calls.get());
+
+        connected.onNext(true);
+        subscriber.assertValue("ok");
+    }
+
+    /**
+     * Checks that errors other than network ones are not retried
+     */
+    @Test
+    public void passesOtherErrorsTest() {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        Observable.<String>error(new IllegalStateException())
+                .doOnSubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        calls.incrementAndGet();
+                    }
+                })
+                .retryWhen(retryScheduler.retryWhenFunc())
+                .subscribe(subscriber);
+
+        assertEquals(1, calls.get());
+        subscriber.assertError(IllegalStateException.class);
+    }
+}
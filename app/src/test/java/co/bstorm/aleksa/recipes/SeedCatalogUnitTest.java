@@ -0,0 +1,147 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import co.bstorm.aleksa.recipes.api.SeedCatalog;
+import co.bstorm.aleksa.recipes.pojo.Component;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.TagCategory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by aleksa on 8/26/16.
+ *
+ * Reads seeds written the same way seed.gradle writes them
+ */
+public class SeedCatalogUnitTest {
+
+    private static final int MAGIC = 0x52534544;
+
+    /**
+     * Checks that everything in the seed is read back
+     */
+    @Test
+    public void readTest() throws IOException {
+        SeedCatalog.Seed seed = SeedCatalog.read(new ByteArrayInputStream(seed(1)));
+
+        assertEquals(1, seed.getCategories().size());
+        TagCategory category = seed.getCategories().get(0);
+        assertEquals(3, category.getId());
+        assertEquals("Obrok", category.getName());
+        assertEquals("Meal", category.getEnName());
+        assertEquals(2, category.getTags().size());
+        assertEquals("Dinner", category.getTags().get(1).getName());
+        assertEquals(3, category.getTags().get(1).getTagCategoryId());
+
+        assertEquals(1, seed.getComponents().size());
+        Component component = seed.getComponents().get(0);
+        assertEquals("Brašno", component.getName());
+        assertEquals("weight", component.getQuantityType());
+
+        assertEquals(2, seed.getRecipes().size());
+        Recipe recipe = seed.getRecipes().get(1);
+        assertEquals(8, recipe.getId());
+        assertEquals("Palačinke", recipe.getTitle());
+        assertNull(recipe.getImageUrl());
+        assertEquals(2, recipe.getDifficulty());
+        assertEquals(4, recipe.getDefaultServingSize());
+        assertEquals(30, recipe.getPreparationTime());
+        assertEquals(12, recipe.getLikes());
+        assertEquals("2016-08-20 10:00:00", recipe.getUpdatedAt());
+        assertEquals(Arrays.asList(10, 11), Arrays.asList(recipe.getTags().get(0).getId(), recipe.getTags().get(1).getId()));
+        // Summaries only, the details load on open
+        assertNull(recipe.getSteps());
+        assertNull(recipe.getIngredients());
+    }
+
+    /**
+     * Checks that a seed of another version isn't read
+     */
+    @Test
+    public void otherVersionTest() {
+        try {
+            SeedCatalog.read(new ByteArrayInputStream(seed(2)));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Unsupported seed catalog version 2", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that a cut off seed fails as a whole, instead of giving part of the catalog
+     */
+    @Test
+    public void truncatedTest() throws IOException {
+        byte[] seed = seed(1);
+        try {
+            SeedCatalog.read(new ByteArrayInputStream(Arrays.copyOf(seed, seed.length - 3)));
+            fail();
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] seed(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(version);
+
+        out.writeInt(1);
+        out.writeInt(3);
+        writeString(out, "Obrok");
+        writeString(out, "Meal");
+        out.writeInt(1);
+        out.writeInt(2);
+        out.writeInt(10);
+        writeString(out, "Lunch");
+        out.writeInt(3);
+        out.writeInt(11);
+        writeString(out, "Dinner");
+        out.writeInt(3);
+
+        out.writeInt(1);
+        out.writeInt(5);
+        writeString(out, "Brašno");
+        writeString(out, "weight");
+
+        out.writeInt(2);
+        writeRecipe(out, 7, "Pita", "pita.jpg", "2016-08-19 09:00:00", 10);
+        writeRecipe(out, 8, "Palačinke", null, "2016-08-20 10:00:00", 10, 11);
+
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeRecipe(DataOutputStream out, int id, String title, String image, String updatedAt,
+                                    int... tagIds) throws IOException {
+        out.writeInt(id);
+        writeString(out, title);
+        writeString(out, image);
+        out.writeInt(2);
+        out.writeInt(4);
+        out.writeInt(30);
+        out.writeInt(12);
+        writeString(out, updatedAt);
+        out.writeInt(tagIds.length);
+        for (int tagId : tagIds) {
+            out.writeInt(tagId);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+}
@@ -0,0 +1,194 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.bstorm.aleksa.recipes.api.SessionManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by aleksa on 9/2/16.
+ *
+ * Checks that every thread gets one instance, closed with its last session, and that the leaks are reported
+ */
+public class SessionManagerUnitTest {
+
+    /**
+     * Checks that nested sessions on a thread share an instance, which is closed when the last one is released
+     */
+    @Test
+    public void sharesInstancePerThreadTest() {
+        FakeDatabase database = new FakeDatabase(false);
+        SessionManager<Object> sessions = new SessionManager<>(database, true, 60000, new Reports());
+
+        Object outer = sessions.acquire();
+        Object inner = sessions.acquire();
+        assertSame(outer, inner);
+        assertSame(outer, sessions.current());
+        assertEquals(2, sessions.getReferences());
+
+        sessions.release();
+        assertEquals(0, database.closed.get());
+        sessions.release();
+        assertEquals(1, database.closed.get());
+
+        // A new session opens a new instance
+        assertNotSame(outer, sessions.acquire());
+        sessions.release();
+        assertEquals(2, sessions.getOpenedCount());
+        assertEquals(2, sessions.getClosedCount());
+    }
+
+    /**
+     * Checks that a thread keeping its instance opens it once, however many sessions come and go
+     */
+    @Test
+    public void keepsInstanceOpenTest() {
+        FakeDatabase database = new FakeDatabase(true);
+        SessionManager<Object> sessions = new SessionManager<>(database, true, 60000, new Reports());
+
+        Object kept = sessions.current();
+        for (int i = 0; i < 100; i++) {
+            assertSame(kept, sessions.acquire());
+            sessions.release();
+        }
+
+        assertEquals(1, database.opened.get());
+        assertEquals(0, database.closed.get());
+    }
+
+    /**
+     * Checks that using the thread's instance, or releasing it, without a session fails right away
+     */
+    @Test
+    public void requiresSessionTest() {
+        SessionManager<Object> sessions = new SessionManager<>(new FakeDatabase(false), true, 60000, new Reports());
+
+        try {
+            sessions.current();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        try {
+            sessions.release();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Checks that a thread that died with its session open is reported once, with where it was acquired
+     */
+    @Test
+    public void reportsLeakedThreadTest() throws Exception {
+        Reports reports = new Reports();
+        final SessionManager<Object> sessions = new SessionManager<>(new FakeDatabase(false), true, 60000, reports);
+
+        Thread leaking = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sessions.acquire();
+            }
+        }, "leaking-worker");
+        leaking.start();
+        leaking.join();
+
+        assertEquals(1, sessions.reportLeaks());
+        assertEquals(1, reports.reports.size());
+        assertTrue(reports.reports.get(0).startsWith("leaking-worker died"));
+        assertNotNull(reports.sites.get(0));
+
+        // It's forgotten once reported
+        assertEquals(0, sessions.reportLeaks());
+    }
+
+    /**
+     * Checks that a worker holding its session for too long is reported, and a released one isn't
+     */
+    @Test
+    public void reportsHeldSessionTest() throws Exception {
+        Reports reports = new Reports();
+        SessionManager<Object> sessions = new SessionManager<>(new FakeDatabase(false), true, 10, reports);
+
+        sessions.acquire();
+        Thread.sleep(50);
+        assertEquals(1, sessions.reportLeaks());
+        assertTrue(reports.reports.get(0).startsWith(Thread.currentThread().getName() + " held"));
+
+        sessions.release();
+        assertEquals(0, sessions.reportLeaks());
+    }
+
+    /**
+     * Checks that nothing is tracked or reported outside debug builds
+     */
+    @Test
+    public void silentOutsideDebugTest() throws Exception {
+        Reports reports = new Reports();
+        final SessionManager<Object> sessions = new SessionManager<>(new FakeDatabase(false), false, 0, reports);
+
+        Thread leaking = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sessions.acquire();
+            }
+        });
+        leaking.start();
+        leaking.join();
+
+        assertEquals(0, sessions.reportLeaks());
+        assertTrue(reports.reports.isEmpty());
+    }
+
+    private static class FakeDatabase implements SessionManager.Database<Object> {
+
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final boolean keepsOpen;
+
+        FakeDatabase(boolean keepsOpen) {
+            this.keepsOpen = keepsOpen;
+        }
+
+        @Override
+        public Object open() {
+            opened.incrementAndGet();
+            return new Object();
+        }
+
+        @Override
+        public void close(Object db) {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public boolean keepsOpen() {
+            return keepsOpen;
+        }
+    }
+
+    private static class Reports implements SessionManager.LeakReporter {
+
+        final List<String> reports = Collections.synchronizedList(new ArrayList<String>());
+        final List<Throwable> sites = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        @Override
+        public void report(String thread, int references, Throwable acquiredAt, boolean threadDied) {
+            reports.add(thread + (threadDied ? " died" : " held") + " with " + references);
+            sites.add(acquiredAt);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.bstorm.aleksa.recipes.api.FetchData;
+import co.bstorm.aleksa.recipes.api.SnapshotDownloader;
+import co.bstorm.aleksa.recipes.api.SnapshotIngest;
+import co.bstorm.aleksa.recipes.api.StreamingIngest;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by aleksa on 8/27/16.
+ *
+ * Downloads and ingests a snapshot from a server that drops every connection after a few KB
+ */
+public class SnapshotIngestUnitTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECIPE_COUNT = 300;
+    // Bytes the server sends before dropping the connection
+    private static final int BYTES_PER_CONNECTION = 4000;
+
+    private MockWebServer server;
+    private File file;
+    private File validatorFile;
+
+    // What the server serves right now, and its ETag
+    private volatile byte[] snapshot;
+    private volatile String etag;
+    private volatile boolean broken = false;
+
+    private List<String> ranges;
+    private Map<Integer, String> written;
+    // Tombstones, whose stored copies are deleted
+    private List<Integer> deleted;
+    // Recipes ingested so far, as reported after each batch
+    private List<Integer> progress;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshot = snapshot("Recipe");
+        etag = "\"v1\"";
+        ranges = new ArrayList<>();
+        written = new LinkedHashMap<>();
+        deleted = new ArrayList<>();
+        progress = new ArrayList<>();
+
+        file = File.createTempFile("snapshot", ".json");
+        file.delete();
+        validatorFile = new File(file.getPath() + ".validator");
+
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (broken)
+                    return new MockResponse().setResponseCode(500);
+
+                String range = request.getHeader("Range");
+                synchronized (ranges) {
+                    ranges.add(range);
+                }
+
+                // Resume only if what the client has is still what we serve
+                int start = 0;
+                if (range != null && etag.equals(request.getHeader("If-Range")))
+                    start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+
+                int end = Math.min(snapshot.length, start + BYTES_PER_CONNECTION);
+                MockResponse response = new MockResponse()
+                        .setResponseCode(start > 0 ? 206 : 200)
+                        .setHeader("ETag", etag)
+                        .setBody(new Buffer().write(snapshot, start, end - start))
+                        // Promises the whole rest, and drops the connection before it's all there
+                        .setHeader("Content-Length", snapshot.length - start);
+                if (start > 0)
+                    response.setHeader("Content-Range", "bytes " + start + "-" + (snapshot.length - 1) + "/" + snapshot.length);
+                if (end < snapshot.length)
+                    response.setSocketPolicy(SocketPolicy.DISCONNECT_AT_END);
+                return response;
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        file.delete();
+        validatorFile.delete();
+    }
+
+    /**
+     * Checks that every drop resumes from the last byte, and that everything is ingested once
+     */
+    @Test
+    public void resumesAfterDropsTest() throws IOException {
+        SnapshotDownloader downloader = downloader();
+
+        assertEquals(RECIPE_COUNT, ingest(downloader).run());
+        assertEquals(RECIPE_COUNT, written.size());
+        assertEquals("Recipe 300", written.get(300));
+
+        // Reported after every batch of 50
+        assertEquals(RECIPE_COUNT / 50, progress.size());
+        for (int i = 0; i < progress.size(); i++) {
+            assertEquals(50 * (i + 1), (int) progress.get(i));
+        }
+
+        int expectedRequests = (snapshot.length + BYTES_PER_CONNECTION - 1) / BYTES_PER_CONNECTION;
+        assertEquals(expectedRequests, downloader.getRequestCount());
+        assertNull(ranges.get(0));
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals("bytes=" + (i * BYTES_PER_CONNECTION) + "-", ranges.get(i));
+        }
+
+        // Done with it, the next resync downloads a fresh one
+        assertFalse(file.exists());
+        assertFalse(validatorFile.exists());
+    }
+
+    /**
+     * Checks that recipes the snapshot marks as deleted aren't written, and that their stored copies go
+     */
+    @Test
+    public void dropsTombstonesTest() throws IOException {
+        snapshot = snapshot("Recipe", 10);
+
+        assertEquals(RECIPE_COUNT, ingest(downloader()).run());
+        assertEquals(RECIPE_COUNT - RECIPE_COUNT / 10, written.size());
+        assertEquals(RECIPE_COUNT / 10, deleted.size());
+        for (int id : deleted) {
+            assertEquals(0, id % 10);
+            assertFalse(written.containsKey(id));
+        }
+    }
+
+    /**
+     * Checks that a download interrupted in an earlier session picks up where it stopped
+     */
+    @Test
+    public void resumesEarlierDownloadTest() throws IOException {
+        write(file, snapshot, 10000);
+        write(validatorFile, etag.getBytes(UTF_8), etag.length());
+
+        assertEquals(RECIPE_COUNT, ingest(downloader()).run());
+        assertEquals(RECIPE_COUNT, written.size());
+        assertEquals("bytes=10000-", ranges.get(0));
+    }
+
+    /**
+     * Checks that if the snapshot changes mid-download we start over, and end up with the new one
+     */
+    @Test
+    public void startsOverWhenChangedTest() throws IOException {
+        write(file, snapshot, 10000);
+        write(validatorFile, etag.getBytes(UTF_8), etag.length());
+
+        snapshot = snapshot("Changed");
+        etag = "\"v2\"";
+
+        assertEquals(RECIPE_COUNT, ingest(downloader()).run());
+        for (String title : written.values()) {
+            assertTrue(title.startsWith("Changed"));
+        }
+    }
+
+    /**
+     * Checks that we give up when retrying gets us nowhere, and keep what we have for next time
+     */
+    @Test
+    public void givesUpTest() throws IOException {
+        write(file, snapshot, 10000);
+        write(validatorFile, etag.getBytes(UTF_8), etag.length());
+        broken = true;
+
+        try {
+            ingest(downloader()).run();
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(file.exists());
+        assertEquals(10000, file.length());
+    }
+
+    private SnapshotDownloader downloader() {
+        return new SnapshotDownloader(new OkHttpClient(), server.url("/recipes/get-init-recipes").toString(),
+                validatorFile, 3, 1);
+    }
+
+    // Small lead and window, so the download and the parse keep waiting for each other
+    private SnapshotIngest ingest(SnapshotDownloader downloader) {
+        return new SnapshotIngest(downloader, file, validatorFile,
+                new SnapshotIngest.BatchSink() {
+                    @Override
+                    public void write(List<Recipe> batch) {
+                        // The same split the write does before anything is stored
+                        for (Recipe recipe : FetchData.dropTombstones(batch, deleted)) {
+                            written.put(recipe.getId(), recipe.getTitle());
+                        }
+                    }
+                },
+                new StreamingIngest.ProgressListener() {
+                    @Override
+                    public void onProgress(int ingested) {
+                        progress.add(ingested);
+                    }
+                },
+                50, 8000, 1024);
+    }
+
+    private static void write(File file, byte[] bytes, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] snapshot(String title) {
+        return snapshot(title, 0);
+    }
+
+    // Every deletedEvery-th recipe is a tombstone, none if it's 0
+    private static byte[] snapshot(String title, int deletedEvery) {
+        StringBuilder builder = new StringBuilder("{\"status\":true,\"recipes\":[");
+        for (int id = 1; id <= RECIPE_COUNT; id++) {
+            if (id > 1)
+                builder.append(',');
+            builder.append("{\"id\":\"").append(id)
+                    .append("\",\"title\":\"").append(title).append(' ').append(id)
+                    .append("\",\"updated_at\":\"2016-08-01 10:00:00\"")
+                    .append(",\"is_deleted\":\"").append(deletedEvery > 0 && id % deletedEvery == 0 ? 1 : 0).append('"')
+                    .append(",\"steps\":[{\"id\":\"").append(id).append("\",\"text\":\"Mix and bake\"}]}");
+        }
+        return builder.append("]}").toString().getBytes(UTF_8);
+    }
+}
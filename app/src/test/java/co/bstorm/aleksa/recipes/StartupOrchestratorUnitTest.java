@@ -0,0 +1,101 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import co.bstorm.aleksa.recipes.api.NetworkScheduler.Priority;
+import co.bstorm.aleksa.recipes.config.StartupOrchestrator;
+import co.bstorm.aleksa.recipes.config.StartupTimeline;
+import rx.Subscription;
+import rx.functions.Func0;
+import rx.subscriptions.Subscriptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/25/16.
+ *
+ * Checks the order of the startup fetches, and that the fresh ones are left out
+ */
+public class StartupOrchestratorUnitTest {
+
+    private List<String> started;
+    private Set<String> fresh;
+    private StartupTimeline timeline;
+    private StartupOrchestrator startup;
+
+    @Before
+    public void setUp() {
+        started = new ArrayList<>();
+        fresh = new HashSet<>();
+        timeline = new StartupTimeline();
+        startup = new StartupOrchestrator(
+                new StartupOrchestrator.Freshness() {
+                    @Override
+                    public boolean isStale(String entity) {
+                        return !fresh.contains(entity);
+                    }
+                },
+                timeline);
+    }
+
+    /**
+     * Checks that the most urgent fetches start first, in the order they were added within a priority
+     */
+    @Test
+    public void priorityOrderTest() {
+        startup.add("tags", Priority.BACKGROUND, fetch("tags"))
+                .add("details", Priority.PREFETCH, fetch("details"))
+                .add("components", Priority.BACKGROUND, fetch("components"))
+                .add("recipes", Priority.INTERACTIVE, fetch("recipes"));
+
+        assertEquals(4, startup.start().size());
+        assertEquals(Arrays.asList("recipes", "details", "tags", "components"), started);
+    }
+
+    /**
+     * Checks that entities synced within their TTL aren't fetched, and that the timeline says so
+     */
+    @Test
+    public void skipsFreshTest() {
+        fresh.add("tags");
+        startup.add("recipes", Priority.INTERACTIVE, fetch("recipes"))
+                .add("tags", Priority.BACKGROUND, fetch("tags"));
+
+        assertEquals(1, startup.start().size());
+        assertEquals(Arrays.asList("recipes"), started);
+        assertEquals(Arrays.asList("recipes fetch started", "tags fresh, skipped"), timeline.getPhases());
+    }
+
+    /**
+     * Checks that nothing is marked once the timeline is finished
+     */
+    @Test
+    public void timelineFreezesTest() {
+        timeline.mark("first");
+        assertTrue(timeline.finish());
+        timeline.mark("second");
+
+        assertEquals(Arrays.asList("first"), timeline.getPhases());
+        assertTrue(timeline.getMillis("first") >= 0);
+        assertEquals(-1, timeline.getMillis("second"));
+        assertEquals(false, timeline.finish());
+    }
+
+    private Func0<Subscription> fetch(final String entity) {
+        return new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                started.add(entity);
+                return Subscriptions.empty();
+            }
+        };
+    }
+}
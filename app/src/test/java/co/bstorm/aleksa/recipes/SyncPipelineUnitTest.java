@@ -0,0 +1,215 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.bstorm.aleksa.recipes.api.SyncPipeline;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by aleksa on 8/29/16.
+ *
+ * Runs fake fetches through the pipeline, and checks that a slow write holds up the fetches
+ */
+public class SyncPipelineUnitTest {
+
+    private static final int JOBS = 20;
+
+    private final AtomicInteger fetched = new AtomicInteger();
+
+    /**
+     * Checks that while the write is stuck only as many responses are fetched as the stages and queues can hold
+     */
+    @Test
+    public void slowWriteHoldsUpFetchesTest() throws Exception {
+        // A thread and a single slot per stage
+        SyncPipeline pipeline = new SyncPipeline(1, 1, 1, 1, 1);
+        final CountDownLatch writeStuck = new CountDownLatch(1);
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+
+        List<TestSubscriber<Integer>> subscribers = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+            pipeline.process(fetch(i), splitter(), null,
+                    new SyncPipeline.Writer<Integer>() {
+                        @Override
+                        public int write(List<Integer> items) {
+                            await(writeStuck);
+                            written.addAll(items);
+                            return items.size();
+                        }
+                    })
+                    .subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+
+        // One being written and one waiting for it, one per thread and slot of the transform and
+        // parse stages, and one fetch thread waiting to hand its response over
+        int held = 7;
+        waitFor(held);
+        Thread.sleep(200);
+        assertEquals(held, fetched.get());
+        assertEquals(1, pipeline.getStages().get(3).getQueued());
+
+        writeStuck.countDown();
+        for (TestSubscriber<Integer> subscriber : subscribers) {
+            subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            subscriber.assertNoErrors();
+            subscriber.assertValue(2);
+        }
+
+        assertEquals(JOBS, fetched.get());
+        assertEquals(JOBS * 2, written.size());
+        for (SyncPipeline.Stage stage : pipeline.getStages()) {
+            assertEquals(JOBS, stage.getProcessedCount());
+            if (stage.getCapacity() > 0)
+                assertTrue(stage.getMaxQueued() <= stage.getCapacity());
+        }
+        // The stages before the write spent their time waiting for it
+        assertTrue(pipeline.getStages().get(2).getAverageBlockedMillis() > 0);
+        assertTrue(pipeline.getStages().get(3).getMaxLatencyMillis() >= 200);
+    }
+
+    /**
+     * Checks that a response that fails to parse fails its job only
+     */
+    @Test
+    public void parseErrorFailsJobTest() {
+        SyncPipeline pipeline = new SyncPipeline(2, 2, 2, 1, 2);
+
+        TestSubscriber<Integer> broken = new TestSubscriber<>();
+        pipeline.process(fetch(1),
+                new SyncPipeline.Parser<Integer, Integer>() {
+                    @Override
+                    public List<Integer> parse(Integer response) throws IOException {
+                        throw new IOException("Malformed");
+                    }
+                },
+                null, counter())
+                .subscribe(broken);
+
+        TestSubscriber<Integer> fine = new TestSubscriber<>();
+        pipeline.process(fetch(2), splitter(), null, counter()).subscribe(fine);
+
+        broken.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        broken.assertError(IOException.class);
+        fine.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        fine.assertValue(2);
+
+        assertEquals(1, pipeline.getStages().get(1).getFailedCount());
+        assertEquals(1, pipeline.getStages().get(3).getProcessedCount());
+    }
+
+    /**
+     * Checks that a fetch with nothing new (a not modified response) completes without writing
+     */
+    @Test
+    public void emptyFetchCompletesTest() {
+        SyncPipeline pipeline = new SyncPipeline(1, 1, 1, 1, 1);
+
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        pipeline.process(Observable.<Integer>empty(), splitter(), null, counter()).subscribe(subscriber);
+
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        subscriber.assertNoValues();
+        subscriber.assertCompleted();
+        assertEquals(0, pipeline.getStages().get(1).getProcessedCount());
+    }
+
+    /**
+     * Checks that a response whose job was cancelled before the parse is closed, not just dropped
+     */
+    @Test
+    public void cancelledJobClosesResponseTest() throws Exception {
+        SyncPipeline pipeline = new SyncPipeline(1, 1, 1, 1, 1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+
+        Observable<Closeable> fetch = Observable.defer(new Func0<Observable<Closeable>>() {
+            @Override
+            public Observable<Closeable> call() {
+                // Cancelled while the response is coming in
+                subscriber.unsubscribe();
+                return Observable.<Closeable>just(new Closeable() {
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                });
+            }
+        });
+        pipeline.process(fetch,
+                new SyncPipeline.Parser<Closeable, Integer>() {
+                    @Override
+                    public List<Integer> parse(Closeable response) {
+                        return Collections.singletonList(1);
+                    }
+                },
+                null, counter())
+                .subscribe(subscriber);
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        subscriber.assertNoValues();
+    }
+
+    private Observable<Integer> fetch(int response) {
+        return Observable.just(response).doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                fetched.incrementAndGet();
+            }
+        });
+    }
+
+    // Every response is parsed into two items
+    private static SyncPipeline.Parser<Integer, Integer> splitter() {
+        return new SyncPipeline.Parser<Integer, Integer>() {
+            @Override
+            public List<Integer> parse(Integer response) {
+                List<Integer> items = new ArrayList<>();
+                items.add(response * 2);
+                items.add(response * 2 + 1);
+                return items;
+            }
+        };
+    }
+
+    private static SyncPipeline.Writer<Integer> counter() {
+        return new SyncPipeline.Writer<Integer>() {
+            @Override
+            public int write(List<Integer> items) {
+                return items.size();
+            }
+        };
+    }
+
+    private void waitFor(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetched.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package co.bstorm.aleksa.recipes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.bstorm.aleksa.recipes.pojo.Ingredient;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+import co.bstorm.aleksa.recipes.pojo.RecipeTag;
+import co.bstorm.aleksa.recipes.pojo.Step;
+import io.realm.RealmList;
+
+/**
+ * Created by aleksa on 9/5/16.
+ *
+ * Recipes with details, the way they come from the server, shared by the tests that need a catalog
+ */
+public class SyntheticCatalog {
+
+    public static final int TAG_COUNT = 40;
+    public static final int TAGS = 5;
+    public static final int STEPS = 8;
+    public static final int INGREDIENTS = 10;
+
+    /**
+     * @return Recipes with ids from 1 to count
+     */
+    public static List<Recipe> recipes(int count) {
+        List<Recipe> recipes = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            recipes.add(recipe(id));
+        }
+        return recipes;
+    }
+
+    public static Recipe recipe(int id) {
+        Recipe recipe = new Recipe();
+        recipe.setId(id);
+        recipe.setTitle("Čokoladna Torta Sa Višnjama " + id);
+        recipe.setImageUrl("http://example.com/recipes/" + id + ".jpg");
+        recipe.setDifficulty(id % 3 + 1);
+        recipe.setDefaultServingSize(4);
+        recipe.setPreparationTime(30 + id % 90);
+        recipe.setLikes(id * 7 % 1000);
+        recipe.setUpdatedAt("2016-08-01 10:00:00");
+
+        RealmList<RecipeTag> tags = new RealmList<>();
+        for (int i = 0; i < TAGS; i++) {
+            RecipeTag tag = new RecipeTag();
+            // Spread over the tags, so each one is on about an eighth of the catalog
+            tag.setId((id * 7 + i * 11) % TAG_COUNT + 1);
+            tags.add(tag);
+        }
+        recipe.setTags(tags);
+
+        RealmList<Step> steps = new RealmList<>();
+        for (int i = 0; i < STEPS; i++) {
+            Step step = new Step();
+            step.setId(id * STEPS + i);
+            step.setTimer((id + i) % 4 == 0 ? (id + i) % 30 : 0);
+            steps.add(step);
+        }
+        recipe.setSteps(steps);
+
+        RealmList<Ingredient> ingredients = new RealmList<>();
+        for (int i = 0; i < INGREDIENTS; i++) {
+            Ingredient ingredient = new Ingredient();
+            ingredient.setComponentId(i * 13 + 1);
+            ingredient.setQuantity(100);
+            ingredients.add(ingredient);
+        }
+        recipe.setIngredients(ingredients);
+
+        return recipe;
+    }
+}
@@ -0,0 +1,367 @@
+package co.bstorm.aleksa.recipes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import co.bstorm.aleksa.recipes.api.WriteQueue;
+import co.bstorm.aleksa.recipes.pojo.Recipe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by aleksa on 9/1/16.
+ *
+ * Runs writes against a fake database, and checks how they're grouped into transactions
+ */
+public class WriteQueueUnitTest {
+
+    /**
+     * Checks that writes posted close together end up in a few transactions, not one each
+     */
+    @Test
+    public void groupsWritesTest() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 50, 100, 10);
+
+        for (int i = 0; i < 50; i++) {
+            queue.post(add(i));
+        }
+        // Waiting on a write queued last means the ones before it are done too
+        queue.write(1, add(50));
+
+        assertEquals(51, database.committed.size());
+        assertEquals(51, queue.getWriteCount());
+        assertTrue(queue.getTransactionCount() < 10);
+        assertEquals(database.commits, queue.getTransactionCount());
+        // Still in the order they were queued
+        for (int i = 0; i <= 50; i++) {
+            assertEquals(i, (int) database.committed.get(i));
+        }
+    }
+
+    /**
+     * Checks that a big payload is split into chunks, and no transaction holds more than the maximum
+     */
+    @Test
+    public void chunksBigPayloadsTest() {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 10, 25, 10);
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+
+        int written = queue.writeChunked(items, new WriteQueue.ChunkWrite<List<Integer>, Integer>() {
+            @Override
+            public int write(List<Integer> db, List<Integer> chunk) {
+                db.addAll(chunk);
+                return chunk.size();
+            }
+        });
+
+        assertEquals(1000, written);
+        assertEquals(items, database.committed);
+        assertEquals(100, queue.getWriteCount());
+        // Two chunks fit in a transaction, a third one doesn't
+        assertEquals(50, queue.getTransactionCount());
+        assertEquals(20, queue.getMaxTransactionSize());
+        assertEquals(20, queue.getAverageTransactionSize());
+    }
+
+    /**
+     * Checks that a group where nothing was written is cancelled rather than committed
+     */
+    @Test
+    public void cancelsEmptyGroupsTest() {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 0, 100, 10);
+
+        int written = queue.write(1, new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                return 0;
+            }
+        });
+
+        assertEquals(0, written);
+        assertEquals(0, database.commits);
+        assertEquals(1, database.cancels);
+        assertEquals(0, queue.getTransactionCount());
+        assertEquals(1, queue.getCancelledCount());
+    }
+
+    /**
+     * Checks that a failing write fails by itself, and the writes grouped with it still go through
+     */
+    @Test
+    public void isolatesFailuresTest() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        final WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 200, 100, 10);
+
+        // The window is long enough for all of them to be grouped together
+        queue.post(add(0));
+        queue.post(add(1));
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread failing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.write(1, new WriteQueue.Write<List<Integer>>() {
+                        @Override
+                        public int write(List<Integer> db) {
+                            db.add(-1);
+                            throw new IllegalStateException("Broken");
+                        }
+                    });
+                } catch (IllegalStateException e) {
+                    failures.add(e);
+                }
+            }
+        });
+        failing.start();
+        Thread.sleep(50);
+        queue.post(add(2));
+
+        failing.join(5000);
+        queue.write(1, add(3));
+
+        assertEquals(1, failures.size());
+        assertEquals(1, queue.getFailedCount());
+        // The failed write's change was rolled back, the others are all there
+        List<Integer> expected = new ArrayList<>();
+        Collections.addAll(expected, 0, 1, 2, 3);
+        assertEquals(expected, database.committed);
+    }
+
+    /**
+     * Checks that a write redone after its group failed writes what it would have the first time
+     */
+    @Test
+    public void redoesWritesIdempotentlyTest() {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 200, 100, 10);
+
+        // The server says 10, and one like of ours isn't sent yet
+        final Recipe recipe = new Recipe();
+        recipe.setLikes(10);
+        queue.post(new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                recipe.setLikesWithPending(1);
+                db.add(recipe.getLikes());
+                return 1;
+            }
+        });
+        // Grouped with the one above, so that one runs again on its own
+        queue.post(new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                throw new IllegalStateException("Broken");
+            }
+        });
+        queue.write(1, add(0));
+
+        assertEquals(Arrays.asList(11, 0), database.committed);
+    }
+
+    /**
+     * Checks that a write made from inside another one joins its transaction instead of waiting for itself
+     */
+    @Test
+    public void nestedWriteJoinsTransactionTest() {
+        FakeDatabase database = new FakeDatabase();
+        final WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 0, 100, 10);
+
+        int written = queue.write(1, new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                db.add(1);
+                return 1 + queue.write(1, add(2));
+            }
+        });
+
+        assertEquals(2, written);
+        assertEquals(1, database.commits);
+    }
+
+    /**
+     * Checks that the window is what holds the first write back, and the metrics show it
+     */
+    @Test
+    public void reportsMetricsTest() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 100, 100, 10);
+
+        long start = System.nanoTime();
+        queue.write(1, add(1));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(millis >= 100);
+        assertTrue(queue.getAverageQueueWaitMillis() >= 100);
+        assertEquals(1, queue.getTransactionCount());
+        assertEquals(1, queue.getMaxTransactionSize());
+        assertTrue(queue.toString().contains("transactions=1"));
+    }
+
+    /**
+     * Checks that the writer keeps going when the database fails to open, begin or commit, and only
+     * the writes caught in it fail
+     */
+    @Test
+    public void survivesDatabaseFailuresTest() {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 0, 100, 10);
+
+        database.failOpen = 1;
+        try {
+            queue.write(1, add(0));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Open failed", e.getMessage());
+        }
+
+        database.failBegin = 1;
+        try {
+            queue.write(1, add(1));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Begin failed", e.getMessage());
+        }
+
+        database.failCommit = 1;
+        try {
+            queue.write(1, add(2));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Commit failed", e.getMessage());
+        }
+
+        // The writer is still there, and the failed writes left nothing behind
+        assertEquals(1, queue.write(1, add(3)));
+        assertEquals(Collections.singletonList(3), database.committed);
+        assertEquals(3, queue.getFailedCount());
+    }
+
+    /**
+     * Checks that an Error thrown by a write reaches its caller as it is, and the writer survives it
+     */
+    @Test
+    public void survivesErrorsTest() {
+        FakeDatabase database = new FakeDatabase();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(database, new Reports(), 0, 100, 10);
+
+        try {
+            queue.write(1, new WriteQueue.Write<List<Integer>>() {
+                @Override
+                public int write(List<Integer> db) {
+                    throw new AssertionError("Broken");
+                }
+            });
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("Broken", e.getMessage());
+        }
+
+        assertEquals(1, queue.write(1, add(1)));
+        assertEquals(Collections.singletonList(1), database.committed);
+    }
+
+    /**
+     * Checks that a posted write that fails goes to the reporter, since nobody waits on it
+     */
+    @Test
+    public void reportsPostedFailuresTest() {
+        Reports reports = new Reports();
+        WriteQueue<List<Integer>> queue = new WriteQueue<>(new FakeDatabase(), reports, 0, 100, 10);
+
+        queue.post(new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                throw new IllegalStateException("Broken");
+            }
+        });
+        // Queued after it, so it's reported by the time this returns
+        queue.write(1, add(1));
+
+        assertEquals(1, reports.failures.size());
+        assertEquals("Broken", reports.failures.get(0).getMessage());
+    }
+
+    private static WriteQueue.Write<List<Integer>> add(final int value) {
+        return new WriteQueue.Write<List<Integer>>() {
+            @Override
+            public int write(List<Integer> db) {
+                db.add(value);
+                return 1;
+            }
+        };
+    }
+
+    /**
+     * A list that only keeps what's committed, writes go to a scratch copy until then
+     */
+    private static class FakeDatabase implements WriteQueue.Database<List<Integer>> {
+
+        final List<Integer> committed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> scratch = new ArrayList<>();
+        volatile int commits = 0;
+        volatile int cancels = 0;
+        // How many times the next calls fail
+        volatile int failOpen = 0;
+        volatile int failBegin = 0;
+        volatile int failCommit = 0;
+
+        @Override
+        public List<Integer> open() {
+            if (failOpen > 0) {
+                failOpen--;
+                throw new IllegalStateException("Open failed");
+            }
+            return scratch;
+        }
+
+        @Override
+        public void beginTransaction(List<Integer> db) {
+            if (failBegin > 0) {
+                failBegin--;
+                throw new IllegalStateException("Begin failed");
+            }
+            db.clear();
+        }
+
+        @Override
+        public void commitTransaction(List<Integer> db) {
+            if (failCommit > 0) {
+                failCommit--;
+                throw new IllegalStateException("Commit failed");
+            }
+            committed.addAll(db);
+            db.clear();
+            commits++;
+        }
+
+        @Override
+        public void cancelTransaction(List<Integer> db) {
+            db.clear();
+            cancels++;
+        }
+    }
+
+    private static class Reports implements WriteQueue.FailureReporter {
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        @Override
+        public void report(String message, Throwable e) {
+            failures.add(e);
+        }
+    }
+}